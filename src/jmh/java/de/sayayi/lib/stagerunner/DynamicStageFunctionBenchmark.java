@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+
+import static de.sayayi.lib.stagerunner.BenchmarkStage.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+
+/**
+ * Measures runs which add stage functions while running, either by adding dynamic stage functions with
+ * {@link StageContext#addStageFunction(Enum, StageFunction)} or by enabling named stage functions with
+ * {@link StageContext#enableNamedStageFunctions(java.util.function.Predicate)}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DynamicStageFunctionBenchmark
+{
+  private static final StageFunction<BenchmarkStage> NOOP = stageContext -> {};
+
+  /** Number of stage functions added during each run. */
+  @Param({ "1", "10", "100" })
+  public int addedFunctionCount;
+
+  /** Number of stage functions registered with the factory. */
+  @Param({ "10", "100" })
+  public int functionCount;
+
+  private StageRunner<BenchmarkStage> addStageFunctionRunner;
+  private StageRunner<BenchmarkStage> enableNamedStageFunctionsRunner;
+  private Map<String,Object> data;
+
+
+  @Setup
+  public void setup()
+  {
+    final var addStageFunctionFactory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    addFunctions(addStageFunctionFactory);
+    addStageFunctionFactory.addStageFunction(INIT, stageContext -> {
+      for(int n = 0; n < addedFunctionCount; n++)
+        stageContext.addStageFunction(n % 2 == 0 ? PROCESS : CLEANUP, NOOP);
+    });
+    addStageFunctionRunner = addStageFunctionFactory.createRunner();
+
+    final var enableNamedStageFunctionsFactory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    addFunctions(enableNamedStageFunctionsFactory);
+    for(int n = 0; n < addedFunctionCount; n++)
+      enableNamedStageFunctionsFactory.namedStageFunction("named-" + n, n % 2 == 0 ? PROCESS : CLEANUP, NOOP);
+    enableNamedStageFunctionsFactory.addStageFunction(INIT,
+        stageContext -> stageContext.enableNamedStageFunctions(name -> name.startsWith("named-")));
+    enableNamedStageFunctionsRunner = enableNamedStageFunctionsFactory.createRunner();
+
+    data = Map.of();
+  }
+
+
+  private void addFunctions(@NotNull DefaultStageRunnerFactory<BenchmarkStage> factory)
+  {
+    final var stages = BenchmarkStage.values();
+
+    for(int n = 0; n < functionCount; n++)
+      factory.addStageFunction(stages[n % stages.length], n, null, NOOP);
+  }
+
+
+  @Benchmark
+  public boolean addStageFunction() {
+    return addStageFunctionRunner.run(data);
+  }
+
+
+  @Benchmark
+  public boolean enableNamedStageFunctions() {
+    return enableNamedStageFunctionsRunner.run(data);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+import static de.sayayi.lib.stagerunner.BenchmarkStage.PROCESS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+
+/**
+ * Measures {@link StageContext#getRemainingStages()} and {@link StageContext#getFunctions()}, invoked
+ * {@value #QUERIES} times by a stage function of the {@link BenchmarkStage#PROCESS PROCESS} stage. The scores are
+ * reported per query.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageContextQueryBenchmark
+{
+  private static final int QUERIES = 100;
+
+  @Param({ "10", "100", "1000" })
+  public int functionCount;
+
+  private StageRunner<BenchmarkStage> remainingStagesRunner;
+  private StageRunner<BenchmarkStage> functionsRunner;
+  private Map<String,Object> data;
+  private Blackhole blackhole;
+
+
+  @Setup
+  public void setup()
+  {
+    remainingStagesRunner = createRunner(stageContext -> {
+      for(int n = 0; n < QUERIES; n++)
+        blackhole.consume(stageContext.getRemainingStages());
+    });
+
+    functionsRunner = createRunner(stageContext -> {
+      for(int n = 0; n < QUERIES; n++)
+        blackhole.consume(stageContext.getFunctions());
+    });
+
+    data = Map.of();
+  }
+
+
+  private StageRunner<BenchmarkStage> createRunner(StageFunction<BenchmarkStage> queryFunction)
+  {
+    final var factory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    final var stages = BenchmarkStage.values();
+
+    for(int n = 1; n < functionCount; n++)
+      factory.addStageFunction(stages[n % stages.length], n, null, stageContext -> {});
+
+    factory.addStageFunction(PROCESS, queryFunction);
+
+    return factory.createRunner();
+  }
+
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public boolean getRemainingStages(Blackhole blackhole)
+  {
+    this.blackhole = blackhole;
+    return remainingStagesRunner.run(data);
+  }
+
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public boolean getFunctions(Blackhole blackhole)
+  {
+    this.blackhole = blackhole;
+    return functionsRunner.run(data);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+
+/**
+ * Measures a complete run of a stage runner with a fixed number of stage functions, evenly distributed over all
+ * stages.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageRunnerBenchmark
+{
+  @Param({ "1", "10", "100", "1000" })
+  public int functionCount;
+
+  private StageRunner<BenchmarkStage> stageRunner;
+  private Map<String,Object> data;
+
+
+  @Setup
+  public void setup()
+  {
+    final var factory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    final var stages = BenchmarkStage.values();
+
+    for(int n = 0; n < functionCount; n++)
+      factory.addStageFunction(stages[n % stages.length], n, null, stageContext -> {});
+
+    stageRunner = factory.createRunner();
+    data = Map.of();
+  }
+
+
+  @Benchmark
+  public boolean run() {
+    return stageRunner.run(data);
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.spring.SpringLoadScenarios;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static de.sayayi.lib.stagerunner.spi.LatencyHistogram.BUCKETS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+
+/**
+ * Multi-threaded throughput and soak test harness.
+ * <p>
+ * Each selected scenario is driven by a number of threads for a warmup period followed by a measurement period.
+ * The harness reports the throughput, latency percentiles, garbage collections and the number of bytes allocated
+ * per operation as JSON. For soak tests, the measurement period is divided into intervals, each reporting its own
+ * throughput and latency, so a degradation over time becomes visible.
+ * <p>
+ * Options:
+ * <ul>
+ *   <li>{@code --threads <n>}: number of load threads (default: number of processors)</li>
+ *   <li>{@code --warmup <seconds>}: warmup period (default: 5)</li>
+ *   <li>{@code --duration <seconds>}: measurement period (default: 30)</li>
+ *   <li>{@code --interval <seconds>}: soak interval length (default: measurement period)</li>
+ *   <li>
+ *     {@code --scenario <names>}: comma separated list of scenario names or fully qualified
+ *     {@link LoadScenario} class names (default: all built-in scenarios)
+ *   </li>
+ *   <li>{@code --output <file>}: JSON report file (default: standard output)</li>
+ * </ul>
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class LoadHarness
+{
+  private static final Map<String,Supplier<LoadScenario>> SCENARIOS = Map.of(
+      "static", LoadScenarios.Static::new,
+      "dynamic", LoadScenarios.Dynamic::new,
+      "named", LoadScenarios.Named::new,
+      "spring", SpringLoadScenarios.Proxy::new,
+      "spring-conversion", SpringLoadScenarios.Conversion::new);
+
+  private static final String DEFAULT_SCENARIOS = "static,dynamic,named,spring,spring-conversion";
+
+  private static final int WARMUP = 0;
+  private static final int MEASURE = 1;
+  private static final int STOP = 2;
+
+  private final int threads;
+  private final long warmupNanos;
+  private final long durationNanos;
+  private final long intervalNanos;
+
+  private final LatencyRecorder latency = new LatencyRecorder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+  private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+  private volatile int phase = WARMUP;
+
+
+  private LoadHarness(int threads, long warmupNanos, long durationNanos, long intervalNanos)
+  {
+    this.threads = threads;
+    this.warmupNanos = warmupNanos;
+    this.durationNanos = durationNanos;
+    this.intervalNanos = intervalNanos;
+  }
+
+
+  public static void main(String[] args) throws Exception
+  {
+    int threads = Runtime.getRuntime().availableProcessors();
+    long warmup = 5, duration = 30, interval = 0;
+    String scenarios = DEFAULT_SCENARIOS, output = null;
+
+    for(int n = 0; n < args.length; n++)
+    {
+      final var option = args[n];
+      if (++n == args.length)
+        throw new IllegalArgumentException("missing value for option " + option);
+
+      final var value = args[n];
+
+      switch(option)
+      {
+        case "--threads": threads = Integer.parseInt(value); break;
+        case "--warmup": warmup = Long.parseLong(value); break;
+        case "--duration": duration = Long.parseLong(value); break;
+        case "--interval": interval = Long.parseLong(value); break;
+        case "--scenario": scenarios = value; break;
+        case "--output": output = value; break;
+        default: throw new IllegalArgumentException("unknown option " + option);
+      }
+    }
+
+    final var reports = new ArrayList<String>();
+
+    for(var scenario: scenarios.split(","))
+    {
+      System.err.println("running scenario " + scenario + " with " + threads + " threads");
+
+      reports.add(new LoadHarness(threads, SECONDS.toNanos(warmup), SECONDS.toNanos(duration),
+          SECONDS.toNanos(interval > 0 ? interval : duration)).run(scenario.trim()));
+    }
+
+    final var json = "{\n  \"threads\": " + threads + ",\n  \"warmupSeconds\": " + warmup +
+        ",\n  \"durationSeconds\": " + duration + ",\n  \"scenarios\": [\n" + String.join(",\n", reports) +
+        "\n  ]\n}\n";
+
+    if (output == null)
+      System.out.print(json);
+    else
+      Files.writeString(Path.of(output), json, UTF_8);
+  }
+
+
+  private static @NotNull LoadScenario createScenario(@NotNull String name) throws Exception
+  {
+    final var scenario = SCENARIOS.get(name);
+
+    return scenario != null
+        ? scenario.get()
+        : (LoadScenario)Class.forName(name).getConstructor().newInstance();
+  }
+
+
+  private @NotNull String run(@NotNull String scenarioName) throws Exception
+  {
+    final var intervals = new ArrayList<String>();
+    final GcSnapshot gcBefore, gcAfter;
+    final long measureStart, measureEnd;
+
+    try(var scenario = createScenario(scenarioName)) {
+      final var loadThreads = new ArrayList<Thread>(threads);
+
+      for(int t = 0; t < threads; t++)
+      {
+        final var thread = new Thread(() -> work(scenario), "load-" + t);
+
+        thread.setDaemon(true);
+        thread.start();
+        loadThreads.add(thread);
+      }
+
+      sleepNanos(warmupNanos);
+
+      gcBefore = new GcSnapshot();
+      phase = MEASURE;
+      measureStart = System.nanoTime();
+
+      var intervalHistogram = latency.snapshot();
+
+      for(long elapsed = 0; elapsed < durationNanos;)
+      {
+        final long intervalStart = System.nanoTime();
+        sleepNanos(Math.min(intervalNanos, durationNanos - elapsed));
+        elapsed = System.nanoTime() - measureStart;
+
+        final var histogram = latency.snapshot();
+        intervals.add(intervalJson(elapsed, System.nanoTime() - intervalStart,
+            difference(histogram, intervalHistogram)));
+        intervalHistogram = histogram;
+      }
+
+      phase = STOP;
+      measureEnd = System.nanoTime();
+
+      for(var thread: loadThreads)
+        thread.join();
+
+      gcAfter = new GcSnapshot();
+    }
+
+    final var failure = firstFailure.get();
+    if (failure != null)
+    {
+      System.err.println("first failure of scenario " + scenarioName + ':');
+      failure.printStackTrace();
+    }
+
+    final var histogram = latency.snapshot();
+    final long operations = histogram.getCount();
+    final double seconds = (measureEnd - measureStart) / 1e9;
+
+    return String.format(Locale.ROOT, "    {\n" +
+        "      \"scenario\": \"%s\",\n" +
+        "      \"operations\": %d,\n" +
+        "      \"failures\": %d,\n" +
+        "      \"throughputPerSecond\": %.1f,\n" +
+        "      \"latencyNanos\": %s,\n" +
+        "      \"gc\": %s,\n" +
+        "      \"allocatedBytesPerOperation\": %.1f,\n" +
+        "      \"intervals\": [\n%s\n      ]\n" +
+        "    }",
+        scenarioName.replace("\"", "\\\""), operations, failures.sum(), operations / seconds,
+        latencyJson(histogram), gcAfter.differenceJson(gcBefore, seconds),
+        operations == 0 ? 0.0 : (double)allocatedBytes.sum() / operations, String.join(",\n", intervals));
+  }
+
+
+  private void work(@NotNull LoadScenario scenario)
+  {
+    final var profiler = ThreadProfiler.getInstance();
+    long allocatedStart = -1;
+
+    for(int currentPhase; (currentPhase = phase) != STOP;)
+    {
+      if (currentPhase == MEASURE && allocatedStart < 0)
+        allocatedStart = profiler.getAllocatedBytes();
+
+      final long start = System.nanoTime();
+      boolean failed = false;
+
+      try {
+        scenario.run();
+      } catch(Throwable ex) {
+        failed = true;
+        firstFailure.compareAndSet(null, ex);
+      }
+
+      if (currentPhase == MEASURE)
+      {
+        latency.record(System.nanoTime() - start);
+        if (failed)
+          failures.increment();
+      }
+    }
+
+    if (allocatedStart >= 0)
+      allocatedBytes.add(profiler.getAllocatedBytes() - allocatedStart);
+  }
+
+
+  private static void sleepNanos(long nanos) throws InterruptedException
+  {
+    final long end = System.nanoTime() + nanos;
+
+    for(long remaining; (remaining = end - System.nanoTime()) > 0;)
+      Thread.sleep(Math.max(1, remaining / 1_000_000));
+  }
+
+
+  private static @NotNull LatencyHistogram difference(@NotNull LatencyHistogram histogram,
+                                                      @NotNull LatencyHistogram previous)
+  {
+    final var counts = new long[BUCKETS];
+
+    for(int bucket = 0; bucket < BUCKETS; bucket++)
+      counts[bucket] = histogram.getCount(bucket) - previous.getCount(bucket);
+
+    return new LatencyHistogram(counts, histogram.getTotalNanos() - previous.getTotalNanos());
+  }
+
+
+  private static @NotNull String intervalJson(long elapsedNanos, long intervalNanos,
+                                              @NotNull LatencyHistogram histogram)
+  {
+    return String.format(Locale.ROOT,
+        "        { \"elapsedSeconds\": %.1f, \"throughputPerSecond\": %.1f, \"latencyNanos\": %s }",
+        elapsedNanos / 1e9, histogram.getCount() / (intervalNanos / 1e9), latencyJson(histogram));
+  }
+
+
+  private static @NotNull String latencyJson(@NotNull LatencyHistogram histogram)
+  {
+    return String.format(Locale.ROOT, "{ \"mean\": %.0f, \"p50\": %d, \"p99\": %d, \"p999\": %d }",
+        histogram.getMeanNanos(), histogram.getPercentileNanos(50), histogram.getPercentileNanos(99),
+        histogram.getPercentileNanos(99.9));
+  }
+
+
+
+
+  /**
+   * Collection counts and accumulated collection times of all garbage collectors.
+   */
+  private static final class GcSnapshot
+  {
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final long[] counts = new long[collectors.size()];
+    private final long[] timesMillis = new long[collectors.size()];
+
+
+    private GcSnapshot()
+    {
+      for(int n = 0; n < counts.length; n++)
+      {
+        counts[n] = Math.max(0, collectors.get(n).getCollectionCount());
+        timesMillis[n] = Math.max(0, collectors.get(n).getCollectionTime());
+      }
+    }
+
+
+    private @NotNull String differenceJson(@NotNull GcSnapshot before, double seconds)
+    {
+      final var collectorJson = new ArrayList<String>();
+      long count = 0, timeMillis = 0;
+
+      for(int n = 0; n < counts.length; n++)
+      {
+        final long collectorCount = counts[n] - before.counts[n];
+        final long collectorTimeMillis = timesMillis[n] - before.timesMillis[n];
+
+        collectorJson.add(String.format(Locale.ROOT, "{ \"name\": \"%s\", \"count\": %d, \"timeMillis\": %d }",
+            collectors.get(n).getName(), collectorCount, collectorTimeMillis));
+
+        count += collectorCount;
+        timeMillis += collectorTimeMillis;
+      }
+
+      return String.format(Locale.ROOT,
+          "{ \"count\": %d, \"timeMillis\": %d, \"timeRatio\": %.4f, \"collectors\": [ %s ] }",
+          count, timeMillis, timeMillis / (seconds * 1000), String.join(", ", collectorJson));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+
+/**
+ * Scenario driven concurrently by the {@link LoadHarness}.
+ * <p>
+ * The scenario is created once and {@link #run()} is invoked repeatedly by all load threads, so implementations
+ * must be thread-safe. Custom scenarios are selected by their fully qualified class name and must provide a public
+ * no-argument constructor.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public interface LoadScenario extends AutoCloseable
+{
+  /**
+   * Execute a single operation. An exception thrown by this method is counted as a failed operation.
+   *
+   * @throws Exception  if the operation fails
+   */
+  void run() throws Exception;
+
+
+  /**
+   * Release resources held by this scenario.
+   */
+  @Override
+  default void close() {
+  }
+}
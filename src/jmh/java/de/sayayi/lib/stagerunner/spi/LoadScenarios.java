@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.BenchmarkStage;
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.StageRunner;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.sayayi.lib.stagerunner.BenchmarkStage.*;
+
+
+/**
+ * Load scenarios for {@link DefaultStageRunnerFactory}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class LoadScenarios
+{
+  private static final StageFunction<BenchmarkStage> READ_DATA = stageContext -> stageContext.getData("value");
+
+
+  private LoadScenarios() {
+  }
+
+
+  private static @NotNull DefaultStageRunnerFactory<BenchmarkStage> createFactory(int functionCount)
+  {
+    final var factory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    final var stages = BenchmarkStage.values();
+
+    for(int n = 0; n < functionCount; n++)
+      factory.addStageFunction(stages[n % stages.length], n, null, READ_DATA);
+
+    return factory;
+  }
+
+
+
+
+  /**
+   * Runs 20 stage functions, distributed over all stages.
+   */
+  static final class Static implements LoadScenario
+  {
+    private final StageRunner<BenchmarkStage> stageRunner = createFactory(20).createRunner();
+
+
+    @Override
+    public void run() {
+      stageRunner.run(Map.of("value", 42));
+    }
+  }
+
+
+
+
+  /**
+   * Runs 20 stage functions and adds 10 dynamic stage functions during each run.
+   */
+  static final class Dynamic implements LoadScenario
+  {
+    private final StageRunner<BenchmarkStage> stageRunner;
+
+
+    Dynamic()
+    {
+      final var factory = createFactory(20);
+
+      factory.addStageFunction(INIT, stageContext -> {
+        for(int n = 0; n < 10; n++)
+          stageContext.addStageFunction(n % 2 == 0 ? PROCESS : CLEANUP, READ_DATA);
+      });
+
+      stageRunner = factory.createRunner();
+    }
+
+
+    @Override
+    public void run() {
+      stageRunner.run(Map.of("value", 42));
+    }
+  }
+
+
+
+
+  /**
+   * Runs 20 stage functions and enables a random subset of 6 named stage functions during each run, resulting in
+   * 64 plan variants which are all cached.
+   */
+  static final class Named implements LoadScenario
+  {
+    private static final int NAMED_FUNCTIONS = 6;
+
+    private final StageRunner<BenchmarkStage> stageRunner;
+
+
+    Named()
+    {
+      final var factory = createFactory(20);
+      final var nameBits = new HashMap<String,Integer>();
+
+      for(int n = 0; n < NAMED_FUNCTIONS; n++)
+      {
+        final var name = "named-" + n;
+
+        nameBits.put(name, 1 << n);
+        factory.namedStageFunction(name, n % 2 == 0 ? PROCESS : CLEANUP, READ_DATA);
+      }
+
+      factory.addStageFunction(INIT, stageContext -> {
+        final int mask = stageContext.<Integer>getData("mask");
+        stageContext.enableNamedStageFunctions(name -> (nameBits.get(name) & mask) != 0);
+      });
+      factory.setPlanVariantCacheSize(1 << NAMED_FUNCTIONS);
+
+      stageRunner = factory.createRunner();
+    }
+
+
+    @Override
+    public void run()
+    {
+      stageRunner.run(Map.of("value", 42,
+          "mask", ThreadLocalRandom.current().nextInt(1 << NAMED_FUNCTIONS)));
+    }
+  }
+}
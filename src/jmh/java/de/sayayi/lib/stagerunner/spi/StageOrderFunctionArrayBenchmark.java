@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.BenchmarkStage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+
+/**
+ * Measures building a {@link StageOrderFunctionArray} from stage functions with random stages and orders, either by
+ * adding them one by one or by merging them, presorted, in a single pass.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageOrderFunctionArrayBenchmark
+{
+  @Param({ "100", "1000", "10000" })
+  public int size;
+
+  private StageOrderFunction<BenchmarkStage>[] functions;
+  private StageOrderFunction<BenchmarkStage>[] sortedFunctions;
+
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup()
+  {
+    final var random = new Random(size);
+    final var stages = BenchmarkStage.values();
+
+    functions = new StageOrderFunction[size];
+
+    for(int n = 0; n < size; n++)
+    {
+      functions[n] = new StageOrderFunction<>(stages[random.nextInt(stages.length)], null, random.nextInt(size),
+          stageContext -> {});
+    }
+
+    sortedFunctions = functions.clone();
+    Arrays.sort(sortedFunctions, comparing((StageOrderFunction<BenchmarkStage> function) -> function.stage)
+        .thenComparingInt(function -> function.order));
+  }
+
+
+  @Benchmark
+  public StageOrderFunctionArray<BenchmarkStage> add()
+  {
+    final var array = new StageOrderFunctionArray<BenchmarkStage>(BenchmarkStage.values().length);
+
+    for(var function: functions)
+      array.add(function);
+
+    return array;
+  }
+
+
+  @Benchmark
+  public StageOrderFunctionArray<BenchmarkStage> addAll()
+  {
+    final var array = new StageOrderFunctionArray<BenchmarkStage>(BenchmarkStage.values().length);
+    array.addAll(sortedFunctions, size);
+
+    return array;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring;
+
+import de.sayayi.lib.stagerunner.spi.LoadScenario;
+import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.sayayi.lib.stagerunner.BenchmarkStage.*;
+
+
+/**
+ * Load scenarios invoking a stage runner proxy generated by {@link StageRunnerFactoryProcessor}. All load threads
+ * share a single proxy instance.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class SpringLoadScenarios
+{
+  private SpringLoadScenarios() {
+  }
+
+
+  private static @NotNull AnnotationConfigApplicationContext createContext(@NotNull Class<?> stageRunnerInterface,
+                                                                           @NotNull Class<?> beanClass)
+  {
+    final var context = new AnnotationConfigApplicationContext();
+
+    context.registerBean(StageRunnerFactoryProcessor.class,
+        () -> new StageRunnerFactoryProcessor<>(stageRunnerInterface, BenchmarkStageDef.class));
+    context.registerBean(beanClass);
+    context.refresh();
+
+    return context;
+  }
+
+
+
+
+  /**
+   * Invokes a stage runner proxy with stage functions whose parameters match the data types.
+   */
+  public static final class Proxy implements LoadScenario
+  {
+    private final AnnotationConfigApplicationContext context;
+    private final ProxyRunner proxyRunner;
+
+
+    public Proxy()
+    {
+      context = createContext(ProxyRunner.class, ProxyBean.class);
+      proxyRunner = context.getBean(ProxyRunner.class);
+    }
+
+
+    @Override
+    public void run() {
+      proxyRunner.run("task", ThreadLocalRandom.current().nextInt(1000), List.of(1, 2, 3));
+    }
+
+
+    @Override
+    public void close() {
+      context.close();
+    }
+  }
+
+
+
+
+  /**
+   * Invokes a stage runner proxy with string data, which is converted to the stage function parameter types by the
+   * conversion service on each invocation.
+   */
+  public static final class Conversion implements LoadScenario
+  {
+    private final AnnotationConfigApplicationContext context;
+    private final ConversionRunner conversionRunner;
+    private final String id = UUID.randomUUID().toString();
+
+
+    public Conversion()
+    {
+      context = createContext(ConversionRunner.class, ConversionBean.class);
+      conversionRunner = context.getBean(ConversionRunner.class);
+    }
+
+
+    @Override
+    public void run() {
+      conversionRunner.run(String.valueOf(ThreadLocalRandom.current().nextInt(1000)), id);
+    }
+
+
+    @Override
+    public void close() {
+      context.close();
+    }
+  }
+
+
+
+
+  public interface ProxyRunner {
+    boolean run(@Data("task") String task, @Data("count") int count, @Data("values") List<Integer> values);
+  }
+
+
+
+
+  @SuppressWarnings("unused")
+  public static class ProxyBean
+  {
+    @BenchmarkStageDef(stage = INIT)
+    public void init(@Data("task") String task) {
+    }
+
+
+    @BenchmarkStageDef(stage = START)
+    public void start(@Data("count") int count) {
+    }
+
+
+    @BenchmarkStageDef(stage = PROCESS)
+    public void process(@Data("task") String task, @Data("count") int count,
+                        @Data("values") List<Integer> values) {
+    }
+
+
+    @BenchmarkStageDef(stage = CLEANUP)
+    public void cleanup(@Data("values") List<Integer> values) {
+    }
+
+
+    @BenchmarkStageDef(stage = END)
+    public void end() {
+    }
+  }
+
+
+
+
+  public interface ConversionRunner {
+    boolean run(@Data("number") String number, @Data("id") String id);
+  }
+
+
+
+
+  @SuppressWarnings("unused")
+  public static class ConversionBean
+  {
+    @BenchmarkStageDef(stage = INIT)
+    public void toInt(@Data("number") int number) {
+    }
+
+
+    @BenchmarkStageDef(stage = START)
+    public void toLong(@Data("number") Long number) {
+    }
+
+
+    @BenchmarkStageDef(stage = PROCESS)
+    public void toBigDecimal(@Data("number") BigDecimal number) {
+    }
+
+
+    @BenchmarkStageDef(stage = CLEANUP)
+    public void toUuid(@Data("id") UUID id) {
+    }
+
+
+    @BenchmarkStageDef(stage = END)
+    public void toAll(@Data("number") double number, @Data("id") UUID id) {
+    }
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring;
+
+import de.sayayi.lib.stagerunner.BenchmarkStage;
+import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.implementation.FixedValue;
+import net.bytebuddy.implementation.StubMethod;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.bytebuddy.description.modifier.Visibility.PUBLIC;
+import static net.bytebuddy.dynamic.loading.ClassLoadingStrategy.Default.INJECTION;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+
+
+/**
+ * Startup benchmark for Spring contexts using {@link StageRunnerFactoryProcessor}.
+ * <p>
+ * For each configuration, a number of synthetic beans with a total of {@code methods} stage function methods is
+ * generated and distributed over {@code runners} stage runner interfaces, each with its own stage runner factory
+ * processor. The context is booted in a fresh JVM, so each measurement reflects a cold start:
+ * <ul>
+ *   <li>refresh: time to refresh the application context</li>
+ *   <li>first call: time to obtain each stage runner proxy and to invoke it for the first time</li>
+ *   <li>classes: number of classes loaded during refresh and first call, including generated classes</li>
+ *   <li>metaspace: metaspace growth during refresh and first call</li>
+ * </ul>
+ * The reported values are medians over all forks. Run with {@code gradlew springStartupBenchmark}, optionally
+ * passing a single configuration like {@code --args="5000 10"} and the number of forks like {@code -Pforks=3}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class SpringStartupBenchmark
+{
+  private static final int[] METHODS = { 0, 100, 1000, 5000 };
+  private static final int[] RUNNERS = { 1, 10 };
+  private static final int METHODS_PER_BEAN = 10;
+
+  private static final List<Class<? extends Runner>> RUNNER_INTERFACES = List.of(
+      Runner0.class, Runner1.class, Runner2.class, Runner3.class, Runner4.class,
+      Runner5.class, Runner6.class, Runner7.class, Runner8.class, Runner9.class);
+
+
+  private SpringStartupBenchmark() {
+  }
+
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length == 3 && args[0].equals("--fork"))
+    {
+      System.out.println(boot(Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+      return;
+    }
+
+    final int forks = Integer.getInteger("forks", 5);
+    final var methods = args.length == 2 ? new int[] { Integer.parseInt(args[0]) } : METHODS;
+    final var runners = args.length == 2 ? new int[] { Integer.parseInt(args[1]) } : RUNNERS;
+
+    System.out.printf("%7s %7s %12s %15s %8s %15s%n",
+        "methods", "runners", "refresh[ms]", "first call[ms]", "classes", "metaspace[KiB]");
+
+    for(var methodCount: methods)
+      for(var runnerCount: runners)
+      {
+        final var results = new ArrayList<Result>(forks);
+
+        for(int fork = 0; fork < forks; fork++)
+          results.add(fork(methodCount, runnerCount));
+
+        System.out.printf("%7d %7d %12.1f %15.1f %8d %15d%n", methodCount, runnerCount,
+            median(results, result -> result.refreshNanos) / 1e6,
+            median(results, result -> result.firstCallNanos) / 1e6,
+            median(results, result -> result.loadedClasses),
+            median(results, result -> result.metaspaceBytes) / 1024);
+      }
+  }
+
+
+  private static @NotNull Result fork(int methodCount, int runnerCount) throws IOException, InterruptedException
+  {
+    final var process = new ProcessBuilder(
+        ProcessHandle.current().info().command().orElse("java"),
+        "-cp", System.getProperty("java.class.path"),
+        SpringStartupBenchmark.class.getName(), "--fork", String.valueOf(methodCount), String.valueOf(runnerCount))
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+
+    String line, result = null;
+
+    try(var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+      while((line = reader.readLine()) != null)
+        result = line;
+    }
+
+    if (process.waitFor() != 0 || result == null)
+      throw new IllegalStateException("fork failed for " + methodCount + " methods, " + runnerCount + " runners");
+
+    return Result.parse(result);
+  }
+
+
+  @SuppressWarnings("unchecked")
+  private static @NotNull Result boot(int methodCount, int runnerCount)
+  {
+    final var beanClasses = createBeanClasses(methodCount, runnerCount);
+    final var classLoadingMXBean = ManagementFactory.getClassLoadingMXBean();
+    final var metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getName().equals("Metaspace"))
+        .findFirst();
+
+    final long classesBefore = classLoadingMXBean.getTotalLoadedClassCount();
+    final long metaspaceBefore = metaspace.map(SpringStartupBenchmark::used).orElse(0L);
+    final long start = System.nanoTime();
+
+    try(var context = new AnnotationConfigApplicationContext()) {
+      for(int r = 0; r < runnerCount; r++)
+      {
+        final int runner = r;
+
+        context.registerBean("stageRunnerFactoryProcessor" + r, StageRunnerFactoryProcessor.class, () -> {
+          var processor = new StageRunnerFactoryProcessor<>(
+              (Class<Runner>)RUNNER_INTERFACES.get(runner), BenchmarkStageDef.class);
+
+          processor.setStageFunctionFilter(new StageFunctionFilter() {
+            @Override
+            public <B,S extends Enum<S>> boolean filter(@NotNull B bean, @NotNull S stage, int order, String name) {
+              return ((StageBean)bean).getRunner() == runner;
+            }
+          });
+
+          return processor;
+        });
+      }
+
+      for(var beanClass: beanClasses)
+        context.registerBean(beanClass);
+
+      context.refresh();
+
+      final long refreshed = System.nanoTime();
+
+      for(int r = 0; r < runnerCount; r++)
+        context.getBean(RUNNER_INTERFACES.get(r)).run("benchmark");
+
+      final long called = System.nanoTime();
+
+      return new Result(refreshed - start, called - refreshed,
+          classLoadingMXBean.getTotalLoadedClassCount() - classesBefore,
+          metaspace.map(SpringStartupBenchmark::used).orElse(0L) - metaspaceBefore);
+    }
+  }
+
+
+  private static @NotNull List<Class<? extends StageBean>> createBeanClasses(int methodCount, int runnerCount)
+  {
+    final var stages = BenchmarkStage.values();
+    final var dataAnnotation = AnnotationDescription.Builder.ofType(Data.class).define("name", "value").build();
+    final var beanClasses = new ArrayList<Class<? extends StageBean>>();
+
+    for(int bean = 0, method = 0; method < methodCount; bean++)
+    {
+      var builder = new ByteBuddy()
+          .subclass(StageBean.class)
+          .name(StageBean.class.getName() + '$' + bean)
+          .method(named("getRunner"))
+              .intercept(FixedValue.value(bean % runnerCount));
+
+      for(int n = 0; n < METHODS_PER_BEAN && method < methodCount; n++, method++)
+      {
+        builder = builder
+            .defineMethod("stage" + method, void.class, PUBLIC)
+                .withParameter(String.class, "value")
+                .annotateParameter(dataAnnotation)
+                .intercept(StubMethod.INSTANCE)
+                .annotateMethod(AnnotationDescription.Builder.ofType(BenchmarkStageDef.class)
+                    .define("stage", stages[method % stages.length])
+                    .define("order", method)
+                    .build());
+      }
+
+      beanClasses.add(builder
+          .make()
+          .load(SpringStartupBenchmark.class.getClassLoader(), INJECTION)
+          .getLoaded());
+    }
+
+    return beanClasses;
+  }
+
+
+  private static long used(@NotNull MemoryPoolMXBean memoryPool) {
+    return memoryPool.getUsage().getUsed();
+  }
+
+
+  private static long median(@NotNull List<Result> results, @NotNull ToLongFunction<Result> value)
+  {
+    final var values = results.stream().mapToLong(value).toArray();
+    Arrays.sort(values);
+
+    return values[values.length / 2];
+  }
+
+
+
+
+  private static final class Result
+  {
+    final long refreshNanos;
+    final long firstCallNanos;
+    final long loadedClasses;
+    final long metaspaceBytes;
+
+
+    private Result(long refreshNanos, long firstCallNanos, long loadedClasses, long metaspaceBytes)
+    {
+      this.refreshNanos = refreshNanos;
+      this.firstCallNanos = firstCallNanos;
+      this.loadedClasses = loadedClasses;
+      this.metaspaceBytes = metaspaceBytes;
+    }
+
+
+    private static @NotNull Result parse(@NotNull String s)
+    {
+      final var values = s.split(" ");
+
+      return new Result(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]),
+          Long.parseLong(values[3]));
+    }
+
+
+    @Override
+    public String toString() {
+      return refreshNanos + " " + firstCallNanos + " " + loadedClasses + " " + metaspaceBytes;
+    }
+  }
+
+
+
+
+  /**
+   * Super class of the generated beans. Each bean contributes its stage functions to a single runner only.
+   */
+  public abstract static class StageBean
+  {
+    public abstract int getRunner();
+  }
+
+
+
+
+  /**
+   * Common super interface of the stage runner interfaces. A stage runner interface must declare its functional
+   * method, so each of them re-declares {@link #run(String)}.
+   */
+  public interface Runner {
+    boolean run(String value);
+  }
+
+
+  public interface Runner0 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner1 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner2 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner3 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner4 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner5 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner6 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner7 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner8 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+
+
+  public interface Runner9 extends Runner {
+    @Override boolean run(@Data("value") String value);
+  }
+}
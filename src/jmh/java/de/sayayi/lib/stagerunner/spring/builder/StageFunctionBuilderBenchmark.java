@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.spring.BenchmarkStageDef;
+import de.sayayi.lib.stagerunner.spring.SpringLoadScenarios.ConversionBean;
+import de.sayayi.lib.stagerunner.spring.SpringLoadScenarios.ConversionRunner;
+import de.sayayi.lib.stagerunner.spring.SpringLoadScenarios.ProxyBean;
+import de.sayayi.lib.stagerunner.spring.SpringLoadScenarios.ProxyRunner;
+import de.sayayi.lib.stagerunner.spring.StageRunnerFactoryProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+
+/**
+ * Compares the ByteBuddy generated stage function adapters and stage runner proxy with their counterparts not
+ * requiring ByteBuddy, {@link MethodHandleStageFunctionBuilder} and {@link ReflectiveStageRunnerProxyBuilder}.
+ * Measures both the stage runner proxy invocation and the creation of the adapters on application context refresh.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageFunctionBuilderBenchmark
+{
+  @Param({ "bytebuddy", "methodhandle" })
+  public String backend;
+
+  private AnnotationConfigApplicationContext proxyContext;
+  private AnnotationConfigApplicationContext conversionContext;
+  private ProxyRunner proxyRunner;
+  private ConversionRunner conversionRunner;
+  private List<Integer> values;
+
+
+  @Setup
+  public void setup()
+  {
+    proxyContext = createContext(ProxyRunner.class, ProxyBean.class);
+    proxyRunner = proxyContext.getBean(ProxyRunner.class);
+
+    conversionContext = createContext(ConversionRunner.class, ConversionBean.class);
+    conversionRunner = conversionContext.getBean(ConversionRunner.class);
+
+    values = List.of(1, 2, 3);
+  }
+
+
+  @TearDown
+  public void tearDown()
+  {
+    proxyContext.close();
+    conversionContext.close();
+  }
+
+
+  @Benchmark
+  public boolean proxy() {
+    return proxyRunner.run("task", 42, values);
+  }
+
+
+  @Benchmark
+  public boolean conversion() {
+    return conversionRunner.run("42", "7f1c6a5e-3b0a-4c1e-9d6f-2a8b4e0c5d13");
+  }
+
+
+  /**
+   * Refresh an application context, which creates the stage runner proxy and a stage function for each annotated
+   * bean method.
+   */
+  @Benchmark
+  @BenchmarkMode(AverageTime)
+  @OutputTimeUnit(MICROSECONDS)
+  public void createContext() {
+    createContext(ProxyRunner.class, ProxyBean.class).close();
+  }
+
+
+  private @NotNull <R> AnnotationConfigApplicationContext createContext(@NotNull Class<R> stageRunnerInterface,
+                                                                        @NotNull Class<?> beanClass)
+  {
+    final var context = new AnnotationConfigApplicationContext();
+    final var methodHandle = "methodhandle".equals(backend);
+
+    context.registerBean(StageRunnerFactoryProcessor.class, () -> {
+      final var processor = new StageRunnerFactoryProcessor<>(stageRunnerInterface, BenchmarkStageDef.class);
+      final var conversionService = DefaultConversionService.getSharedInstance();
+
+      if (methodHandle)
+      {
+        processor.setStageRunnerProxyBuilder(new ReflectiveStageRunnerProxyBuilder());
+        processor.setStageFunctionBuilder(new MethodHandleStageFunctionBuilder(conversionService));
+      }
+      else
+      {
+        processor.setStageRunnerProxyBuilder(new StageRunnerProxyBuilderImpl(false));
+        processor.setStageFunctionBuilder(new StageFunctionBuilderImpl(conversionService));
+      }
+
+      return processor;
+    });
+    context.registerBean(beanClass);
+    context.refresh();
+
+    return context;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.BenchmarkStage;
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.StageRunner;
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+
+/**
+ * Compares a run of an interpreted execution plan with a run of the same plan compiled by
+ * {@link StagePlanCompilerImpl}. The stage functions are instances of different classes, so the call site
+ * dispatching stage functions in the interpreter is megamorphic.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StagePlanCompilerBenchmark
+{
+  private static final List<StageFunction<BenchmarkStage>> FUNCTIONS = List.of(
+      new Counter0(), new Counter1(), new Counter2(), new Counter3(),
+      new Counter4(), new Counter5(), new Counter6(), new Counter7());
+
+  @Param({ "10", "100" })
+  public int functionCount;
+
+  @Param({ "false", "true" })
+  public boolean compiled;
+
+  private StageRunner<BenchmarkStage> stageRunner;
+  private Map<String,Object> data;
+
+
+  @Setup
+  public void setup()
+  {
+    final var factory = new DefaultStageRunnerFactory<>(BenchmarkStage.class);
+    final var stages = BenchmarkStage.values();
+
+    for(int n = 0; n < functionCount; n++)
+      factory.addStageFunction(stages[n * stages.length / functionCount], n, null, FUNCTIONS.get(n % FUNCTIONS.size()));
+
+    if (compiled)
+      factory.setStagePlanCompiler(new StagePlanCompilerImpl());
+
+    stageRunner = factory.createRunner();
+    data = Map.of();
+  }
+
+
+  @Benchmark
+  public boolean run() {
+    return stageRunner.run(data);
+  }
+
+
+
+
+  /**
+   * Stage function counting its invocations. Each subclass is a separate stage function class.
+   */
+  public abstract static class Counter implements StageFunction<BenchmarkStage>
+  {
+    public int count;
+
+
+    @Override
+    public void process(@NotNull StageContext<BenchmarkStage> stageContext) {
+      count++;
+    }
+  }
+
+
+  public static final class Counter0 extends Counter {}
+
+  public static final class Counter1 extends Counter {}
+
+  public static final class Counter2 extends Counter {}
+
+  public static final class Counter3 extends Counter {}
+
+  public static final class Counter4 extends Counter {}
+
+  public static final class Counter5 extends Counter {}
+
+  public static final class Counter6 extends Counter {}
+
+  public static final class Counter7 extends Counter {}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+
+/**
+ * Stage function which performs its work asynchronously.
+ * <p>
+ * If the stage runner is started using {@link StageRunner#runAsync(java.util.Map, StageRunnerCallback) runAsync},
+ * the stage runner continues with the next stage function as soon as the returned completion stage has completed,
+ * without blocking a thread in the meantime. Synchronous runs block until the completion stage has completed.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@FunctionalInterface
+public interface AsyncStageFunction<S extends Enum<S>> extends StageFunction<S>
+{
+  /**
+   * Start processing the stage function.
+   *
+   * @param stageContext  stage context, not {@code null}
+   *
+   * @return  completion stage which completes when the stage function has finished, never {@code null}
+   */
+  @NotNull CompletionStage<Void> processAsync(@NotNull StageContext<S> stageContext);
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The default implementation invokes {@link #processAsync(StageContext)} and waits for the returned completion
+   * stage to complete.
+   */
+  @Override
+  default void process(@NotNull StageContext<S> stageContext)
+  {
+    try {
+      processAsync(stageContext).toCompletableFuture().join();
+    } catch(CompletionException ex) {
+      final var cause = ex.getCause();
+
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+
+      throw ex;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Typed key for a data slot in a {@link DataLayout}.
+ * <p>
+ * Data keys are obtained from a data layout using {@link DataLayout#key(String)}. Accessing data using a data key
+ * is an array access, if the data has been provided as {@link StageData} with the same layout. Otherwise, the data
+ * is looked up by name.
+ *
+ * @param <T>  data type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see StageContext#getData(DataKey)
+ */
+public final class DataKey<T>
+{
+  private final DataLayout layout;
+  private final String name;
+  private final Class<?> type;
+  final int lane;
+  final int slot;
+
+
+  DataKey(@NotNull DataLayout layout, @NotNull String name, @NotNull Class<?> type, int lane, int slot)
+  {
+    this.layout = layout;
+    this.name = name;
+    this.type = type;
+    this.lane = lane;
+    this.slot = slot;
+  }
+
+
+  /**
+   * Returns the data layout this key belongs to.
+   *
+   * @return  data layout, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull DataLayout getLayout() {
+    return layout;
+  }
+
+
+  /**
+   * Returns the data name.
+   *
+   * @return  data name, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull String getName() {
+    return name;
+  }
+
+
+  /**
+   * Returns the data type this key has been declared with. If the type is {@code int}, {@code long} or
+   * {@code double}, the data is stored in the corresponding primitive lane.
+   *
+   * @return  data type, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull Class<?> getType() {
+    return type;
+  }
+
+
+  /**
+   * Returns the slot index in the lane this key's data is stored in.
+   *
+   * @return  slot index
+   */
+  @Contract(pure = true)
+  public int getSlot() {
+    return slot;
+  }
+
+
+  @Override
+  public String toString() {
+    return "DataKey(name=" + name + ",type=" + type.getName() + ",slot=" + slot + ')';
+  }
+}
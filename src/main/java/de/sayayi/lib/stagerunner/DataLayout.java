@@ -0,0 +1,202 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toUnmodifiableList;
+
+
+/**
+ * A data layout assigns a fixed slot to each data name. Data stored according to a layout is accessed by slot
+ * index, using a {@link DataKey}, instead of looking up the data name in a map.
+ * <p>
+ * Data of type {@code int}, {@code long} and {@code double} is stored in separate primitive lanes, so it can be
+ * passed to stage functions without being boxed. All other data is stored in the reference lane.
+ * <p>
+ * Data layouts are immutable and are usually created once, when the stage runner is being configured.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see StageData
+ */
+public final class DataLayout
+{
+  static final int REFERENCE_LANE = 0;
+  static final int INT_LANE = 1;
+  static final int LONG_LANE = 2;
+  static final int DOUBLE_LANE = 3;
+
+  private final DataKey<?>[] keyArray;
+  private final Map<String,DataKey<?>> keys;
+  final int[] laneSizes;
+
+
+  private DataLayout(@NotNull String[] names, @NotNull Class<?>[] types)
+  {
+    if (names.length != types.length)
+      throw new StageRunnerConfigurationException("data names and types must have the same length");
+
+    keyArray = new DataKey<?>[names.length];
+    keys = new HashMap<>();
+    laneSizes = new int[4];
+
+    for(int n = 0; n < names.length; n++)
+    {
+      final var name = requireNonNull(names[n], "name must not be null");
+      final var type = requireNonNull(types[n], "type must not be null");
+      final var lane = laneOf(type);
+      final var key = new DataKey<>(this, name, type, lane, laneSizes[lane]++);
+
+      if (keys.put(name, key) != null)
+        throw new StageRunnerConfigurationException("duplicate data name '" + name + "' in data layout");
+
+      keyArray[n] = key;
+    }
+  }
+
+
+  /**
+   * Create a data layout for the given data names. All data is stored in the reference lane.
+   *
+   * @param names  data names, not {@code null}
+   *
+   * @return  new data layout, never {@code null}
+   */
+  @Contract(value = "_ -> new", pure = true)
+  public static @NotNull DataLayout of(@NotNull String... names)
+  {
+    final var types = new Class<?>[names.length];
+    Arrays.fill(types, Object.class);
+
+    return new DataLayout(names, types);
+  }
+
+
+  /**
+   * Create a data layout for the given data names and types. Data of type {@code int}, {@code long} and
+   * {@code double} is stored in primitive lanes.
+   *
+   * @param names  data names, not {@code null}
+   * @param types  data types, one for each data name, not {@code null}
+   *
+   * @return  new data layout, never {@code null}
+   */
+  @Contract(value = "_, _ -> new", pure = true)
+  public static @NotNull DataLayout of(@NotNull String[] names, @NotNull Class<?>[] types) {
+    return new DataLayout(names, types);
+  }
+
+
+  @Contract(pure = true)
+  private static int laneOf(@NotNull Class<?> type)
+  {
+    if (type == int.class)
+      return INT_LANE;
+    if (type == long.class)
+      return LONG_LANE;
+    if (type == double.class)
+      return DOUBLE_LANE;
+
+    return REFERENCE_LANE;
+  }
+
+
+  /**
+   * Returns the number of data names in this layout.
+   *
+   * @return  number of data names
+   */
+  @Contract(pure = true)
+  public int size() {
+    return keyArray.length;
+  }
+
+
+  /**
+   * Returns the data names in declaration order.
+   *
+   * @return  immutable list of data names, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull List<String> getNames() {
+    return Arrays.stream(keyArray).map(DataKey::getName).collect(toUnmodifiableList());
+  }
+
+
+  /**
+   * Returns the data keys in declaration order.
+   *
+   * @return  immutable list of data keys, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull List<DataKey<?>> getKeys() {
+    return List.of(keyArray);
+  }
+
+
+  /**
+   * Returns the data key for data {@code name}, if available.
+   *
+   * @param name  data name, not {@code null}
+   *
+   * @return  data key or {@code null} if this layout does not contain a slot for {@code name}
+   *
+   * @param <T>  data type
+   */
+  @Contract(pure = true)
+  @SuppressWarnings("unchecked")
+  public <T> DataKey<T> findKey(@NotNull String name) {
+    return (DataKey<T>)keys.get(name);
+  }
+
+
+  /**
+   * Returns the data key for data {@code name}.
+   *
+   * @param name  data name, not {@code null}
+   *
+   * @return  data key, never {@code null}
+   *
+   * @param <T>  data type
+   *
+   * @throws StageRunnerConfigurationException  if this layout does not contain a slot for {@code name}
+   */
+  @Contract(pure = true)
+  public <T> @NotNull DataKey<T> key(@NotNull String name)
+  {
+    final DataKey<T> key = findKey(name);
+    if (key == null)
+      throw new StageRunnerConfigurationException("unknown data name '" + name + "' in data layout");
+
+    return key;
+  }
+
+
+  @Override
+  public String toString() {
+    return "DataLayout" + getNames();
+  }
+}
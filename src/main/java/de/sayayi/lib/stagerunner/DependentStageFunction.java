@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static java.util.Objects.requireNonNull;
+
+
+/**
+ * Stage function which explicitly declares its prerequisites.
+ * <p>
+ * If a stage run contains at least one dependent stage function, stage functions are no longer executed strictly in
+ * stage order. Instead, each dependent stage function is started as soon as all of its
+ * {@link #getDependencies() dependencies} have finished, possibly overlapping with stage functions of earlier or
+ * later stages. A dependency is either the name of a
+ * {@link StageFunctionConfigurer.Named#namedStageFunction(String, Enum, int, String, StageFunction) named stage function}
+ * or a data key {@link #getProvidedData() provided} by another dependent stage function.
+ * <p>
+ * Stage functions without declared dependencies keep their regular ordering: they are started after all stage
+ * functions preceding them in stage order have finished.
+ * <p>
+ * A dependent stage function registered without a name makes all runs of the stage runner factory being scheduled
+ * by dependencies. A named dependent stage function only affects the runs enabling it: such a run switches to
+ * scheduling by dependencies for its remaining stage functions, as soon as the stage function currently executing
+ * has completed.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public interface DependentStageFunction<S extends Enum<S>> extends StageFunction<S>
+{
+  /**
+   * Returns the names of stage functions and data keys this stage function depends on. Dependencies which cannot
+   * be resolved when the stage function becomes ready, are considered to be satisfied.
+   *
+   * @return  set of dependencies, never {@code null}
+   */
+  @Contract(pure = true)
+  @NotNull Set<String> getDependencies();
+
+
+  /**
+   * Returns the data keys provided by this stage function.
+   *
+   * @return  set of provided data keys, never {@code null}
+   */
+  @Contract(pure = true)
+  default @NotNull Set<String> getProvidedData() {
+    return emptySet();
+  }
+
+
+  /**
+   * Create a dependent stage function for {@code function}.
+   *
+   * @param dependencies  names of stage functions and data keys the function depends on, not {@code null}
+   * @param providedData  data keys provided by the function, not {@code null}
+   * @param function      stage function, not {@code null}
+   *
+   * @return  dependent stage function, never {@code null}
+   *
+   * @param <S>  Stage enum type
+   */
+  @Contract(value = "_, _, _ -> new", pure = true)
+  static <S extends Enum<S>> @NotNull DependentStageFunction<S> of(@NotNull Set<String> dependencies,
+                                                                   @NotNull Set<String> providedData,
+                                                                   @NotNull StageFunction<S> function)
+  {
+    final var dependencySet = Set.copyOf(dependencies);
+    final var providedDataSet = Set.copyOf(providedData);
+
+    requireNonNull(function, "function must not be null");
+
+    return new DependentStageFunction<>() {
+      @Override
+      public @NotNull Set<String> getDependencies() {
+        return dependencySet;
+      }
+
+
+      @Override
+      public @NotNull Set<String> getProvidedData() {
+        return providedDataSet;
+      }
+
+
+      @Override
+      public void process(@NotNull StageContext<S> stageContext) {
+        function.process(stageContext);
+      }
+
+
+      @Override
+      public String toString() {
+        return "DependentStageFunction(dependencies=" + dependencySet + ",providedData=" + providedDataSet + ')';
+      }
+    };
+  }
+}
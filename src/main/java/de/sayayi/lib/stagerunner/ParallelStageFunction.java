@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+
+/**
+ * Marker interface for stage functions which may be executed concurrently with other parallel stage functions
+ * of the same stage.
+ * <p>
+ * Consecutive parallel stage functions of the same stage are submitted to the executor configured with the stage
+ * runner factory. The stage runner waits for all of them to complete before continuing with the next stage
+ * function. Stage functions implementing this interface must therefore be independent of each other.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+@FunctionalInterface
+public interface ParallelStageFunction<S extends Enum<S>> extends StageFunction<S>
+{
+}
@@ -15,6 +15,7 @@
  */
 package de.sayayi.lib.stagerunner;
 
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -56,6 +57,88 @@ public interface StageContext<S extends Enum<S>> extends StageFunctionConfigurer
   <T> T getData(@NotNull String name);
 
 
+  /**
+   * Returns the stage data associated with {@code key}.
+   * <p>
+   * If the stage runner has been started with {@link StageData} having the same layout as {@code key}, the data is
+   * accessed by slot index. Otherwise, the data is looked up by {@link DataKey#getName() name}.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value for key {@code key} or null if no data is available
+   *
+   * @param <T>  data type
+   *
+   * @see StageRunner#run(StageData)
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default <T> T getData(@NotNull DataKey<T> key) {
+    return getData(key.getName());
+  }
+
+
+  /**
+   * Returns the {@code int} stage data associated with {@code key}.
+   * <p>
+   * If the stage runner has been started with {@link StageData} having the same layout as {@code key} and the
+   * data is stored in the {@code int} lane, the data is returned without being boxed.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value for key {@code key}
+   *
+   * @throws StageRunnerException  if no data is available
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default int getIntData(@NotNull DataKey<Integer> key) {
+    return StageData.requireData(getData(key), key.getName());
+  }
+
+
+  /**
+   * Returns the {@code long} stage data associated with {@code key}.
+   * <p>
+   * If the stage runner has been started with {@link StageData} having the same layout as {@code key} and the
+   * data is stored in the {@code long} lane, the data is returned without being boxed.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value for key {@code key}
+   *
+   * @throws StageRunnerException  if no data is available
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default long getLongData(@NotNull DataKey<Long> key) {
+    return StageData.requireData(getData(key), key.getName());
+  }
+
+
+  /**
+   * Returns the {@code double} stage data associated with {@code key}.
+   * <p>
+   * If the stage runner has been started with {@link StageData} having the same layout as {@code key} and the
+   * data is stored in the {@code double} lane, the data is returned without being boxed.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value for key {@code key}
+   *
+   * @throws StageRunnerException  if no data is available
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default double getDoubleData(@NotNull DataKey<Double> key) {
+    return StageData.requireData(getData(key), key.getName());
+  }
+
+
   /**
    * Returns the state being currently processed.
    *
@@ -86,6 +169,40 @@ public interface StageContext<S extends Enum<S>> extends StageFunctionConfigurer
   @NotNull Set<S> getRemainingStages();
 
 
+  /**
+   * Skip all remaining stage functions of the current stage. The current stage function continues normally; once
+   * it has completed, the stage runner continues with the first stage function of the next stage.
+   * <p>
+   * The default implementation throws a {@link StageRunnerException}.
+   *
+   * @throws StageRunnerException  if the stage runner is not running, executes dependent stage functions or does
+   *                               not support skipping stage functions
+   *
+   * @since 0.3.4
+   */
+  default void skipRemainingFunctionsOfStage() {
+    throw new StageRunnerException("skipping stage functions is not supported");
+  }
+
+
+  /**
+   * Continue with the first stage function of {@code stage}, once the current stage function has completed. All
+   * stage functions of the current stage and of the stages in between are skipped.
+   * <p>
+   * The default implementation throws a {@link StageRunnerException}.
+   *
+   * @param stage  stage to jump to, must be after the current stage, not {@code null}
+   *
+   * @throws StageRunnerException  if {@code stage} is not after the current stage, the stage runner is not running,
+   *                               executes dependent stage functions or does not support stage jumps
+   *
+   * @since 0.3.4
+   */
+  default void jumpToStage(@NotNull S stage) {
+    throw new StageRunnerException("stage jumps are not supported");
+  }
+
+
   /**
    * Abort stage context running.
    */
@@ -136,6 +253,47 @@ public interface StageContext<S extends Enum<S>> extends StageFunctionConfigurer
   @NotNull Set<String> enableNamedStageFunctions(@NotNull Predicate<String> nameFilter);
 
 
+  /**
+   * Enable named stage functions with a name matching the given glob {@code pattern}. The pattern may contain
+   * wildcards {@code *}, matching any number of characters, and {@code ?}, matching a single character. All
+   * other characters must match exactly, e.g. {@code "audit.*"} enables all stage functions with a name starting
+   * with {@code "audit."}.
+   * <p>
+   * The default implementation throws a {@link StageRunnerException}.
+   *
+   * @param pattern  glob pattern, not {@code null}
+   *
+   * @return  a set with the stage function names, which have been enabled as a result of this invocation,
+   *          never {@code null}
+   *
+   * @throws StageRunnerException  if enabling stage functions by pattern is not supported
+   *
+   * @since 0.3.4
+   */
+  default @NotNull Set<String> enableNamedStageFunctionsMatching(@NotNull String pattern) {
+    throw new StageRunnerException("enabling named stage functions by pattern is not supported");
+  }
+
+
+  /**
+   * Enable all named stage functions which have been tagged with {@code tag} by the stage runner factory.
+   * <p>
+   * The default implementation throws a {@link StageRunnerException}.
+   *
+   * @param tag  tag name, not {@code null}
+   *
+   * @return  a set with the stage function names, which have been enabled as a result of this invocation,
+   *          never {@code null}
+   *
+   * @throws StageRunnerException  if enabling stage functions by tag is not supported
+   *
+   * @since 0.3.4
+   */
+  default @NotNull Set<String> enableTaggedStageFunctions(@NotNull String tag) {
+    throw new StageRunnerException("enabling tagged stage functions is not supported");
+  }
+
+
   /**
    * Returns a list of all active functions. Each function provides the {@link FunctionState state} it is currently in.
    *
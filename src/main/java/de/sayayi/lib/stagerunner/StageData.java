@@ -0,0 +1,383 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static de.sayayi.lib.stagerunner.DataLayout.*;
+import static java.util.Collections.unmodifiableMap;
+
+
+/**
+ * Data for a single stage run, stored in slots according to a {@link DataLayout}.
+ * <p>
+ * Data of type {@code int}, {@code long} and {@code double} is stored in primitive lanes. Primitive slots cannot
+ * hold {@code null}; a primitive slot which has not been set contains {@code 0}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see StageRunner#run(StageData, StageRunnerCallback)
+ */
+public final class StageData
+{
+  private static final int[] NO_INTS = new int[0];
+  private static final long[] NO_LONGS = new long[0];
+  private static final double[] NO_DOUBLES = new double[0];
+
+  private final DataLayout layout;
+  private final Object[] values;
+  private final int[] ints;
+  private final long[] longs;
+  private final double[] doubles;
+
+
+  /**
+   * Create empty stage data for the given {@code layout}.
+   *
+   * @param layout  data layout, not {@code null}
+   */
+  public StageData(@NotNull DataLayout layout) {
+    this(layout, new Object[layout.laneSizes[REFERENCE_LANE]]);
+  }
+
+
+  /**
+   * Create stage data for the given {@code layout} using {@code values} as reference lane storage. The array is
+   * not copied.
+   *
+   * @param layout  data layout, not {@code null}
+   * @param values  reference slot values in layout order, not {@code null}
+   *
+   * @throws IllegalArgumentException  if the number of values does not match the reference lane size
+   */
+  public StageData(@NotNull DataLayout layout, @NotNull Object[] values) {
+    this(layout, values, null, null, null);
+  }
+
+
+  /**
+   * Create stage data for the given {@code layout} using the given arrays as lane storage. The arrays are not
+   * copied. If a primitive lane array is {@code null}, a shared empty array is used for an empty lane and a new
+   * array is allocated otherwise.
+   *
+   * @param layout   data layout, not {@code null}
+   * @param values   reference slot values in layout order, not {@code null}
+   * @param ints     {@code int} slot values in layout order or {@code null}
+   * @param longs    {@code long} slot values in layout order or {@code null}
+   * @param doubles  {@code double} slot values in layout order or {@code null}
+   *
+   * @throws IllegalArgumentException  if the number of values for a lane does not match the lane size
+   */
+  public StageData(@NotNull DataLayout layout, @NotNull Object[] values, int[] ints, long[] longs, double[] doubles)
+  {
+    final var laneSizes = layout.laneSizes;
+
+    if (ints == null)
+      ints = laneSizes[INT_LANE] == 0 ? NO_INTS : new int[laneSizes[INT_LANE]];
+    if (longs == null)
+      longs = laneSizes[LONG_LANE] == 0 ? NO_LONGS : new long[laneSizes[LONG_LANE]];
+    if (doubles == null)
+      doubles = laneSizes[DOUBLE_LANE] == 0 ? NO_DOUBLES : new double[laneSizes[DOUBLE_LANE]];
+
+    if (values.length != laneSizes[REFERENCE_LANE] || ints.length != laneSizes[INT_LANE] ||
+        longs.length != laneSizes[LONG_LANE] || doubles.length != laneSizes[DOUBLE_LANE])
+      throw new IllegalArgumentException("lane sizes do not match " + layout);
+
+    this.layout = layout;
+    this.values = values;
+    this.ints = ints;
+    this.longs = longs;
+    this.doubles = doubles;
+  }
+
+
+  /**
+   * Returns the data layout.
+   *
+   * @return  data layout, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull DataLayout getLayout() {
+    return layout;
+  }
+
+
+  /**
+   * Returns the data value for {@code key}. Values stored in a primitive lane are boxed.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value or {@code null} if no data is available
+   *
+   * @param <T>  data type
+   */
+  @Contract(pure = true)
+  @SuppressWarnings("unchecked")
+  public <T> T get(@NotNull DataKey<T> key)
+  {
+    if (key.getLayout() != layout)
+      return get(key.getName());
+
+    switch(key.lane)
+    {
+      case INT_LANE:
+        return (T)Integer.valueOf(ints[key.slot]);
+
+      case LONG_LANE:
+        return (T)Long.valueOf(longs[key.slot]);
+
+      case DOUBLE_LANE:
+        return (T)Double.valueOf(doubles[key.slot]);
+
+      default:
+        return (T)values[key.slot];
+    }
+  }
+
+
+  /**
+   * Returns the data value for {@code name}. Values stored in a primitive lane are boxed.
+   *
+   * @param name  data name, not {@code null}
+   *
+   * @return  data value or {@code null} if no data is available
+   *
+   * @param <T>  data type
+   */
+  @Contract(pure = true)
+  public <T> T get(@NotNull String name)
+  {
+    final DataKey<T> key = layout.findKey(name);
+    return key == null ? null : get(key);
+  }
+
+
+  /**
+   * Returns the {@code int} data value for {@code key}.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value
+   *
+   * @throws StageRunnerException  if no data is available
+   */
+  @Contract(pure = true)
+  public int getInt(@NotNull DataKey<Integer> key)
+  {
+    return key.getLayout() == layout && key.lane == INT_LANE
+        ? ints[key.slot]
+        : requireData(get(key), key.getName());
+  }
+
+
+  /**
+   * Returns the {@code long} data value for {@code key}.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value
+   *
+   * @throws StageRunnerException  if no data is available
+   */
+  @Contract(pure = true)
+  public long getLong(@NotNull DataKey<Long> key)
+  {
+    return key.getLayout() == layout && key.lane == LONG_LANE
+        ? longs[key.slot]
+        : requireData(get(key), key.getName());
+  }
+
+
+  /**
+   * Returns the {@code double} data value for {@code key}.
+   *
+   * @param key  data key, not {@code null}
+   *
+   * @return  data value
+   *
+   * @throws StageRunnerException  if no data is available
+   */
+  @Contract(pure = true)
+  public double getDouble(@NotNull DataKey<Double> key)
+  {
+    return key.getLayout() == layout && key.lane == DOUBLE_LANE
+        ? doubles[key.slot]
+        : requireData(get(key), key.getName());
+  }
+
+
+  /**
+   * Set the data value for {@code key}.
+   *
+   * @param key    data key of this data layout, not {@code null}
+   * @param value  data value, not {@code null} if {@code key} refers to a primitive lane
+   *
+   * @return  this stage data instance, never {@code null}
+   *
+   * @param <T>  data type
+   *
+   * @throws IllegalArgumentException  if {@code key} does not belong to the layout of this stage data
+   */
+  @Contract(value = "_, _ -> this", mutates = "this")
+  public <T> @NotNull StageData set(@NotNull DataKey<T> key, T value)
+  {
+    checkKey(key);
+
+    switch(key.lane)
+    {
+      case INT_LANE:
+        ints[key.slot] = (Integer)requireNonNullValue(value, key);
+        break;
+
+      case LONG_LANE:
+        longs[key.slot] = (Long)requireNonNullValue(value, key);
+        break;
+
+      case DOUBLE_LANE:
+        doubles[key.slot] = (Double)requireNonNullValue(value, key);
+        break;
+
+      default:
+        values[key.slot] = value;
+        break;
+    }
+
+    return this;
+  }
+
+
+  /**
+   * Set the {@code int} data value for {@code key}.
+   *
+   * @param key    data key of this data layout, not {@code null}
+   * @param value  data value
+   *
+   * @return  this stage data instance, never {@code null}
+   *
+   * @throws IllegalArgumentException  if {@code key} does not belong to the layout of this stage data
+   */
+  @Contract(value = "_, _ -> this", mutates = "this")
+  public @NotNull StageData setInt(@NotNull DataKey<Integer> key, int value)
+  {
+    if (checkKey(key).lane == INT_LANE)
+      ints[key.slot] = value;
+    else
+      values[key.slot] = value;
+
+    return this;
+  }
+
+
+  /**
+   * Set the {@code long} data value for {@code key}.
+   *
+   * @param key    data key of this data layout, not {@code null}
+   * @param value  data value
+   *
+   * @return  this stage data instance, never {@code null}
+   *
+   * @throws IllegalArgumentException  if {@code key} does not belong to the layout of this stage data
+   */
+  @Contract(value = "_, _ -> this", mutates = "this")
+  public @NotNull StageData setLong(@NotNull DataKey<Long> key, long value)
+  {
+    if (checkKey(key).lane == LONG_LANE)
+      longs[key.slot] = value;
+    else
+      values[key.slot] = value;
+
+    return this;
+  }
+
+
+  /**
+   * Set the {@code double} data value for {@code key}.
+   *
+   * @param key    data key of this data layout, not {@code null}
+   * @param value  data value
+   *
+   * @return  this stage data instance, never {@code null}
+   *
+   * @throws IllegalArgumentException  if {@code key} does not belong to the layout of this stage data
+   */
+  @Contract(value = "_, _ -> this", mutates = "this")
+  public @NotNull StageData setDouble(@NotNull DataKey<Double> key, double value)
+  {
+    if (checkKey(key).lane == DOUBLE_LANE)
+      doubles[key.slot] = value;
+    else
+      values[key.slot] = value;
+
+    return this;
+  }
+
+
+  @Contract("_ -> param1")
+  private @NotNull DataKey<?> checkKey(@NotNull DataKey<?> key)
+  {
+    if (key.getLayout() != layout)
+      throw new IllegalArgumentException(key + " does not belong to " + layout);
+
+    return key;
+  }
+
+
+  @Contract("null, _ -> fail; !null, _ -> param1")
+  private static @NotNull Object requireNonNullValue(Object value, @NotNull DataKey<?> key)
+  {
+    if (value == null)
+      throw new IllegalArgumentException("primitive data value '" + key.getName() + "' must not be null");
+
+    return value;
+  }
+
+
+  @Contract("null, _ -> fail; !null, _ -> param1")
+  static <T> @NotNull T requireData(T value, @NotNull String name)
+  {
+    if (value == null)
+      throw new StageRunnerException("Data value '" + name + "' must not be null");
+
+    return value;
+  }
+
+
+  /**
+   * Returns the data as a map. Reference slots without a value are not contained in the map.
+   *
+   * @return  immutable data map, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull Map<String,Object> asMap()
+  {
+    final var map = new HashMap<String,Object>();
+
+    for(var key: layout.getKeys())
+    {
+      final var value = get(key);
+      if (value != null)
+        map.put(key.getName(), value);
+    }
+
+    return unmodifiableMap(map);
+  }
+}
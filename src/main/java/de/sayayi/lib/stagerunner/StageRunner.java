@@ -17,9 +17,14 @@ package de.sayayi.lib.stagerunner;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static de.sayayi.lib.stagerunner.StageRunnerCallback.DEFAULT;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 
 
 /**
@@ -57,4 +62,134 @@ public interface StageRunner<S extends Enum<S>>
    * @return  {@code true} if the stage runner ran successfully, {@code false} otherwise
    */
   boolean run(@NotNull Map<String,Object> data, @NotNull StageRunnerCallback<S> callback);
+
+
+  /**
+   * Start this stage runner instance with slot based data and a default
+   * {@link StageRunnerCallback#DEFAULT callback}.
+   *
+   * @param data  data, which can be accessed in stage functions, not {@code null}
+   *
+   * @return  {@code true} if the stage runner ran successfully, {@code false} otherwise
+   *
+   * @since 0.3.4
+   */
+  @SuppressWarnings("unchecked")
+  default boolean run(@NotNull StageData data) {
+    return run(data, (StageRunnerCallback<S>)DEFAULT);
+  }
+
+
+  /**
+   * Start this stage runner instance with slot based data.
+   * <p>
+   * Stage functions accessing the data using a {@link DataKey} of the same layout do not need to look up the
+   * data by name. The default implementation converts the data into a map and delegates to
+   * {@link #run(Map, StageRunnerCallback)}.
+   *
+   * @param data      data, which can be accessed in stage functions, not {@code null}
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  {@code true} if the stage runner ran successfully, {@code false} otherwise
+   *
+   * @since 0.3.4
+   */
+  default boolean run(@NotNull StageData data, @NotNull StageRunnerCallback<S> callback) {
+    return run(data.asMap(), callback);
+  }
+
+
+  /**
+   * Start this stage runner instance asynchronously with a default {@link StageRunnerCallback#DEFAULT callback}.
+   *
+   * @param data  data, which can be accessed in stage functions, not {@code null}
+   *
+   * @return  future which completes with {@code true} if the stage runner ran successfully, {@code false}
+   *          otherwise, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  @SuppressWarnings("unchecked")
+  default @NotNull CompletableFuture<Boolean> runAsync(@NotNull Map<String,Object> data) {
+    return runAsync(data, (StageRunnerCallback<S>)DEFAULT);
+  }
+
+
+  /**
+   * Start this stage runner instance asynchronously.
+   * <p>
+   * The default implementation runs the stage runner synchronously and returns a completed future.
+   *
+   * @param data      data, which can be accessed in stage functions, not {@code null}
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  future which completes with {@code true} if the stage runner ran successfully, {@code false}
+   *          otherwise, never {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see AsyncStageFunction
+   */
+  default @NotNull CompletableFuture<Boolean> runAsync(@NotNull Map<String,Object> data,
+                                                       @NotNull StageRunnerCallback<S> callback)
+  {
+    try {
+      return completedFuture(run(data, callback));
+    } catch(Throwable ex) {
+      return failedFuture(ex);
+    }
+  }
+
+
+  /**
+   * Run this stage runner instance for each data item in {@code batch} with a default
+   * {@link StageRunnerCallback#DEFAULT callback}.
+   *
+   * @param batch  list of data items, not {@code null}
+   *
+   * @return  list of futures, one for each data item in {@code batch}, never {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see #runBatch(List, StageRunnerCallback)
+   */
+  @SuppressWarnings("unchecked")
+  default @NotNull List<CompletableFuture<Boolean>> runBatch(@NotNull List<Map<String,Object>> batch) {
+    return runBatch(batch, (StageRunnerCallback<S>)DEFAULT);
+  }
+
+
+  /**
+   * Run this stage runner instance for each data item in {@code batch}.
+   * <p>
+   * Each data item is processed in its own stage context, so aborting or failing the run for one data item does
+   * not affect the other data items. The returned future for a data item completes with {@code true} if the run
+   * for that item was successful, {@code false} if it has been aborted, or exceptionally if it has failed. All
+   * futures are completed when this method returns.
+   * <p>
+   * The default implementation runs the data items one after the other.
+   *
+   * @param batch     list of data items, not {@code null}
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  list of futures, one for each data item in {@code batch}, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  default @NotNull List<CompletableFuture<Boolean>> runBatch(@NotNull List<Map<String,Object>> batch,
+                                                             @NotNull StageRunnerCallback<S> callback)
+  {
+    final var results = new ArrayList<CompletableFuture<Boolean>>(batch.size());
+
+    for(var data: batch)
+    {
+      try {
+        results.add(completedFuture(run(data, callback)));
+      } catch(Throwable ex) {
+        results.add(failedFuture(ex));
+      }
+    }
+
+    return results;
+  }
 }
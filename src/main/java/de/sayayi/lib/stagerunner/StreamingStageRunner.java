@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Interface representing a streaming stage runner.
+ * <p>
+ * A streaming stage runner processes a continuous stream of data items in a pipeline. Each stage has its own
+ * bounded queue and workers, so stage N can process a data item while stage N+1 is processing the previous data
+ * item. Once a queue is full, submitting data items blocks until the pipeline has made progress.
+ * <p>
+ * The stage functions and their order are the same as for a regular {@link StageRunner}.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public interface StreamingStageRunner<S extends Enum<S>> extends AutoCloseable
+{
+  /**
+   * Submit a data item to the pipeline, waiting if the queue of its first stage is full.
+   *
+   * @param data  data, which can be accessed in stage functions, not {@code null}
+   *
+   * @return  future which completes with {@code true} if the data item has been processed successfully,
+   *          {@code false} if it has been aborted, or exceptionally if it has failed, never {@code null}
+   *
+   * @throws InterruptedException  if interrupted while waiting
+   */
+  @NotNull CompletableFuture<Boolean> submit(@NotNull Map<String,Object> data) throws InterruptedException;
+
+
+  /**
+   * Submit a data item to the pipeline, waiting up to {@code timeout} if the queue of its first stage is full.
+   *
+   * @param data     data, which can be accessed in stage functions, not {@code null}
+   * @param timeout  maximum time to wait
+   * @param unit     time unit of {@code timeout}, not {@code null}
+   *
+   * @return  future which completes with {@code true} if the data item has been processed successfully,
+   *          {@code false} if it has been aborted, or exceptionally if it has failed, or {@code null} if the
+   *          timeout elapsed before the data item could be submitted
+   *
+   * @throws InterruptedException  if interrupted while waiting
+   */
+  CompletableFuture<Boolean> submit(@NotNull Map<String,Object> data, long timeout, @NotNull TimeUnit unit)
+      throws InterruptedException;
+
+
+  /**
+   * Stop accepting new data items, wait for all submitted data items to be processed and stop the workers.
+   */
+  @Override
+  void close();
+}
@@ -15,11 +15,15 @@
  */
 package de.sayayi.lib.stagerunner.spi;
 
+import de.sayayi.lib.stagerunner.StageData;
 import de.sayayi.lib.stagerunner.StageRunner;
 import de.sayayi.lib.stagerunner.StageRunnerCallback;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -31,6 +35,9 @@ import java.util.Map;
  */
 public abstract class AbstractStageRunner<S extends Enum<S>> implements StageRunner<S>
 {
+  /** Maximum number of data items processed simultaneously by {@link #runBatch(List, StageRunnerCallback)}. */
+  private static final int BATCH_BLOCK_SIZE = 64;
+
   private final AbstractStageRunnerFactory<S> stageRunnerFactory;
 
 
@@ -40,7 +47,124 @@ public abstract class AbstractStageRunner<S extends Enum<S>> implements StageRun
 
 
   @Override
-  public boolean run(@NotNull Map<String,Object> data, @NotNull StageRunnerCallback<S> callback) {
-    return new StageContextImpl<>(stageRunnerFactory, data).run(callback);
+  public boolean run(@NotNull Map<String,Object> data, @NotNull StageRunnerCallback<S> callback)
+  {
+    var stageContext = stageRunnerFactory.acquireStageContext(data);
+
+    try {
+      return stageContext.run(callback);
+    } finally {
+      stageRunnerFactory.releaseStageContext(stageContext);
+    }
+  }
+
+
+  @Override
+  public boolean run(@NotNull StageData data, @NotNull StageRunnerCallback<S> callback)
+  {
+    var stageContext = stageRunnerFactory.acquireStageContext(data);
+
+    try {
+      return stageContext.run(callback);
+    } finally {
+      stageRunnerFactory.releaseStageContext(stageContext);
+    }
+  }
+
+
+  @Override
+  public @NotNull CompletableFuture<Boolean> runAsync(@NotNull Map<String,Object> data,
+                                                      @NotNull StageRunnerCallback<S> callback)
+  {
+    var stageContext = stageRunnerFactory.acquireStageContext(data);
+
+    return stageContext
+        .runAsync(callback)
+        .whenComplete((success, exception) -> stageRunnerFactory.releaseStageContext(stageContext));
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This implementation processes the batch column-wise in blocks of data items: the first stage function is
+   * executed for all data items of a block, then the second stage function, and so on. Data items whose run has
+   * finished, either regularly, aborted or exceptionally, drop out of the block. The block size limits the number
+   * of stage contexts being processed simultaneously, so they stay in cache.
+   * <p>
+   * If the stage runner factory contains dependent stage functions, the data items are run one after the other.
+   */
+  @Override
+  public @NotNull List<CompletableFuture<Boolean>> runBatch(@NotNull List<Map<String,Object>> batch,
+                                                            @NotNull StageRunnerCallback<S> callback)
+  {
+    if (stageRunnerFactory.hasDependentFunctions())
+      return StageRunner.super.runBatch(batch, callback);
+
+    final int size = batch.size();
+    final var results = new ArrayList<CompletableFuture<Boolean>>(size);
+    @SuppressWarnings("unchecked")
+    final var stageContexts = (StageContextImpl<S>[])new StageContextImpl<?>[Math.min(size, BATCH_BLOCK_SIZE)];
+
+    for(int n = 0; n < size; n++)
+      results.add(new CompletableFuture<>());
+
+    for(int blockStart = 0; blockStart < size; blockStart += BATCH_BLOCK_SIZE)
+      runBlock(batch, blockStart, Math.min(size - blockStart, BATCH_BLOCK_SIZE), stageContexts, callback, results);
+
+    return results;
+  }
+
+
+  private void runBlock(@NotNull List<Map<String,Object>> batch, int blockStart, int blockSize,
+                        @NotNull StageContextImpl<S>[] stageContexts, @NotNull StageRunnerCallback<S> callback,
+                        @NotNull List<CompletableFuture<Boolean>> results)
+  {
+    int active = 0;
+
+    for(int n = 0; n < blockSize; n++)
+    {
+      final var stageContext = stageRunnerFactory.acquireStageContext(batch.get(blockStart + n));
+      final var result = results.get(blockStart + n);
+
+      try {
+        if (stageContext.begin(callback))
+        {
+          stageContexts[n] = stageContext;
+          active++;
+          continue;
+        }
+
+        result.complete(!stageContext.isAborted());
+      } catch(Throwable ex) {
+        result.completeExceptionally(ex);
+      }
+
+      stageRunnerFactory.releaseStageContext(stageContext);
+    }
+
+    while(active > 0)
+      for(int n = 0; n < blockSize; n++)
+      {
+        final var stageContext = stageContexts[n];
+        if (stageContext == null)
+          continue;
+
+        final var result = results.get(blockStart + n);
+
+        try {
+          if (stageContext.step(callback))
+            continue;
+
+          result.complete(!stageContext.isAborted());
+        } catch(Throwable ex) {
+          result.completeExceptionally(ex);
+        }
+
+        stageContexts[n] = null;
+        active--;
+
+        stageRunnerFactory.releaseStageContext(stageContext);
+      }
   }
 }
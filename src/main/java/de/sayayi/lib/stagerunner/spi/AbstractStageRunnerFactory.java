@@ -15,15 +15,24 @@
  */
 package de.sayayi.lib.stagerunner.spi;
 
+import de.sayayi.lib.stagerunner.DependentStageFunction;
+import de.sayayi.lib.stagerunner.ParallelStageFunction;
+import de.sayayi.lib.stagerunner.StageData;
 import de.sayayi.lib.stagerunner.StageFunction;
 import de.sayayi.lib.stagerunner.StageFunctionConfigurer;
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
 import de.sayayi.lib.stagerunner.StageRunnerFactory;
+import de.sayayi.lib.stagerunner.StreamingStageRunner;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
+import static de.sayayi.lib.stagerunner.StageRunnerCallback.DEFAULT;
+import static de.sayayi.lib.stagerunner.spi.ExecutionMode.VIRTUAL_THREADS;
 import static java.util.Objects.requireNonNull;
 
 
@@ -37,22 +46,67 @@ public abstract class AbstractStageRunnerFactory<S extends Enum<S>>
 {
   protected final Class<S> stageEnumType;
 
-  final StageOrderFunctionArray<S> functionArray;
+  /** Stage enum constants, indexed by ordinal. */
+  final S[] stages;
+
+  /** Registered unnamed stage functions. */
+  final StageFunctionSegments<S> functionSegments;
   final Map<String,StageOrderFunction<S>> namedStageFunctions;
 
+  /** Named stage functions, indexed by {@link StageOrderFunction#nameIndex}. */
+  final List<StageOrderFunction<S>> namedStageFunctionList;
+
+  /** Named stage functions, sorted by name for prefix lookups. */
+  final NavigableMap<String,StageOrderFunction<S>> namedStageFunctionIndex;
+
+  /** Named stage function tags, each tag mapping to a bitset of {@link StageOrderFunction#nameIndex}. */
+  final Map<String,BitSet> namedStageFunctionTags;
+
+  /** Number of registered stage functions, including the named ones, used for assigning function ids. */
+  private int functionCount;
+
+  private volatile StageFunctionPlan<S> plan;
+  private volatile MetricsRecorder<S> metricsRecorder;
+  private boolean profilingEnabled;
+  private int planVariantCacheSize;
+  private StagePlanCompiler stagePlanCompiler;
+  private StageContextPool<S> stageContextPool;
+  private Executor executor;
+  private ExecutionMode executionMode;
+  private Executor runExecutor;
+  private Set<S> parallelStages;
+  private boolean dependentFunctions;
+
 
   protected AbstractStageRunnerFactory(@NotNull Class<S> stageEnumType)
   {
     this.stageEnumType = stageEnumType;
 
-    functionArray = new StageOrderFunctionArray<>();
+    stages = stageEnumType.getEnumConstants();
+    functionSegments = new StageFunctionSegments<>(stages.length);
     namedStageFunctions = new HashMap<>();
+    namedStageFunctionList = new ArrayList<>();
+    namedStageFunctionIndex = new TreeMap<>();
+    namedStageFunctionTags = new HashMap<>();
+    executor = ForkJoinPool.commonPool();
+    executionMode = ExecutionMode.DEFAULT;
   }
 
 
   @Override
-  public void addStageFunction(@NotNull S stage, int order, String description, @NotNull StageFunction<S> function) {
-    functionArray.add(new StageOrderFunction<>(stage, description, order, function));
+  public void addStageFunction(@NotNull S stage, int order, String description, @NotNull StageFunction<S> function)
+  {
+    var stageFunction = new StageOrderFunction<>(functionCount++, null, -1, stage, description, order, function);
+
+    functionSegments.add(stageFunction);
+    plan = null;
+
+    var recorder = metricsRecorder;
+    if (recorder != null)
+      recorder.register(stageFunction);
+
+    if (function instanceof DependentStageFunction)
+      dependentFunctions = true;
   }
 
 
@@ -66,6 +120,511 @@ public abstract class AbstractStageRunnerFactory<S extends Enum<S>>
     if (namedStageFunctions.containsKey(name))
       throw new StageRunnerConfigurationException("name '" + name + "' must be unique for this stage runner factory");
 
-    namedStageFunctions.put(name, new StageOrderFunction<>(stage, description, order, function));
+    var stageFunction = new StageOrderFunction<>(functionCount++, name, namedStageFunctionList.size(), stage,
+        description, order, function);
+
+    namedStageFunctions.put(name, stageFunction);
+    namedStageFunctionList.add(stageFunction);
+    namedStageFunctionIndex.put(name, stageFunction);
+
+    var recorder = metricsRecorder;
+    if (recorder != null)
+      recorder.register(stageFunction);
+  }
+
+
+  /**
+   * Tag named stage functions. All named stage functions with the same tag can be enabled at once, using
+   * {@link de.sayayi.lib.stagerunner.StageContext#enableTaggedStageFunctions(String)}. A named stage function
+   * may have multiple tags.
+   *
+   * @param tag    tag name, not empty or {@code null}
+   * @param names  names of previously registered named stage functions, not {@code null}
+   *
+   * @throws StageRunnerConfigurationException  if a name does not refer to a named stage function
+   *
+   * @since 0.3.4
+   */
+  public void tagNamedStageFunctions(@NotNull String tag, @NotNull String... names)
+  {
+    if (requireNonNull(tag, "tag must not be null").isEmpty())
+      throw new StageRunnerConfigurationException("tag must not be empty");
+
+    var taggedFunctions = namedStageFunctionTags.computeIfAbsent(tag, t -> new BitSet());
+
+    for(var name: names)
+    {
+      var stageFunction = namedStageFunctions.get(name);
+      if (stageFunction == null)
+        throw new StageRunnerConfigurationException("unknown named stage function '" + name + "'");
+
+      taggedFunctions.set(stageFunction.nameIndex);
+    }
+  }
+
+
+  /**
+   * Returns the execution plan for the stage functions registered with this factory. The plan is compiled on first
+   * access and shared by all stage runners until another stage function is added to this factory.
+   *
+   * @return  shared execution plan, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  @NotNull StageFunctionPlan<S> getPlan()
+  {
+    var compiledPlan = plan;
+    if (compiledPlan == null)
+    {
+      plan = compiledPlan =
+          new StageFunctionPlan<>(functionSegments, stages.length, planVariantCacheSize, stagePlanCompiler);
+    }
+
+    return compiledPlan;
+  }
+
+
+  /**
+   * Set the maximum number of plan variants which are cached for reuse by subsequent stage runs. A plan variant is
+   * the execution plan combined with a set of enabled named stage functions. Stage runs enabling a combination of
+   * named stage functions, which has been enabled by a previous run, switch to the cached plan variant instead of
+   * inserting each named stage function into a private copy of the plan. If the cache is full, the least recently
+   * used plan variant is evicted.
+   * <p>
+   * With plan variants enabled, named stage functions with the same stage and order are executed in registration
+   * order, regardless of the order in which they have been enabled. A stage run that adds an unnamed stage function
+   * no longer uses plan variants for the remainder of the run.
+   *
+   * @param cacheSize  maximum number of cached plan variants or {@code 0} to disable caching (default)
+   *
+   * @since 0.3.4
+   *
+   * @see de.sayayi.lib.stagerunner.StageContext#enableNamedStageFunctions(java.util.function.Predicate)
+   */
+  public void setPlanVariantCacheSize(int cacheSize)
+  {
+    if (cacheSize < 0)
+      throw new IllegalArgumentException("cacheSize must not be negative");
+
+    planVariantCacheSize = cacheSize;
+    plan = null;
+  }
+
+
+  /**
+   * Set the compiler for the execution plan of this factory. The execution plan is compiled when it is first
+   * accessed after a stage function has been added, so all stage functions should be registered before the first
+   * stage run.
+   * <p>
+   * Synchronous stage runs, started with {@link de.sayayi.lib.stagerunner.StageRunner#run(Map) run}, execute the
+   * compiled plan as long as the run follows the plan. The run is continued by the interpreter as soon as it is
+   * aborted, jumps to another stage, adds stage functions or enables named stage functions. The interpreter is
+   * also used for parallel stage functions, profiling, dependent stage functions, stepped, batched and asynchronous
+   * runs.
+   *
+   * @param compiler  stage plan compiler or {@code null} to disable plan compilation (default)
+   *
+   * @since 0.3.4
+   *
+   * @see CompiledStagePlan
+   */
+  public void setStagePlanCompiler(StagePlanCompiler compiler)
+  {
+    stagePlanCompiler = compiler;
+    plan = null;
+  }
+
+
+  /**
+   * Returns the number of stage runs which have switched to a cached plan variant since the execution plan was
+   * last compiled.
+   *
+   * @return  number of plan variant cache hits
+   *
+   * @since 0.3.4
+   *
+   * @see #setPlanVariantCacheSize(int)
+   */
+  public long getPlanVariantCacheHits()
+  {
+    final var variants = getPlan().variants;
+    return variants == null ? 0 : variants.getHits();
+  }
+
+
+  /**
+   * Returns the number of plan variants which have been compiled, because they were not found in the cache, since
+   * the execution plan was last compiled.
+   *
+   * @return  number of plan variant cache misses
+   *
+   * @since 0.3.4
+   *
+   * @see #setPlanVariantCacheSize(int)
+   */
+  public long getPlanVariantCacheMisses()
+  {
+    final var variants = getPlan().variants;
+    return variants == null ? 0 : variants.getMisses();
+  }
+
+
+  /**
+   * Enable or disable recording of metrics for stage runs created by this factory. For each stage function
+   * registered with this factory, the number of invocations, failures and aborts are counted and its execution
+   * times are recorded in a latency histogram. For each stage, the execution times of completed stages are recorded
+   * as well.
+   * <p>
+   * Recording is lock-free. Sequential stage runs read the {@link System#nanoTime() clock} once per stage function,
+   * if the stage runner callback does not override any of the pre/post callback methods. Enabling metrics discards
+   * previously recorded metrics.
+   *
+   * @param enabled  {@code true} to enable metrics, {@code false} to disable metrics (default)
+   *
+   * @since 0.3.4
+   *
+   * @see #getMetrics()
+   */
+  public void setMetricsEnabled(boolean enabled)
+  {
+    if (!enabled)
+      metricsRecorder = null;
+    else
+    {
+      var recorder =
+          new MetricsRecorder<>(stageEnumType, stages, profilingEnabled ? ThreadProfiler.getInstance() : null);
+
+      functionSegments.forEach(recorder::register);
+      namedStageFunctionList.forEach(recorder::register);
+
+      metricsRecorder = recorder;
+    }
+  }
+
+
+  /**
+   * Enable or disable profiling of stage functions. With profiling enabled, the CPU time consumed and the number
+   * of bytes allocated by the thread executing a stage function are attributed to the stage function and
+   * reported in its {@link StageRunnerMetrics.FunctionMetrics metrics}. This includes stage functions executed in
+   * parallel or by the dependency scheduler. For asynchronous stage functions, only the thread starting the
+   * asynchronous operation is measured.
+   * <p>
+   * The JVM does not measure the CPU time and allocations of virtual threads. Stage functions executed by a virtual
+   * thread, e.g. with {@link ExecutionMode#VIRTUAL_THREADS} on Java 21 or later, are not included in the profile;
+   * see {@link StageRunnerMetrics.FunctionMetrics#getProfiledInvocations()}.
+   * <p>
+   * Enabling profiling enables metrics. Changing the profiling mode, while metrics are enabled, discards previously
+   * recorded metrics.
+   *
+   * @param enabled  {@code true} to enable profiling, {@code false} to disable profiling (default)
+   *
+   * @throws StageRunnerConfigurationException  if profiling is not supported by the Java runtime
+   *
+   * @since 0.3.4
+   *
+   * @see #setMetricsEnabled(boolean)
+   */
+  public void setProfilingEnabled(boolean enabled)
+  {
+    if (enabled)
+      ThreadProfiler.getInstance();
+
+    profilingEnabled = enabled;
+
+    if (enabled || metricsRecorder != null)
+      setMetricsEnabled(true);
+  }
+
+
+  /**
+   * Returns a snapshot of the metrics recorded since metrics have been enabled.
+   *
+   * @return  metrics snapshot or {@code null} if metrics are not enabled
+   *
+   * @since 0.3.4
+   *
+   * @see #setMetricsEnabled(boolean)
+   */
+  @Contract(pure = true)
+  public StageRunnerMetrics<S> getMetrics()
+  {
+    var recorder = metricsRecorder;
+    return recorder == null ? null : recorder.snapshot();
+  }
+
+
+  @Contract(pure = true)
+  MetricsRecorder<S> getMetricsRecorder() {
+    return metricsRecorder;
+  }
+
+
+  /**
+   * Set the maximum number of stage context instances which are kept for reuse by subsequent stage runs. Pooling
+   * avoids allocating a new stage context, including its side structures, for each run.
+   * <p>
+   * If pooling is enabled, stage functions and callbacks must not retain a reference to the stage context after
+   * the run has finished.
+   *
+   * @param poolSize  maximum number of pooled stage contexts or {@code 0} to disable pooling (default)
+   *
+   * @since 0.3.4
+   */
+  public void setStageContextPoolSize(int poolSize)
+  {
+    if (poolSize < 0)
+      throw new IllegalArgumentException("poolSize must not be negative");
+
+    stageContextPool = poolSize == 0 ? null : new StageContextPool<>(poolSize);
+  }
+
+
+  /**
+   * Set the executor used for running parallel and dependent stage functions. By default, the
+   * {@link ForkJoinPool#commonPool() common pool} is used.
+   *
+   * @param executor  executor for parallel and dependent stage functions, not {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see ParallelStageFunction
+   * @see DependentStageFunction
+   * @see #setParallelStages(Set)
+   */
+  public void setExecutor(@NotNull Executor executor) {
+    this.executor = requireNonNull(executor, "executor must not be null");
+  }
+
+
+  @Contract(pure = true)
+  @NotNull Executor getExecutor() {
+    return executor;
+  }
+
+
+  /**
+   * Set the execution mode for stage runs created by this factory. Setting the execution mode replaces the
+   * executor previously configured with {@link #setExecutor(Executor)}.
+   *
+   * @param executionMode  execution mode, not {@code null}
+   *
+   * @since 0.3.4
+   */
+  public void setExecutionMode(@NotNull ExecutionMode executionMode)
+  {
+    if (requireNonNull(executionMode, "executionMode must not be null") == VIRTUAL_THREADS)
+      executor = runExecutor = VirtualThreads.executor();
+    else
+    {
+      executor = ForkJoinPool.commonPool();
+      runExecutor = null;
+    }
+
+    this.executionMode = executionMode;
+  }
+
+
+  /**
+   * Returns the execution mode for stage runs created by this factory.
+   *
+   * @return  execution mode, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  public @NotNull ExecutionMode getExecutionMode() {
+    return executionMode;
+  }
+
+
+  /**
+   * Returns the executor for asynchronous stage runs.
+   *
+   * @return  executor for asynchronous stage runs or {@code null} if asynchronous stage runs start on the calling
+   *          thread
+   */
+  @Contract(pure = true)
+  Executor getRunExecutor() {
+    return runExecutor;
+  }
+
+
+  /**
+   * Set the stages for which all stage functions are executed in parallel, as if they were implementing
+   * {@link ParallelStageFunction}.
+   *
+   * @param parallelStages  stages with parallel stage function execution, not {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see #setExecutor(Executor)
+   */
+  public void setParallelStages(@NotNull Set<S> parallelStages)
+  {
+    if (parallelStages.isEmpty())
+      this.parallelStages = null;
+    else
+    {
+      var stages = EnumSet.noneOf(stageEnumType);
+      stages.addAll(parallelStages);
+
+      this.parallelStages = stages;
+    }
+  }
+
+
+  /**
+   * Tell whether the given {@code function} may be executed concurrently with other parallel stage functions
+   * of the same stage.
+   *
+   * @param function  stage function, not {@code null}
+   *
+   * @return  {@code true} if the stage function is eligible for parallel execution, {@code false} otherwise
+   */
+  @Contract(pure = true)
+  boolean isParallel(@NotNull StageOrderFunction<S> function)
+  {
+    final Set<S> stages;
+    return function.parallel || ((stages = parallelStages) != null && stages.contains(function.stage));
+  }
+
+
+  /**
+   * Tell whether stage runs must be scheduled using the dependency graph of the stage functions. This is the case
+   * if at least one of the registered unnamed stage functions is a dependent stage function. Named dependent stage
+   * functions only switch the runs enabling them to scheduling by dependencies.
+   *
+   * @return  {@code true} if stage runs are scheduled by dependencies, {@code false} otherwise
+   *
+   * @see DependentStageFunction
+   */
+  @Contract(pure = true)
+  boolean hasDependentFunctions() {
+    return dependentFunctions;
+  }
+
+
+  /**
+   * Create a streaming stage runner with a default {@link StageRunnerCallback#DEFAULT callback}.
+   *
+   * @param queueCapacity    capacity of the queue for each stage
+   * @param workersPerStage  number of workers for each stage
+   * @param ordered          {@code true} if the futures returned for submitted data items must complete in
+   *                         submission order, {@code false} if they complete as soon as a data item has been
+   *                         processed
+   *
+   * @return  new streaming stage runner, never {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see #createStreamingRunner(int, int, boolean, StageRunnerCallback)
+   */
+  @Contract("_, _, _ -> new")
+  @SuppressWarnings("unchecked")
+  public @NotNull StreamingStageRunner<S> createStreamingRunner(int queueCapacity, int workersPerStage,
+                                                                boolean ordered) {
+    return createStreamingRunner(queueCapacity, workersPerStage, ordered, (StageRunnerCallback<S>)DEFAULT);
+  }
+
+
+  /**
+   * Create a streaming stage runner which processes data items in a pipeline with a bounded queue and a number of
+   * workers for each stage. The workers are started on virtual threads, if supported by the Java runtime.
+   *
+   * @param queueCapacity    capacity of the queue for each stage
+   * @param workersPerStage  number of workers for each stage
+   * @param ordered          {@code true} if the futures returned for submitted data items must complete in
+   *                         submission order, {@code false} if they complete as soon as a data item has been
+   *                         processed
+   * @param callback         stage runner callback instance, not {@code null}
+   *
+   * @return  new streaming stage runner, never {@code null}
+   *
+   * @since 0.3.4
+   *
+   * @see #createStreamingRunner(int, int, boolean, StageRunnerCallback, Executor)
+   */
+  @Contract("_, _, _, _ -> new")
+  public @NotNull StreamingStageRunner<S> createStreamingRunner(int queueCapacity, int workersPerStage,
+                                                                boolean ordered,
+                                                                @NotNull StageRunnerCallback<S> callback) {
+    return createStreamingRunner(queueCapacity, workersPerStage, ordered, callback, VirtualThreads.executor());
+  }
+
+
+  /**
+   * Create a streaming stage runner which processes data items in a pipeline with a bounded queue and a number of
+   * workers for each stage. The workers are started using {@code executor}.
+   * <p>
+   * Each worker occupies a thread of the executor until the streaming stage runner has been closed. The executor
+   * must therefore be able to run all {@code workersPerStage} &times; <i>number of stages</i> workers concurrently,
+   * e.g. a thread pool sized for stage functions doing blocking I/O.
+   *
+   * @param queueCapacity    capacity of the queue for each stage
+   * @param workersPerStage  number of workers for each stage
+   * @param ordered          {@code true} if the futures returned for submitted data items must complete in
+   *                         submission order, {@code false} if they complete as soon as a data item has been
+   *                         processed
+   * @param callback         stage runner callback instance, not {@code null}
+   * @param executor         executor for starting the workers, not {@code null}
+   *
+   * @return  new streaming stage runner, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  @Contract("_, _, _, _, _ -> new")
+  public @NotNull StreamingStageRunner<S> createStreamingRunner(int queueCapacity, int workersPerStage,
+                                                                boolean ordered,
+                                                                @NotNull StageRunnerCallback<S> callback,
+                                                                @NotNull Executor executor)
+  {
+    if (queueCapacity <= 0)
+      throw new IllegalArgumentException("queueCapacity must be positive");
+    if (workersPerStage <= 0)
+      throw new IllegalArgumentException("workersPerStage must be positive");
+    if (dependentFunctions)
+      throw new StageRunnerConfigurationException("streaming stage runner does not support dependent stage functions");
+
+    return new StreamingStageRunnerImpl<>(this, queueCapacity, workersPerStage, ordered,
+        requireNonNull(callback, "callback must not be null"), requireNonNull(executor, "executor must not be null"));
+  }
+
+
+  @NotNull StageContextImpl<S> acquireStageContext(@NotNull Map<String,Object> data)
+  {
+    var pool = stageContextPool;
+    if (pool != null)
+    {
+      var stageContext = pool.acquire();
+      if (stageContext != null)
+        return stageContext.reset(data);
+    }
+
+    return new StageContextImpl<>(this, data);
+  }
+
+
+  @NotNull StageContextImpl<S> acquireStageContext(@NotNull StageData data)
+  {
+    var pool = stageContextPool;
+    if (pool != null)
+    {
+      var stageContext = pool.acquire();
+      if (stageContext != null)
+        return stageContext.reset(data);
+    }
+
+    return new StageContextImpl<>(this).reset(data);
+  }
+
+
+  void releaseStageContext(@NotNull StageContextImpl<S> stageContext)
+  {
+    var pool = stageContextPool;
+    if (pool != null)
+    {
+      stageContext.release();
+      pool.release(stageContext);
+    }
   }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Capability mask of the callback methods a {@link StageRunnerCallback} implementation actually overrides.
+ * <p>
+ * Stage runs only dispatch the callback methods contained in the mask, so callbacks which keep the empty default
+ * implementations, like {@link StageRunnerCallback#DEFAULT}, cost nothing per stage function. The mask is
+ * determined once for each callback class.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class CallbackHooks
+{
+  static final int PRE_STAGE = 1;
+  static final int PRE_STAGE_FUNCTION = 2;
+  static final int POST_STAGE_FUNCTION = 4;
+  static final int POST_STAGE = 8;
+  static final int ALL = PRE_STAGE | PRE_STAGE_FUNCTION | POST_STAGE_FUNCTION | POST_STAGE;
+
+  private static final ClassValue<Integer> HOOKS = new ClassValue<>() {
+    @Override
+    protected Integer computeValue(Class<?> callbackType) {
+      return hooks(callbackType);
+    }
+  };
+
+
+  private CallbackHooks() {
+  }
+
+
+  /**
+   * Returns the capability mask for the given {@code callback}.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  capability mask, a combination of {@link #PRE_STAGE}, {@link #PRE_STAGE_FUNCTION},
+   *          {@link #POST_STAGE_FUNCTION} and {@link #POST_STAGE}
+   */
+  @Contract(pure = true)
+  static int of(@NotNull StageRunnerCallback<?> callback) {
+    return HOOKS.get(callback.getClass());
+  }
+
+
+  @Contract(pure = true)
+  private static int hooks(@NotNull Class<?> callbackType)
+  {
+    try {
+      return
+          (isOverridden(callbackType, "preStageCallback", StageContext.class) ? PRE_STAGE : 0) |
+          (isOverridden(callbackType, "preStageFunctionCallback", StageContext.class, String.class)
+              ? PRE_STAGE_FUNCTION : 0) |
+          (isOverridden(callbackType, "postStageFunctionCallback", StageContext.class) ? POST_STAGE_FUNCTION : 0) |
+          (isOverridden(callbackType, "postStageCallback", StageContext.class, Enum.class) ? POST_STAGE : 0);
+    } catch(NoSuchMethodException | SecurityException ex) {
+      return ALL;
+    }
+  }
+
+
+  @Contract(pure = true)
+  private static boolean isOverridden(@NotNull Class<?> callbackType, @NotNull String methodName,
+                                      @NotNull Class<?>... parameterTypes) throws NoSuchMethodException {
+    return callbackType.getMethod(methodName, parameterTypes).getDeclaringClass() != StageRunnerCallback.class;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Execution plan compiled into straight-line code by a {@link StagePlanCompiler}.
+ * <p>
+ * A compiled plan invokes each stage function of the plan at its own call site, so the JIT compiler is able to
+ * inline small stage functions, instead of dispatching all stage functions from the single, megamorphic call site
+ * of the interpreter. For each function index {@code i}, starting with {@code 0}, the implementation of
+ * {@link #run(StageContext, StageRunnerCallback)} must execute:
+ * <pre>
+ *   if (!enter(context, callback, i, stageStart))
+ *     return;
+ *
+ *   Throwable exception = null;
+ *
+ *   try {
+ *     function<sub>i</sub>.process(context);
+ *   } catch(Throwable ex) {
+ *     exception = ex;
+ *   }
+ *
+ *   complete(context, callback, exception);
+ * </pre>
+ * with {@code stageStart} being {@code true} if the function is the first function of its stage. If
+ * {@link #enter(StageContext, StageRunnerCallback, int, boolean) enter} returns {@code false}, the run has been
+ * aborted, a stage jump is pending, the run has deviated from the plan by adding stage functions or the next stage
+ * function must be executed in parallel. The stage runner continues the run by interpreting the function array.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public abstract class CompiledStagePlan<S extends Enum<S>>
+{
+  /**
+   * Execute the stage functions of the compiled plan in order, until all functions have been executed or the run
+   * must be continued by the stage runner.
+   *
+   * @param context   stage context, not {@code null}
+   * @param callback  stage runner callback instance, not {@code null}
+   */
+  protected abstract void run(@NotNull StageContext<S> context, @NotNull StageRunnerCallback<S> callback);
+
+
+  /**
+   * Prepare the execution of the stage function at {@code functionIndex}. If {@code stageStart} is {@code true},
+   * the previous stage is completed and the stage of the function is started first.
+   *
+   * @param context        stage context, not {@code null}
+   * @param callback       stage runner callback instance, not {@code null}
+   * @param functionIndex  index of the stage function in the compiled plan
+   * @param stageStart     {@code true} if the function is the first function of its stage
+   *
+   * @return  {@code true} if the stage function must be executed, {@code false} if the run must be continued by
+   *          the stage runner
+   */
+  protected static <S extends Enum<S>> boolean enter(@NotNull StageContext<S> context,
+                                                     @NotNull StageRunnerCallback<S> callback,
+                                                     int functionIndex, boolean stageStart) {
+    return ((StageContextImpl<S>)context).enterCompiled(callback, functionIndex, stageStart);
+  }
+
+
+  /**
+   * Complete the stage function, which has been executed after a successful
+   * {@link #enter(StageContext, StageRunnerCallback, int, boolean) enter}.
+   *
+   * @param context    stage context, not {@code null}
+   * @param callback   stage runner callback instance, not {@code null}
+   * @param exception  exception thrown by the stage function or {@code null} if it completed normally
+   */
+  protected static <S extends Enum<S>> void complete(@NotNull StageContext<S> context,
+                                                     @NotNull StageRunnerCallback<S> callback,
+                                                     Throwable exception) {
+    ((StageContextImpl<S>)context).completeFunction(callback, exception);
+  }
+}
@@ -26,13 +26,25 @@ import org.jetbrains.annotations.NotNull;
  */
 public class DefaultStageRunnerFactory<S extends Enum<S>> extends AbstractStageRunnerFactory<S>
 {
-  public DefaultStageRunnerFactory(@NotNull Class<S> stageEnumType) {
+  private final StageRunner<S> stageRunner;
+
+
+  public DefaultStageRunnerFactory(@NotNull Class<S> stageEnumType)
+  {
     super(stageEnumType);
+
+    stageRunner = new AbstractStageRunner<>(DefaultStageRunnerFactory.this) {};
   }
 
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The stage runner returned by this factory does not keep any run specific state, so a single instance is
+   * shared for all invocations.
+   */
   @Override
   public @NotNull StageRunner<S> createRunner() {
-    return new AbstractStageRunner<>(DefaultStageRunnerFactory.this) {};
+    return stageRunner;
   }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+
+/**
+ * Execution mode of a stage runner factory.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see AbstractStageRunnerFactory#setExecutionMode(ExecutionMode)
+ */
+public enum ExecutionMode
+{
+  /**
+   * Stage runs execute on the thread starting the run. Parallel and dependent stage functions execute on the
+   * executor configured with the stage runner factory.
+   */
+  DEFAULT,
+
+
+  /**
+   * Each asynchronous stage run and each parallel or dependent stage function executes on its own virtual thread.
+   * Blocking stage functions therefore do not occupy a platform thread while waiting.
+   * <p>
+   * Virtual threads require Java 21 or later. On older Java versions, a shared pool of cached daemon threads is
+   * used instead.
+   */
+  VIRTUAL_THREADS
+}
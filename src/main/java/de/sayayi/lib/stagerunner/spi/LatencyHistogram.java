@@ -0,0 +1,192 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Snapshot of a log-linear latency histogram with a fixed number of buckets.
+ * <p>
+ * Latencies below {@code 4} nanoseconds have a bucket of their own. Every power of two range above is divided into
+ * 4 linear buckets, so the relative error of a bucket bound is at most 25%. Latencies of {@code 2^41} nanoseconds
+ * (about 36 minutes) and more are counted in the last bucket.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class LatencyHistogram
+{
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+
+  /** Number of histogram buckets. */
+  public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+  private final long[] counts;
+  private final long count;
+  private final long totalNanos;
+
+
+  LatencyHistogram(@NotNull long[] counts, long totalNanos)
+  {
+    long count = 0;
+    for(var bucketCount: counts)
+      count += bucketCount;
+
+    this.counts = counts;
+    this.count = count;
+    this.totalNanos = totalNanos;
+  }
+
+
+  /**
+   * Returns the bucket index for the given latency.
+   *
+   * @param nanos  latency in nanoseconds, not negative
+   *
+   * @return  bucket index
+   */
+  @Contract(pure = true)
+  static int bucket(long nanos)
+  {
+    if (nanos < SUB_BUCKETS)
+      return (int)nanos;
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent > MAX_EXPONENT)
+      return BUCKETS - 1;
+
+    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) |
+           (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+  }
+
+
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return  number of recorded latencies
+   */
+  @Contract(pure = true)
+  public long getCount() {
+    return count;
+  }
+
+
+  /**
+   * Returns the sum of all recorded latencies.
+   *
+   * @return  sum of all recorded latencies in nanoseconds
+   */
+  @Contract(pure = true)
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+
+  /**
+   * Returns the mean of all recorded latencies.
+   *
+   * @return  mean latency in nanoseconds or {@code 0} if no latencies have been recorded
+   */
+  @Contract(pure = true)
+  public double getMeanNanos() {
+    return count == 0 ? 0 : (double)totalNanos / count;
+  }
+
+
+  /**
+   * Returns the number of latencies recorded in the given bucket.
+   *
+   * @param bucket  bucket index, in range {@code 0..BUCKETS-1}
+   *
+   * @return  number of latencies recorded in the bucket
+   */
+  @Contract(pure = true)
+  public long getCount(int bucket) {
+    return counts[bucket];
+  }
+
+
+  /**
+   * Returns the smallest latency counted in the given bucket.
+   *
+   * @param bucket  bucket index, in range {@code 0..BUCKETS-1}
+   *
+   * @return  lower bucket bound in nanoseconds (inclusive)
+   */
+  @Contract(pure = true)
+  public static long getLowerBoundNanos(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+
+    final int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+
+    return (long)(SUB_BUCKETS | (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+  }
+
+
+  /**
+   * Returns the largest latency counted in the given bucket.
+   *
+   * @param bucket  bucket index, in range {@code 0..BUCKETS-1}
+   *
+   * @return  upper bucket bound in nanoseconds (inclusive)
+   */
+  @Contract(pure = true)
+  public static long getUpperBoundNanos(int bucket) {
+    return bucket == BUCKETS - 1 ? Long.MAX_VALUE : getLowerBoundNanos(bucket + 1) - 1;
+  }
+
+
+  /**
+   * Returns the latency below or at which the given percentage of the recorded latencies lie. The result is the
+   * upper bound of the bucket containing the percentile.
+   *
+   * @param percentile  percentile, in range {@code 0..100}
+   *
+   * @return  percentile latency in nanoseconds or {@code 0} if no latencies have been recorded
+   */
+  @Contract(pure = true)
+  public long getPercentileNanos(double percentile)
+  {
+    if (percentile < 0 || percentile > 100)
+      throw new IllegalArgumentException("percentile must be in range 0..100");
+
+    if (count == 0)
+      return 0;
+
+    final long rank = Math.max(1, (long)Math.ceil(count * percentile / 100));
+    long seen = 0;
+    int bucket = 0;
+
+    while((seen += counts[bucket]) < rank)
+      bucket++;
+
+    return getUpperBoundNanos(bucket);
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return "LatencyHistogram(count=" + count + ",mean=" + Math.round(getMeanNanos()) + "ns,p50=" +
+        getPercentileNanos(50) + "ns,p99=" + getPercentileNanos(99) + "ns)";
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static de.sayayi.lib.stagerunner.spi.LatencyHistogram.BUCKETS;
+
+
+/**
+ * Lock-free recorder for a {@link LatencyHistogram}.
+ * <p>
+ * Each bucket is a striped {@link LongAdder}, so concurrent stage function executions falling into the same bucket
+ * do not contend on a single counter. Bucket adders are created on first use, as only a few buckets are hit in
+ * practice.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class LatencyRecorder
+{
+  private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+  private final LongAdder totalNanos = new LongAdder();
+
+
+  void record(long nanos)
+  {
+    if (nanos < 0)
+      nanos = 0;
+
+    final int bucket = LatencyHistogram.bucket(nanos);
+    var count = counts.get(bucket);
+
+    if (count == null && !counts.compareAndSet(bucket, null, count = new LongAdder()))
+      count = counts.get(bucket);
+
+    count.increment();
+    totalNanos.add(nanos);
+  }
+
+
+  @Contract(value = "-> new", pure = true)
+  @NotNull LatencyHistogram snapshot()
+  {
+    final var snapshotCounts = new long[BUCKETS];
+
+    for(int bucket = 0; bucket < BUCKETS; bucket++)
+    {
+      final var count = counts.get(bucket);
+      if (count != null)
+        snapshotCounts[bucket] = count.sum();
+    }
+
+    return new LatencyHistogram(snapshotCounts, totalNanos.sum());
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.spi.StageRunnerMetrics.FunctionMetrics;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Arrays.copyOf;
+
+
+/**
+ * Lock-free recorder for per stage function and per stage metrics.
+ * <p>
+ * Stage functions registered with the stage runner factory are identified by their
+ * {@link StageOrderFunction#id id}. Stage functions added while running are not recorded individually, but are
+ * included in the stage latencies.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class MetricsRecorder<S extends Enum<S>>
+{
+  private final Class<S> stageEnumType;
+  private final S[] stages;
+  private final LatencyRecorder[] stageLatencies;
+  private volatile FunctionRecorder<S>[] functions;
+
+  /** Thread profiler, if CPU time and allocations are attributed to stage functions, or {@code null}. */
+  final ThreadProfiler profiler;
+
+
+  @SuppressWarnings("unchecked")
+  MetricsRecorder(@NotNull Class<S> stageEnumType, @NotNull S[] stages, ThreadProfiler profiler)
+  {
+    this.stageEnumType = stageEnumType;
+    this.stages = stages;
+    this.profiler = profiler;
+
+    stageLatencies = new LatencyRecorder[stages.length];
+    for(int ordinal = 0; ordinal < stages.length; ordinal++)
+      stageLatencies[ordinal] = new LatencyRecorder();
+
+    functions = (FunctionRecorder<S>[])new FunctionRecorder<?>[0];
+  }
+
+
+  /**
+   * Register a stage function. Registering happens while configuring the stage runner factory, so copying the
+   * recorder array on each registration is acceptable.
+   *
+   * @param function  stage function with an id, not {@code null}
+   */
+  synchronized void register(@NotNull StageOrderFunction<S> function)
+  {
+    var functionRecorders = functions;
+    if (function.id >= functionRecorders.length)
+      functionRecorders = copyOf(functionRecorders, function.id + 1);
+
+    functionRecorders[function.id] = new FunctionRecorder<>(function);
+    functions = functionRecorders;
+  }
+
+
+  /**
+   * Record the execution of a stage function.
+   *
+   * @param function  stage function, not {@code null}
+   * @param nanos     execution time in nanoseconds
+   * @param failed    {@code true} if the stage function has thrown an exception
+   * @param aborted   {@code true} if the run has been aborted while the stage function was executing
+   */
+  void recordFunction(@NotNull StageOrderFunction<S> function, long nanos, boolean failed, boolean aborted)
+  {
+    final int id = function.id;
+    final FunctionRecorder<S>[] functionRecorders;
+    final FunctionRecorder<S> functionRecorder;
+
+    if (id >= 0 && id < (functionRecorders = functions).length && (functionRecorder = functionRecorders[id]) != null)
+    {
+      functionRecorder.invocations.increment();
+      functionRecorder.latency.record(nanos);
+
+      if (failed)
+        functionRecorder.failures.increment();
+      if (aborted)
+        functionRecorder.aborts.increment();
+    }
+  }
+
+
+  /**
+   * Record the CPU time and allocations of a stage function execution. The sample is discarded if any of the
+   * readings is negative, which is the case if the stage function has been executed by a virtual thread.
+   *
+   * @param function             stage function, not {@code null}
+   * @param cpuTimeStart         CPU time in nanoseconds before execution
+   * @param cpuTimeEnd           CPU time in nanoseconds after execution
+   * @param allocatedBytesStart  number of allocated bytes before execution
+   * @param allocatedBytesEnd    number of allocated bytes after execution
+   *
+   * @see ThreadProfiler
+   */
+  void recordProfile(@NotNull StageOrderFunction<S> function, long cpuTimeStart, long cpuTimeEnd,
+                     long allocatedBytesStart, long allocatedBytesEnd)
+  {
+    final int id = function.id;
+    final FunctionRecorder<S>[] functionRecorders;
+    final FunctionRecorder<S> functionRecorder;
+
+    if ((cpuTimeStart | cpuTimeEnd | allocatedBytesStart | allocatedBytesEnd) >= 0 &&
+        id >= 0 && id < (functionRecorders = functions).length && (functionRecorder = functionRecorders[id]) != null)
+    {
+      functionRecorder.profiledInvocations.increment();
+      functionRecorder.cpuNanos.add(cpuTimeEnd - cpuTimeStart);
+      functionRecorder.allocatedBytes.add(allocatedBytesEnd - allocatedBytesStart);
+    }
+  }
+
+
+  /**
+   * Record the execution time of a completed stage.
+   *
+   * @param stage  completed stage, not {@code null}
+   * @param nanos  execution time in nanoseconds
+   */
+  void recordStage(@NotNull S stage, long nanos) {
+    stageLatencies[stage.ordinal()].record(nanos);
+  }
+
+
+  @Contract(value = "-> new", pure = true)
+  @NotNull StageRunnerMetrics<S> snapshot()
+  {
+    final var functionMetrics = new ArrayList<FunctionMetrics<S>>();
+
+    for(var functionRecorder: functions)
+      if (functionRecorder != null)
+      {
+        final var function = functionRecorder.function;
+        final var latency = functionRecorder.latency.snapshot();
+
+        functionMetrics.add(new FunctionMetrics<>(function.id, function.stage, function.order, function.name,
+            function.description, functionRecorder.invocations.sum(), functionRecorder.failures.sum(),
+            functionRecorder.aborts.sum(), latency,
+            profiler == null ? -1 : functionRecorder.profiledInvocations.sum(),
+            profiler == null ? -1 : functionRecorder.cpuNanos.sum(),
+            profiler == null ? -1 : functionRecorder.allocatedBytes.sum()));
+      }
+
+    final var stageMetrics = new EnumMap<S,LatencyHistogram>(stageEnumType);
+    for(var stage: stages)
+      stageMetrics.put(stage, stageLatencies[stage.ordinal()].snapshot());
+
+    return new StageRunnerMetrics<>(functionMetrics, stageMetrics);
+  }
+
+
+
+
+  private static final class FunctionRecorder<S extends Enum<S>>
+  {
+    final StageOrderFunction<S> function;
+    final LongAdder invocations = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder aborts = new LongAdder();
+    final LatencyRecorder latency = new LatencyRecorder();
+    final LongAdder profiledInvocations = new LongAdder();
+    final LongAdder cpuNanos = new LongAdder();
+    final LongAdder allocatedBytes = new LongAdder();
+
+
+    private FunctionRecorder(@NotNull StageOrderFunction<S> function) {
+      this.function = function;
+    }
+  }
+}
@@ -15,20 +15,35 @@
  */
 package de.sayayi.lib.stagerunner.spi;
 
+import de.sayayi.lib.stagerunner.AsyncStageFunction;
+import de.sayayi.lib.stagerunner.DataKey;
 import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageData;
 import de.sayayi.lib.stagerunner.StageFunction;
 import de.sayayi.lib.stagerunner.StageRunnerCallback;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
 import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import de.sayayi.lib.stagerunner.spi.StageRunnerEvents.RunEvent;
+import de.sayayi.lib.stagerunner.spi.StageRunnerEvents.StageEvent;
+import de.sayayi.lib.stagerunner.spi.StageRunnerEvents.StageFunctionEvent;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
-import static de.sayayi.lib.stagerunner.StageContext.FunctionState.*;
+import static de.sayayi.lib.stagerunner.spi.CallbackHooks.*;
 import static de.sayayi.lib.stagerunner.spi.StageContextImpl.State.*;
+import static de.sayayi.lib.stagerunner.spi.StageRunnerEvents.*;
+import static de.sayayi.lib.stagerunner.spi.StageOrderFunctionArray.*;
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.copyOfRange;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
+import static java.util.concurrent.CompletableFuture.*;
 
 
 /**
@@ -39,44 +54,192 @@ import static java.util.Collections.emptySet;
 final class StageContextImpl<S extends Enum<S>> implements StageContext<S>
 {
   private final AbstractStageRunnerFactory<S> stageRunnerFactory;
-  private final StageOrderFunctionArray<S> functionArray;
-  private final Set<S> processedStages;
-  private final Map<String,Object> data;
-  private final Set<String> enabledStageFunctionNames;
+  final StageOrderFunctionArray<S> functionArray;
+  private final long[] processedStages;
+  private Map<String,Object> data;
+  private StageData stageData;
+  private final BitSet enabledNamedFunctions;
+
+  /**
+   * Name indexes of the named stage functions to enable, the key for looking up a plan variant and the stage
+   * functions to enable. They are allocated on first use and reused by subsequent runs of a pooled stage context.
+   */
+  private BitSet candidates;
+  private BitSet variantKey;
+  private StageOrderFunction<S>[] namedFunctionBuffer;
+
+  /** Execution plan this run has been started with. */
+  private StageFunctionPlan<S> basePlan;
+
+  /**
+   * {@code true} if the function array contains the functions of {@link #basePlan} and the enabled named stage
+   * functions, ordered as in a plan variant, so it can be switched to a cached plan variant.
+   */
+  private boolean planVariant;
+
+  /**
+   * {@code true} if a dependent stage function has been added to the function array of this run, while it is not
+   * scheduled by dependencies.
+   */
+  private boolean dependentFunctionAdded;
 
   private State state;
-  private int functionIndex;
-  private boolean aborted;
+  int functionIndex;
+  private S lastStage;
 
+  /** Ordinal of the stage to continue with after the current stage function, or {@code -1}. */
+  private int jumpOrdinal;
+  private volatile boolean aborted;
 
-  StageContextImpl(@NotNull AbstractStageRunnerFactory<S> stageRunnerFactory, @NotNull Map<String,Object> data)
+  /** Callback methods to dispatch for the current run. */
+  private int callbackHooks;
+
+  /** Metrics recorder for the current run or {@code null} if metrics are disabled. */
+  MetricsRecorder<S> metrics;
+
+  /**
+   * Time of the last metrics relevant event: the start of the run or step, or the completion of the previous stage
+   * function. If no callback has been invoked in between, it is used as the start time of the next stage function,
+   * so recording metrics only reads the clock once per stage function.
+   */
+  private long lastNanos;
+  private long functionStartNanos;
+  private long stageStartNanos;
+
+  /** Flight recorder events of the current run, stage and stage function or {@code null} if not enabled. */
+  private RunEvent runEvent;
+  private StageEvent stageEvent;
+  private StageFunctionEvent functionEvent;
+
+  /** Number of stage functions of the current run which have thrown an exception. */
+  int failedFunctions;
+  private StageDependencyScheduler<S> scheduler;
+
+
+  StageContextImpl(@NotNull AbstractStageRunnerFactory<S> stageRunnerFactory)
   {
     this.stageRunnerFactory = stageRunnerFactory;
+
+    final int stageCount = stageRunnerFactory.stages.length;
+
+    functionArray = new StageOrderFunctionArray<>(stageCount);
+    processedStages = new long[stageWords(stageCount)];
+    enabledNamedFunctions = new BitSet();
+    state = FINISHED;
+  }
+
+
+  StageContextImpl(@NotNull AbstractStageRunnerFactory<S> stageRunnerFactory, @NotNull Map<String,Object> data)
+  {
+    this(stageRunnerFactory);
+    reset(data);
+  }
+
+
+  /**
+   * Prepare this stage context for a new run, using the current execution plan of the stage runner factory.
+   * Side structures allocated by previous runs are cleared and reused.
+   *
+   * @param data  data, which can be accessed in stage functions, not {@code null}
+   *
+   * @return  this stage context, never {@code null}
+   *
+   * @see #release()
+   */
+  @Contract(value = "_ -> this", mutates = "this")
+  @NotNull StageContextImpl<S> reset(@NotNull Map<String,Object> data)
+  {
     this.data = data;
+    stageData = null;
 
-    if (stageRunnerFactory.functionArray.size == 0)
-    {
-      functionArray = new StageOrderFunctionArray<>();
-      processedStages = emptySet();
-      state = FINISHED;
-    }
-    else
-    {
-      functionArray = new StageOrderFunctionArray<>(stageRunnerFactory.functionArray);
-      processedStages = EnumSet.noneOf(stageRunnerFactory.stageEnumType);
-      state = IDLE;
-    }
+    return reset();
+  }
+
+
+  /**
+   * Prepare this stage context for a new run with slot based data, using the current execution plan of the stage
+   * runner factory.
+   *
+   * @param stageData  data, which can be accessed in stage functions, not {@code null}
+   *
+   * @return  this stage context, never {@code null}
+   *
+   * @see #release()
+   */
+  @Contract(value = "_ -> this", mutates = "this")
+  @NotNull StageContextImpl<S> reset(@NotNull StageData stageData)
+  {
+    data = null;
+    this.stageData = stageData;
+
+    return reset();
+  }
+
+
+  @Contract(value = "-> this", mutates = "this")
+  private @NotNull StageContextImpl<S> reset()
+  {
+    var plan = basePlan = stageRunnerFactory.getPlan();
 
+    functionArray.reset(plan);
+    planVariant = true;
+    state = plan.size == 0 ? FINISHED : IDLE;
     functionIndex = -1;
     aborted = false;
-    enabledStageFunctionNames = new HashSet<>();
+
+    jumpOrdinal = -1;
+    dependentFunctionAdded = false;
+
+    Arrays.fill(processedStages, 0L);
+    enabledNamedFunctions.clear();
+
+    return this;
+  }
+
+
+  /**
+   * Release all references to run specific data, so this stage context can be pooled.
+   *
+   * @see #reset(Map)
+   */
+  void release()
+  {
+    data = null;
+    stageData = null;
+    basePlan = null;
+    functionArray.release();
   }
 
 
   @Override
   @SuppressWarnings("unchecked")
   public <T> T getData(@NotNull String name) {
-    return (T)data.get(name);
+    return stageData != null ? stageData.get(name) : (T)data.get(name);
+  }
+
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getData(@NotNull DataKey<T> key) {
+    return stageData != null ? stageData.get(key) : (T)data.get(key.getName());
+  }
+
+
+  @Override
+  public int getIntData(@NotNull DataKey<Integer> key) {
+    return stageData != null ? stageData.getInt(key) : StageContext.super.getIntData(key);
+  }
+
+
+  @Override
+  public long getLongData(@NotNull DataKey<Long> key) {
+    return stageData != null ? stageData.getLong(key) : StageContext.super.getLongData(key);
+  }
+
+
+  @Override
+  public double getDoubleData(@NotNull DataKey<Double> key) {
+    return stageData != null ? stageData.getDouble(key) : StageContext.super.getDoubleData(key);
   }
 
 
@@ -95,48 +258,116 @@ final class StageContextImpl<S extends Enum<S>> implements StageContext<S>
     if (state.isTerminated())
       throw new StageRunnerException("stage runner has terminated");
 
+    final StageDependencyScheduler<S> dependencyScheduler;
+    final S stage;
+
+    if ((dependencyScheduler = scheduler) != null && (stage = dependencyScheduler.getCurrentStage()) != null)
+      return stage;
+
     return functionArray.functions[functionIndex].stage;
   }
 
 
   @Override
-  public @NotNull Set<S> getProcessedStages()
-  {
-    return processedStages.isEmpty()
-        ? EnumSet.noneOf(stageRunnerFactory.stageEnumType)
-        : EnumSet.copyOf(processedStages);
+  public synchronized @NotNull Set<S> getProcessedStages() {
+    return new StageSet<>(stageRunnerFactory.stages, processedStages.clone());
   }
 
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The remaining stages are derived from the stage bitmask of the function array: all stages having functions,
+   * starting with the stage of the next function to execute.
+   */
   @Override
-  public @NotNull Set<S> getRemainingStages()
+  public synchronized @NotNull Set<S> getRemainingStages()
   {
-    var remainingStages = EnumSet.noneOf(stageRunnerFactory.stageEnumType);
+    final var remainingStages = new long[processedStages.length];
+    final int nextFunctionIndex;
 
-    if (!state.isTerminated())
+    if (!state.isTerminated() && (nextFunctionIndex = nextFunctionIndex()) < functionArray.size)
     {
-      Arrays
-          .stream(functionArray.functions, functionIndex + 1, functionArray.size)
-          .map(stageOrderFunction -> stageOrderFunction.stage)
-          .forEach(remainingStages::add);
+      final int firstOrdinal = functionArray.functions[nextFunctionIndex].stage.ordinal();
+      final var stageMask = functionArray.stageMask;
+
+      for(int word = firstOrdinal >>> 6; word < stageMask.length; word++)
+        remainingStages[word] = stageMask[word];
+
+      remainingStages[firstOrdinal >>> 6] &= -1L << firstOrdinal;
 
       if (state == RUNNING && functionIndex >= 0)
-        remainingStages.remove(functionArray.functions[functionIndex].stage);
+      {
+        final int currentOrdinal = functionArray.functions[functionIndex].stage.ordinal();
+        remainingStages[currentOrdinal >>> 6] &= ~(1L << currentOrdinal);
+      }
     }
 
-    return remainingStages;
+    return new StageSet<>(stageRunnerFactory.stages, remainingStages);
+  }
+
+
+  @Override
+  public synchronized void skipRemainingFunctionsOfStage() {
+    jumpTo(getCurrentStage().ordinal() + 1);
+  }
+
+
+  @Override
+  public synchronized void jumpToStage(@NotNull S stage)
+  {
+    final var currentStage = getCurrentStage();
+
+    if (stage.compareTo(currentStage) <= 0)
+      throw new StageRunnerException("cannot jump from stage " + currentStage + " to stage " + stage);
+
+    jumpTo(stage.ordinal());
+  }
+
+
+  /**
+   * Continue with the first stage function of the stage with the given {@code ordinal}, once the current stage
+   * function, or parallel group, has completed. If multiple jumps are requested, the furthest one wins.
+   *
+   * @param ordinal  stage ordinal, or the number of stages to skip all remaining stage functions
+   */
+  private void jumpTo(int ordinal)
+  {
+    if (scheduler != null)
+      throw new StageRunnerException("stage jumps are not supported for dependent stage functions");
+
+    if (ordinal > jumpOrdinal)
+      jumpOrdinal = ordinal;
+  }
+
+
+  /**
+   * Returns the index of the next stage function to execute, taking a pending stage jump into account.
+   *
+   * @return  index of the next stage function
+   */
+  @Contract(pure = true)
+  private int nextFunctionIndex()
+  {
+    final int nextFunctionIndex = functionIndex + 1;
+
+    return jumpOrdinal < 0
+        ? nextFunctionIndex
+        : Math.max(nextFunctionIndex, functionArray.stageOffsets[jumpOrdinal]);
   }
 
 
   @Override
-  public void addStageFunction(@NotNull S stage, int order, String description, @NotNull StageFunction<S> function)
+  public synchronized void addStageFunction(@NotNull S stage, int order, String description,
+                                            @NotNull StageFunction<S> function)
   {
     if (state.isTerminated())
       throw new StageRunnerConfigurationException("stage runner has terminated");
 
-    final int index = functionArray.add(new StageOrderFunction<>(stage, description, order, function));
+    var stageFunction = new StageOrderFunction<>(stage, description, order, function);
+    planVariant = false;
 
-    if (state == RUNNING && index <= functionIndex)
+    if (!insertStageFunction(stageFunction))
     {
       abort();
       throw new StageRunnerConfigurationException("stage runner has passed beyond stage " + stage + " and order " + order);
@@ -145,35 +376,327 @@ final class StageContextImpl<S extends Enum<S>> implements StageContext<S>
 
 
   @Override
-  public @NotNull Set<String> enableNamedStageFunctions(@NotNull Predicate<String> nameFilter)
+  public synchronized boolean enableNamedStageFunction(@NotNull String name)
+  {
+    if (state.isTerminated())
+      throw new StageRunnerConfigurationException("stage runner has terminated");
+
+    var stageFunction = stageRunnerFactory.namedStageFunctions.get(name);
+    if (stageFunction == null || enabledNamedFunctions.get(stageFunction.nameIndex))
+      return false;
+
+    if (planVariant && basePlan.variants != null && scheduler == null)
+    {
+      final var candidates = clearedCandidates();
+      candidates.set(stageFunction.nameIndex);
+
+      enableNamedStageFunctions(candidates, false);
+    }
+    else
+      insertNamedStageFunction(stageFunction);
+
+    return true;
+  }
+
+
+  @Override
+  public synchronized @NotNull Set<String> enableNamedStageFunctions(@NotNull Predicate<String> nameFilter)
+  {
+    if (state.isTerminated())
+      throw new StageRunnerConfigurationException("stage runner has terminated");
+
+    var candidates = new BitSet();
+
+    for(var stageFunction: stageRunnerFactory.namedStageFunctionList)
+      if (!enabledNamedFunctions.get(stageFunction.nameIndex) && nameFilter.test(stageFunction.name))
+        candidates.set(stageFunction.nameIndex);
+
+    return enableNamedStageFunctions(candidates, true);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Only the stage functions with a name starting with the literal prefix of {@code pattern} are matched against
+   * the pattern. They are located using the sorted name index of the stage runner factory.
+   */
+  @Override
+  public synchronized @NotNull Set<String> enableNamedStageFunctionsMatching(@NotNull String pattern)
+  {
+    if (state.isTerminated())
+      throw new StageRunnerConfigurationException("stage runner has terminated");
+
+    int wildcard = 0;
+    while(wildcard < pattern.length() && "*?".indexOf(pattern.charAt(wildcard)) == -1)
+      wildcard++;
+
+    if (wildcard == pattern.length())
+      return enableNamedStageFunction(pattern) ? Set.of(pattern) : emptySet();
+
+    final var prefix = pattern.substring(0, wildcard);
+    final var suffixMatcher = wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*'
+        ? null : compileGlob(pattern).matcher("");
+    final var candidates = clearedCandidates();
+
+    for(var stageFunction: stageRunnerFactory.namedStageFunctionIndex.tailMap(prefix, true).values())
+    {
+      final var name = stageFunction.name;
+      if (!name.startsWith(prefix))
+        break;
+
+      if (suffixMatcher == null || suffixMatcher.reset(name).matches())
+        candidates.set(stageFunction.nameIndex);
+    }
+
+    return enableNamedStageFunctions(candidates, true);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The tagged stage functions are merged into the function array of this run in a single pass.
+   */
+  @Override
+  public synchronized @NotNull Set<String> enableTaggedStageFunctions(@NotNull String tag)
   {
     if (state.isTerminated())
       throw new StageRunnerConfigurationException("stage runner has terminated");
 
-    var enabledFunctions = new HashSet<String>();
-    String name;
+    var taggedFunctions = stageRunnerFactory.namedStageFunctionTags.get(tag);
+    if (taggedFunctions == null)
+      return emptySet();
+
+    final var candidates = clearedCandidates();
+    candidates.or(taggedFunctions);
+
+    return enableNamedStageFunctions(candidates, true);
+  }
+
 
-    for(var stageFunctionEntry: stageRunnerFactory.namedStageFunctions.entrySet())
-      if (!enabledStageFunctionNames.contains(name = stageFunctionEntry.getKey()) && nameFilter.test(name))
+  /**
+   * Enable the named stage functions with a {@link StageOrderFunction#nameIndex name index} contained in
+   * {@code candidates}. The caller must synchronize on this stage context.
+   *
+   * @param candidates    name indexes of the stage functions to enable, modified by this method, not {@code null}
+   * @param collectNames  {@code true} if the names of the enabled stage functions are returned
+   *
+   * @return  a set with the stage function names, which have been enabled, or {@code null} if
+   *          {@code collectNames} is {@code false}
+   */
+  @Contract("_, true -> !null")
+  private Set<String> enableNamedStageFunctions(@NotNull BitSet candidates, boolean collectNames)
+  {
+    candidates.andNot(enabledNamedFunctions);
+
+    final int count = candidates.cardinality();
+    if (count == 0)
+      return collectNames ? emptySet() : null;
+
+    final var namedStageFunctionList = stageRunnerFactory.namedStageFunctionList;
+    final var stageFunctions = namedFunctionBuffer(count);
+    final var enabledFunctions = collectNames ? new HashSet<String>() : null;
+
+    for(int nameIndex = candidates.nextSetBit(0), n = 0; nameIndex >= 0;
+        nameIndex = candidates.nextSetBit(nameIndex + 1))
+    {
+      final var stageFunction = namedStageFunctionList.get(nameIndex);
+
+      stageFunctions[n++] = stageFunction;
+      if (enabledFunctions != null)
+        enabledFunctions.add(stageFunction.name);
+    }
+
+    try {
+      if (scheduler != null)
+      {
+        for(int n = 0; n < count; n++)
+          insertNamedStageFunction(stageFunctions[n]);
+      }
+      else
       {
-        var stageFunction = stageFunctionEntry.getValue();
-        var index = functionArray.add(stageFunction);
+        // stable sort: functions with the same stage and order keep their registration order
+        Arrays.sort(stageFunctions, 0, count, (f1, f2) -> {
+          int cmp = f1.stage.compareTo(f2.stage);
+          return cmp == 0 ? Integer.compare(f1.order, f2.order) : cmp;
+        });
+
+        // the first function has the lowest insertion index
+        if (state == RUNNING && functionArray.insertionIndex(stageFunctions[0]) <= functionIndex)
+          failNamedStageFunction(stageFunctions[0]);
 
-        if (state == RUNNING && index <= functionIndex)
+        if (!switchToPlanVariant(candidates, stageFunctions, count))
         {
-          abort();
-          throw new StageRunnerConfigurationException("stage runner has passed beyond stage " + stageFunction.stage +
-              " and order " + stageFunction.order + " for stage function '" + name + '\'');
+          functionArray.addAll(stageFunctions, count);
+          planVariant = false;
         }
 
-        enabledFunctions.add(name);
-        enabledStageFunctionNames.add(name);
+        enabledNamedFunctions.or(candidates);
+
+        for(int n = 0; n < count; n++)
+          if (stageFunctions[n].dependencies != null)
+            dependentFunctionAdded = true;
       }
+    } finally {
+      Arrays.fill(stageFunctions, 0, count, null);
+    }
 
     return enabledFunctions;
   }
 
 
+  /**
+   * Returns the cleared, reusable candidates bitset. The caller must synchronize on this stage context.
+   *
+   * @return  empty candidates bitset, never {@code null}
+   */
+  private @NotNull BitSet clearedCandidates()
+  {
+    var bitSet = candidates;
+
+    if (bitSet == null)
+      candidates = bitSet = new BitSet();
+    else
+      bitSet.clear();
+
+    return bitSet;
+  }
+
+
+  /**
+   * Returns the reusable buffer for stage functions to enable, with room for at least {@code count} stage
+   * functions. The caller must synchronize on this stage context and clear the buffer after use.
+   *
+   * @param count  number of stage functions
+   *
+   * @return  stage function buffer, never {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  private @NotNull StageOrderFunction<S>[] namedFunctionBuffer(int count)
+  {
+    var buffer = namedFunctionBuffer;
+
+    if (buffer == null || buffer.length < count)
+      namedFunctionBuffer = buffer = (StageOrderFunction<S>[])new StageOrderFunction<?>[Math.max(count, 4)];
+
+    return buffer;
+  }
+
+
+  /**
+   * Switch the function array to the plan variant with the enabled named stage functions and the named stage
+   * functions in {@code candidates}. If the plan variant has not been cached yet, it is compiled and added to the
+   * plan variant cache. The caller must synchronize on this stage context.
+   *
+   * @param candidates      name indexes of the stage functions to enable, not {@code null}
+   * @param stageFunctions  stage functions to enable, sorted by stage, order and name index, not {@code null}
+   * @param count           number of stage functions to enable
+   *
+   * @return  {@code true} if the function array has switched to the plan variant, {@code false} otherwise
+   */
+  private boolean switchToPlanVariant(@NotNull BitSet candidates, @NotNull StageOrderFunction<S>[] stageFunctions,
+                                      int count)
+  {
+    final StageFunctionPlanCache<S> variants;
+
+    if (!planVariant || (variants = basePlan.variants) == null)
+      return false;
+
+    var key = variantKey;
+    if (key == null)
+      variantKey = key = new BitSet();
+    else
+      key.clear();
+
+    key.or(enabledNamedFunctions);
+    key.or(candidates);
+
+    var variant = variants.get(key);
+    if (variant == null)
+      variants.put(key, variant = new StageFunctionPlan<>(functionArray, stageFunctions, count));
+
+    return functionArray.switchTo(variant, functionIndex);
+  }
+
+
+  /**
+   * Insert a single named stage function. The caller must synchronize on this stage context.
+   */
+  private void insertNamedStageFunction(@NotNull StageOrderFunction<S> stageFunction)
+  {
+    if (!insertStageFunction(stageFunction))
+      failNamedStageFunction(stageFunction);
+
+    planVariant = false;
+
+    enabledNamedFunctions.set(stageFunction.nameIndex);
+  }
+
+
+  @Contract("_ -> fail")
+  private void failNamedStageFunction(@NotNull StageOrderFunction<S> stageFunction)
+  {
+    abort();
+    throw new StageRunnerConfigurationException("stage runner has passed beyond stage " + stageFunction.stage +
+        " and order " + stageFunction.order + " for stage function '" + stageFunction.name + '\'');
+  }
+
+
+  /**
+   * Compile a glob pattern, containing wildcards {@code *} and {@code ?}, into a regular expression pattern.
+   */
+  @Contract(pure = true)
+  private static @NotNull Pattern compileGlob(@NotNull String glob)
+  {
+    final var regex = new StringBuilder();
+    int literalStart = 0;
+
+    for(int n = 0, length = glob.length(); n < length; n++)
+    {
+      final char c = glob.charAt(n);
+
+      if (c == '*' || c == '?')
+      {
+        if (literalStart < n)
+          regex.append(Pattern.quote(glob.substring(literalStart, n)));
+
+        regex.append(c == '*' ? ".*" : ".");
+        literalStart = n + 1;
+      }
+    }
+
+    if (literalStart < glob.length())
+      regex.append(Pattern.quote(glob.substring(literalStart)));
+
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+
+  /**
+   * Insert the given stage function into the function array of this run. The caller must synchronize on this
+   * stage context.
+   *
+   * @return  {@code true} if the function has been inserted, {@code false} if the run has passed beyond the
+   *          position of the function
+   */
+  private boolean insertStageFunction(@NotNull StageOrderFunction<S> stageFunction)
+  {
+    if (scheduler != null)
+      return scheduler.insert(stageFunction);
+
+    if (state == RUNNING && functionArray.insertionIndex(stageFunction) <= functionIndex)
+      return false;
+
+    functionArray.add(stageFunction);
+
+    if (stageFunction.dependencies != null)
+      dependentFunctionAdded = true;
+
+    return true;
+  }
+
+
   @Override
   public void abort() {
     aborted = true;
@@ -182,72 +705,847 @@ final class StageContextImpl<S extends Enum<S>> implements StageContext<S>
 
   boolean run(@NotNull StageRunnerCallback<S> callback)
   {
-    if (state.isTerminated())
+    if (!begin(callback))
       return !aborted;
 
+    if (stageRunnerFactory.hasDependentFunctions())
+      return runScheduled(callback);
+
+    try {
+      final var compiledPlan = basePlan.compiledPlan;
+      if (compiledPlan != null && (metrics == null || metrics.profiler == null))
+        compiledPlan.run(this, callback);
+
+      for(StageOrderFunction<S> stageFunctionEntry; (stageFunctionEntry = enterNextFunction(callback)) != null;)
+      {
+        Throwable exception = null;
+
+        try {
+          process(stageFunctionEntry);
+        } catch(Throwable ex) {
+          exception = ex;
+        }
+
+        completeFunction(callback, exception);
+      }
+    } finally {
+      finishRun(callback);
+    }
+
+    return !aborted;
+  }
+
+
+  /**
+   * Start a stage run which is advanced by invoking {@link #step(StageRunnerCallback)}.
+   *
+   * @param callback  stage runner callback instance, which must be passed to each step as well, not {@code null}
+   *
+   * @return  {@code true} if the run has started, {@code false} if there is nothing to run
+   *
+   * @since 0.3.4
+   */
+  boolean begin(@NotNull StageRunnerCallback<S> callback)
+  {
+    if (state.isTerminated())
+      return false;
+
     if (state != IDLE)
       throw new StageRunnerException("stage runner must be in idle state");
 
-    S lastStage = null;
-
     state = RUNNING;
+    lastStage = null;
+    jumpOrdinal = -1;
+    callbackHooks = CallbackHooks.of(callback);
 
-    try {
-      while(!aborted && ++functionIndex < functionArray.size)
-      {
-        var stageFunctionEntry = functionArray.functions[functionIndex];
-        var currentStage = stageFunctionEntry.stage;
+    if ((metrics = stageRunnerFactory.getMetricsRecorder()) != null)
+      lastNanos = System.nanoTime();
 
-        if (currentStage != lastStage)
-        {
-          if (lastStage != null)
-          {
-            processedStages.add(lastStage);
-            callback.postStageCallback(this, lastStage);
-          }
+    failedFunctions = 0;
 
-          lastStage = null;
-          callback.preStageCallback(this);
-          lastStage = currentStage;
-        }
+    if (isRunEnabled())
+      (runEvent = new RunEvent(stageRunnerFactory.stageEnumType)).begin();
+
+    return true;
+  }
+
+
+  /**
+   * Execute the next stage function, or parallel group of stage functions, of a run started with
+   * {@link #begin(StageRunnerCallback)}. If there are no more stage functions to execute, the run is finished.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  {@code true} if a stage function has been executed, {@code false} if the run has finished
+   *
+   * @since 0.3.4
+   */
+  boolean step(@NotNull StageRunnerCallback<S> callback)
+  {
+    var executed = false;
+
+    // other stage runs may have been stepped since the last step of this run
+    if (metrics != null)
+      lastNanos = System.nanoTime();
+
+    try {
+      final var stageFunctionEntry = enterNextFunction(callback);
+
+      if (stageFunctionEntry != null)
+      {
+        Throwable exception = null;
 
-        functionArray.executionState[functionIndex] = EXECUTING;
-        callback.preStageFunctionCallback(this, stageFunctionEntry.description);
         try {
-          stageFunctionEntry.function.process(this);
+          process(stageFunctionEntry);
         } catch(Throwable ex) {
-          functionArray.executionState[functionIndex] = FAILED;
-          callback.stageExceptionHandler(this, ex);
-        } finally {
-          if (functionArray.executionState[functionIndex] == EXECUTING)
-            functionArray.executionState[functionIndex] = PROCESSED;
-
-          callback.postStageFunctionCallback(this);
+          exception = ex;
         }
-      }
-    } finally {
-      state = aborted ? State.ABORTED : FINISHED;
 
-      if (!aborted && lastStage != null)
-      {
-        processedStages.add(lastStage);
-        callback.postStageCallback(this, lastStage);
+        completeFunction(callback, exception);
+        executed = true;
       }
+    } finally {
+      if (!executed)
+        finishRun(callback);
     }
 
-    return !aborted;
+    return executed;
   }
 
 
-  @Override
-  public @NotNull List<Function> getFunctions()
+  /**
+   * Returns the stage of the next stage function to be executed by {@link #step(StageRunnerCallback)}.
+   *
+   * @return  stage of the next stage function or {@code null} if the run has been aborted or there are no more
+   *          stage functions
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  S peekNextStage()
+  {
+    final int nextFunctionIndex = nextFunctionIndex();
+
+    return aborted || nextFunctionIndex >= functionArray.size ? null : functionArray.functions[nextFunctionIndex].stage;
+  }
+
+
+  /**
+   * Advance the function index to the next stage function to execute and invoke the callbacks preceding its
+   * execution. Stage transitions are handled and parallel groups are executed on the way.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  stage function to execute or {@code null} if the run has been aborted or there are no more stage
+   *          functions
+   */
+  private StageOrderFunction<S> enterNextFunction(@NotNull StageRunnerCallback<S> callback)
   {
-    var functions = new Function[functionArray.size];
+    while(!aborted && (functionIndex = nextFunctionIndex()) < functionArray.size)
+    {
+      jumpOrdinal = -1;
+
+      if (dependentFunctionAdded)
+      {
+        continueScheduled(callback);
+        return null;
+      }
 
-    for(int n = 0; n < functionArray.size; n++)
-      functions[n] = new FunctionAdapter(functionArray.executionState[n], functionArray.functions[n]);
+      var stageFunctionEntry = functionArray.functions[functionIndex];
+      var currentStage = stageFunctionEntry.stage;
 
-    return Arrays.asList(functions);
+      if (currentStage != lastStage)
+        enterStage(callback, currentStage);
+
+      final int parallelGroupEnd;
+
+      if (stageRunnerFactory.isParallel(stageFunctionEntry) &&
+          (parallelGroupEnd = findParallelGroupEnd(currentStage)) - functionIndex > 1)
+      {
+        new ParallelGroup(callback, parallelGroupEnd).run();
+
+        if (metrics != null)
+          lastNanos = System.nanoTime();
+
+        continue;
+      }
+
+      enterFunction(callback, stageFunctionEntry);
+
+      return stageFunctionEntry;
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Advance the function index to the stage function at {@code index} of the compiled base plan and invoke the
+   * callbacks preceding its execution.
+   *
+   * @param callback    stage runner callback instance, not {@code null}
+   * @param index       index of the stage function in the base plan
+   * @param stageStart  {@code true} if the stage function is the first function of its stage
+   *
+   * @return  {@code true} if the stage function must be executed, {@code false} if the run has deviated from the
+   *          base plan and must be continued by {@link #enterNextFunction(StageRunnerCallback)}
+   *
+   * @see CompiledStagePlan
+   */
+  boolean enterCompiled(@NotNull StageRunnerCallback<S> callback, int index, boolean stageStart)
+  {
+    if (aborted || jumpOrdinal >= 0 || functionArray.functions != basePlan.functions)
+      return false;
+
+    final var stageFunctionEntry = basePlan.functions[index];
+    if (stageRunnerFactory.isParallel(stageFunctionEntry))
+      return false;
+
+    functionIndex = index;
+
+    if (stageStart)
+      enterStage(callback, stageFunctionEntry.stage);
+
+    enterFunction(callback, stageFunctionEntry);
+
+    return true;
+  }
+
+
+  /**
+   * Complete the last stage, if any, and start stage {@code stage}.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   * @param stage     stage of the stage function at the current function index, not {@code null}
+   */
+  private void enterStage(@NotNull StageRunnerCallback<S> callback, @NotNull S stage)
+  {
+    leaveStage(callback);
+
+    if ((callbackHooks & PRE_STAGE) != 0)
+      callback.preStageCallback(this);
+
+    lastStage = stage;
+
+    if (metrics != null)
+      stageStartNanos = callbackHooks == 0 ? lastNanos : System.nanoTime();
+
+    if (isStageEnabled())
+      (stageEvent = new StageEvent(stage)).begin();
+  }
+
+
+  /**
+   * Complete the last stage, if any.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   */
+  private void leaveStage(@NotNull StageRunnerCallback<S> callback)
+  {
+    if (lastStage != null)
+    {
+      addProcessedStage(lastStage);
+
+      if (metrics != null)
+        metrics.recordStage(lastStage, lastNanos - stageStartNanos);
+
+      if (stageEvent != null)
+      {
+        stageEvent.commit(false);
+        stageEvent = null;
+      }
+
+      if ((callbackHooks & POST_STAGE) != 0)
+        callback.postStageCallback(this, lastStage);
+    }
+
+    lastStage = null;
+  }
+
+
+  /**
+   * Mark the stage function at the current function index as executing and invoke the callbacks preceding its
+   * execution.
+   *
+   * @param callback            stage runner callback instance, not {@code null}
+   * @param stageFunctionEntry  stage function at the current function index, not {@code null}
+   */
+  private void enterFunction(@NotNull StageRunnerCallback<S> callback,
+                             @NotNull StageOrderFunction<S> stageFunctionEntry)
+  {
+    functionArray.setState(functionIndex, STATE_EXECUTING);
+
+    if ((callbackHooks & PRE_STAGE_FUNCTION) != 0)
+      callback.preStageFunctionCallback(this, stageFunctionEntry.description);
+
+    if (metrics != null)
+      functionStartNanos = callbackHooks == 0 ? lastNanos : System.nanoTime();
+
+    if (isStageFunctionEnabled())
+      (functionEvent = new StageFunctionEvent(stageFunctionEntry)).begin();
+  }
+
+
+  /**
+   * Run all stage functions asynchronously. Stage functions implementing {@link AsyncStageFunction} are started
+   * and the run continues on the thread completing the returned completion stage. Parallel stage functions are
+   * executed as a group, blocking the thread advancing the run until the group has finished.
+   * <p>
+   * If the stage runner factory has a run executor, as for {@link ExecutionMode#VIRTUAL_THREADS}, the run is
+   * executed synchronously on that executor. If the stage runner factory contains dependent stage functions, the
+   * run is executed by the dependency scheduler on the factory's executor.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @return  future which completes with the result of the run, never {@code null}
+   *
+   * @since 0.3.4
+   */
+  @NotNull CompletableFuture<Boolean> runAsync(@NotNull StageRunnerCallback<S> callback)
+  {
+    if (state.isTerminated())
+      return completedFuture(!aborted);
+
+    if (state != IDLE)
+      return failedFuture(new StageRunnerException("stage runner must be in idle state"));
+
+    final var runExecutor = stageRunnerFactory.getRunExecutor();
+    if (runExecutor != null)
+      return supplyAsync(() -> run(callback), runExecutor);
+
+    if (stageRunnerFactory.hasDependentFunctions())
+      return supplyAsync(() -> run(callback), stageRunnerFactory.getExecutor());
+
+    begin(callback);
+
+    return new AsyncRun(callback).start();
+  }
+
+
+  /**
+   * Execute the given stage function. If profiling is enabled, the CPU time and allocations of the current thread
+   * are attributed to the stage function.
+   *
+   * @param stageFunction  stage function, not {@code null}
+   */
+  void process(@NotNull StageOrderFunction<S> stageFunction)
+  {
+    final var recorder = metrics;
+    final ThreadProfiler profiler;
+
+    if (recorder == null || (profiler = recorder.profiler) == null)
+      stageFunction.function.process(this);
+    else
+    {
+      final long cpuTime = profiler.getCpuTime();
+      final long allocatedBytes = profiler.getAllocatedBytes();
+
+      try {
+        stageFunction.function.process(this);
+      } finally {
+        recorder.recordProfile(stageFunction, cpuTime, profiler.getCpuTime(), allocatedBytes,
+            profiler.getAllocatedBytes());
+      }
+    }
+  }
+
+
+  /**
+   * Start the given asynchronous stage function. If profiling is enabled, the CPU time and allocations of the
+   * current thread are attributed to the stage function until the asynchronous operation has been started.
+   *
+   * @param stageFunction  asynchronous stage function, not {@code null}
+   *
+   * @return  future completing with the asynchronous operation, never {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  private @NotNull CompletableFuture<Void> processAsync(@NotNull StageOrderFunction<S> stageFunction)
+  {
+    final var function = (AsyncStageFunction<S>)stageFunction.function;
+    final var recorder = metrics;
+    final ThreadProfiler profiler;
+
+    if (recorder == null || (profiler = recorder.profiler) == null)
+      return function.processAsync(this).toCompletableFuture();
+
+    final long cpuTime = profiler.getCpuTime();
+    final long allocatedBytes = profiler.getAllocatedBytes();
+
+    try {
+      return function.processAsync(this).toCompletableFuture();
+    } finally {
+      recorder.recordProfile(stageFunction, cpuTime, profiler.getCpuTime(), allocatedBytes,
+          profiler.getAllocatedBytes());
+    }
+  }
+
+
+  /**
+   * Complete the stage function at the current function index by updating its state and invoking the appropriate
+   * callbacks.
+   *
+   * @param callback   stage runner callback instance, not {@code null}
+   * @param exception  exception thrown by the stage function or {@code null} if it completed normally
+   */
+  void completeFunction(@NotNull StageRunnerCallback<S> callback, Throwable exception)
+  {
+    final var recorder = metrics;
+    if (recorder != null)
+    {
+      recorder.recordFunction(functionArray.functions[functionIndex], (lastNanos = System.nanoTime()) -
+          functionStartNanos, exception != null, aborted);
+    }
+
+    if (functionEvent != null)
+    {
+      functionEvent.commit(exception != null, aborted);
+      functionEvent = null;
+    }
+
+    try {
+      if (exception != null)
+      {
+        failedFunctions++;
+        functionArray.setState(functionIndex, STATE_FAILED);
+        callback.stageExceptionHandler(this, exception);
+
+        if (recorder != null)
+          lastNanos = System.nanoTime();
+      }
+    } finally {
+      if (functionArray.getState(functionIndex) == STATE_EXECUTING)
+        functionArray.setState(functionIndex, STATE_PROCESSED);
+
+      if ((callbackHooks & POST_STAGE_FUNCTION) != 0)
+        callback.postStageFunctionCallback(this);
+    }
+  }
+
+
+  private void finishRun(@NotNull StageRunnerCallback<S> callback)
+  {
+    state = aborted ? State.ABORTED : FINISHED;
+
+    if (stageEvent != null)
+    {
+      stageEvent.commit(aborted);
+      stageEvent = null;
+    }
+
+    try {
+      if (!aborted && lastStage != null)
+      {
+        addProcessedStage(lastStage);
+
+        if (metrics != null)
+          metrics.recordStage(lastStage, lastNanos - stageStartNanos);
+
+        if ((callbackHooks & POST_STAGE) != 0)
+          callback.postStageCallback(this, lastStage);
+      }
+    } finally {
+      commitRunEvent();
+    }
+  }
+
+
+  private void commitRunEvent()
+  {
+    if (runEvent != null)
+    {
+      runEvent.commit(aborted, failedFunctions);
+      runEvent = null;
+    }
+  }
+
+
+  /**
+   * Run all stage functions according to their dependencies.
+   *
+   * @see StageDependencyScheduler
+   */
+  private boolean runScheduled(@NotNull StageRunnerCallback<S> callback)
+  {
+    try {
+      synchronized(this) {
+        scheduler = new StageDependencyScheduler<>(this, stageRunnerFactory, callback, 0);
+      }
+
+      scheduler.run();
+    } finally {
+      synchronized(this) {
+        state = aborted ? State.ABORTED : FINISHED;
+        scheduler = null;
+
+        commitRunEvent();
+      }
+    }
+
+    return !aborted;
+  }
+
+
+  /**
+   * Continue the run with the stage function at the current function index, scheduling the remaining stage
+   * functions according to their dependencies. This happens if a dependent stage function, e.g. a named one, has
+   * been added to a run which is not scheduled by dependencies.
+   * <p>
+   * If the last stage has no more stage functions to execute, it is completed before the scheduler takes over.
+   * Otherwise, the scheduler completes the stage once its remaining stage functions have finished.
+   *
+   * @param callback  stage runner callback instance, not {@code null}
+   *
+   * @see StageDependencyScheduler
+   */
+  private void continueScheduled(@NotNull StageRunnerCallback<S> callback)
+  {
+    if (lastStage != functionArray.functions[functionIndex].stage)
+      leaveStage(callback);
+    else
+    {
+      if (stageEvent != null)
+      {
+        stageEvent.commit(false);
+        stageEvent = null;
+      }
+
+      lastStage = null;
+    }
+
+    final var dependencyScheduler = new StageDependencyScheduler<>(this, stageRunnerFactory, callback, functionIndex);
+
+    synchronized(this) {
+      scheduler = dependencyScheduler;
+    }
+
+    try {
+      dependencyScheduler.run();
+    } finally {
+      synchronized(this) {
+        scheduler = null;
+      }
+    }
+  }
+
+
+  /**
+   * Returns the end index (exclusive) of the consecutive parallel stage functions, starting with the current
+   * function index, for the given {@code stage}.
+   */
+  @Contract(pure = true)
+  private int findParallelGroupEnd(@NotNull S stage)
+  {
+    final StageOrderFunction<S>[] functions = functionArray.functions;
+    final int size = functionArray.size;
+    int end = functionIndex + 1;
+
+    while(end < size && functions[end].stage == stage && stageRunnerFactory.isParallel(functions[end]))
+      end++;
+
+    return end;
+  }
+
+
+  synchronized void addProcessedStage(@NotNull S stage)
+  {
+    final int ordinal = stage.ordinal();
+    processedStages[ordinal >>> 6] |= 1L << ordinal;
+  }
+
+
+  @Override
+  public synchronized @NotNull List<Function> getFunctions()
+  {
+    final int size = functionArray.size;
+    if (size == 0)
+      return emptyList();
+
+    final StageOrderFunction<S>[] functions = copyOf(functionArray.functions, size);
+    final long[] executionState = copyOf(functionArray.executionState, functionArray.executionState.length);
+
+    return new AbstractList<>() {
+      @Override
+      public Function get(int index)
+      {
+        Objects.checkIndex(index, size);
+        return new FunctionAdapter(getFunctionState(executionState, index), functions[index]);
+      }
+
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+
+
+
+  /**
+   * Continuation based execution of a stage run.
+   * <p>
+   * The run advances on the calling thread until an asynchronous stage function returns a completion stage which
+   * has not completed yet. The run is then resumed by the thread completing that completion stage, so no thread
+   * is blocked while waiting.
+   */
+  private final class AsyncRun implements BiConsumer<Void,Throwable>
+  {
+    private final StageRunnerCallback<S> callback;
+    private final CompletableFuture<Boolean> result;
+
+
+    private AsyncRun(@NotNull StageRunnerCallback<S> callback)
+    {
+      this.callback = callback;
+
+      result = new CompletableFuture<>();
+    }
+
+
+    private @NotNull CompletableFuture<Boolean> start()
+    {
+      advance();
+      return result;
+    }
+
+
+    @Override
+    public void accept(Void unused, Throwable exception)
+    {
+      try {
+        completeFunction(callback, unwrap(exception));
+      } catch(Throwable ex) {
+        terminate(ex);
+        return;
+      }
+
+      advance();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void advance()
+    {
+      try {
+        for(StageOrderFunction<S> stageFunctionEntry; (stageFunctionEntry = enterNextFunction(callback)) != null;)
+        {
+          Throwable exception = null;
+
+          try {
+            final var function = stageFunctionEntry.function;
+
+            if (function instanceof AsyncStageFunction)
+            {
+              final var future = processAsync(stageFunctionEntry);
+
+              if (!future.isDone())
+              {
+                future.whenComplete(this);
+                return;
+              }
+
+              future.join();
+            }
+            else
+              process(stageFunctionEntry);
+          } catch(Throwable ex) {
+            exception = unwrap(ex);
+          }
+
+          completeFunction(callback, exception);
+        }
+      } catch(Throwable ex) {
+        terminate(ex);
+        return;
+      }
+
+      terminate(null);
+    }
+
+
+    private void terminate(Throwable exception)
+    {
+      try {
+        finishRun(callback);
+      } catch(Throwable ex) {
+        exception = ex;
+      }
+
+      if (exception == null)
+        result.complete(!aborted);
+      else
+        result.completeExceptionally(exception);
+    }
+
+
+    @Contract(pure = true)
+    private Throwable unwrap(Throwable exception)
+    {
+      return exception instanceof CompletionException && exception.getCause() != null
+          ? exception.getCause()
+          : exception;
+    }
+  }
+
+
+
+
+  /**
+   * A group of consecutive stage functions of the same stage, which are executed concurrently.
+   * <p>
+   * All but the first function are submitted to the factory's executor; the calling thread executes the first
+   * function and then helps executing functions which have not been picked up by the executor yet. Callbacks and
+   * function state updates are serialized by synchronizing on the stage context. The stage context's function
+   * index is positioned at the last function of the group, so stage functions added while the group is running
+   * are either placed after the group or rejected.
+   */
+  private final class ParallelGroup
+  {
+    private final StageRunnerCallback<S> callback;
+    private final int start;
+    private final StageOrderFunction<S>[] functions;
+    private final FutureTask<?>[] tasks;
+
+
+    private ParallelGroup(@NotNull StageRunnerCallback<S> callback, int end)
+    {
+      this.callback = callback;
+
+      start = functionIndex;
+      functions = copyOfRange(functionArray.functions, start, end);
+      tasks = new FutureTask<?>[functions.length - 1];
+    }
+
+
+    private void run()
+    {
+      synchronized(StageContextImpl.this) {
+        functionIndex = start + functions.length - 1;
+      }
+
+      final var executor = stageRunnerFactory.getExecutor();
+
+      for(int n = 0; n < tasks.length; n++)
+      {
+        final int groupIndex = n + 1;
+        tasks[n] = new FutureTask<>(() -> runFunction(groupIndex), null);
+      }
+
+      for(var task: tasks)
+        try {
+          executor.execute(task);
+        } catch(RejectedExecutionException ignored) {
+          // the task is executed by the calling thread
+        }
+
+      Throwable failure = null;
+
+      try {
+        runFunction(0);
+      } catch(Throwable ex) {
+        failure = ex;
+      }
+
+      // help executing tasks which have not been started by the executor yet
+      for(var task: tasks)
+        task.run();
+
+      for(var task: tasks)
+        try {
+          task.get();
+        } catch(CancellationException ignored) {
+        } catch(ExecutionException ex) {
+          if (failure == null)
+            failure = ex.getCause();
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          abort();
+          cancelSiblings(0);
+
+          if (failure == null)
+            failure = ex;
+        }
+
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException)failure;
+      if (failure instanceof Error)
+        throw (Error)failure;
+      if (failure != null)
+        throw new StageRunnerException(String.valueOf(failure.getMessage()), failure);
+    }
+
+
+    private void runFunction(int groupIndex)
+    {
+      if (aborted)
+        return;
+
+      final int index = start + groupIndex;
+      final StageOrderFunction<S> stageFunctionEntry = functions[groupIndex];
+
+      try {
+        synchronized(StageContextImpl.this) {
+          functionArray.setState(index, STATE_EXECUTING);
+
+          if ((callbackHooks & PRE_STAGE_FUNCTION) != 0)
+            callback.preStageFunctionCallback(StageContextImpl.this, stageFunctionEntry.description);
+        }
+
+        final var recorder = metrics;
+        final long startNanos = recorder == null ? 0 : System.nanoTime();
+        final var event = isStageFunctionEnabled() ? new StageFunctionEvent(stageFunctionEntry) : null;
+        Throwable exception = null;
+
+        if (event != null)
+          event.begin();
+
+        try {
+          process(stageFunctionEntry);
+        } catch(Throwable ex) {
+          exception = ex;
+        }
+
+        if (recorder != null)
+          recorder.recordFunction(stageFunctionEntry, System.nanoTime() - startNanos, exception != null, aborted);
+        if (event != null)
+          event.commit(exception != null, aborted);
+
+        synchronized(StageContextImpl.this) {
+          try {
+            if (exception != null)
+            {
+              failedFunctions++;
+              functionArray.setState(index, STATE_FAILED);
+              callback.stageExceptionHandler(StageContextImpl.this, exception);
+            }
+          } finally {
+            if (functionArray.getState(index) == STATE_EXECUTING)
+              functionArray.setState(index, STATE_PROCESSED);
+
+            if ((callbackHooks & POST_STAGE_FUNCTION) != 0)
+              callback.postStageFunctionCallback(StageContextImpl.this);
+          }
+        }
+      } catch(Throwable ex) {
+        abort();
+        throw ex;
+      } finally {
+        if (aborted)
+          cancelSiblings(groupIndex);
+      }
+    }
+
+
+    private void cancelSiblings(int groupIndex)
+    {
+      for(int n = 0; n < tasks.length; n++)
+      {
+        var task = tasks[n];
+        if (task != null && n + 1 != groupIndex)
+          task.cancel(true);
+      }
+    }
   }
 
 
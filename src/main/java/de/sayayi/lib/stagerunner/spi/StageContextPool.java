@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Bounded, lock-free pool of stage context instances.
+ * <p>
+ * Both {@link #acquire()} and {@link #release(StageContextImpl)} start probing at a slot derived from the current
+ * thread, so threads mostly hit distinct slots. If no pooled instance is available, {@code acquire} returns
+ * {@code null}; if the pool is full, a released instance is simply dropped.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageContextPool<S extends Enum<S>>
+{
+  private final AtomicReferenceArray<StageContextImpl<S>> slots;
+
+
+  StageContextPool(int poolSize) {
+    slots = new AtomicReferenceArray<>(poolSize);
+  }
+
+
+  StageContextImpl<S> acquire()
+  {
+    final int poolSize = slots.length();
+    StageContextImpl<S> stageContext;
+
+    for(int n = 0, slot = startSlot(poolSize); n < poolSize; n++, slot = slot + 1 == poolSize ? 0 : slot + 1)
+      if (slots.get(slot) != null && (stageContext = slots.getAndSet(slot, null)) != null)
+        return stageContext;
+
+    return null;
+  }
+
+
+  void release(@NotNull StageContextImpl<S> stageContext)
+  {
+    final int poolSize = slots.length();
+
+    for(int n = 0, slot = startSlot(poolSize); n < poolSize; n++, slot = slot + 1 == poolSize ? 0 : slot + 1)
+      if (slots.get(slot) == null && slots.compareAndSet(slot, null, stageContext))
+        return;
+  }
+
+
+  private static int startSlot(int poolSize) {
+    return (int)(Thread.currentThread().getId() % poolSize);
+  }
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import de.sayayi.lib.stagerunner.spi.StageRunnerEvents.StageFunctionEvent;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static de.sayayi.lib.stagerunner.spi.StageOrderFunctionArray.*;
+import static de.sayayi.lib.stagerunner.spi.StageRunnerEvents.isStageFunctionEnabled;
+
+
+/**
+ * Executes the stage functions of a single stage run according to their dependency graph.
+ * <p>
+ * Each stage function is represented by a node. A node for a
+ * {@link de.sayayi.lib.stagerunner.DependentStageFunction dependent stage function} depends on the nodes which are
+ * named or provide the data keys it depends on. Any other node depends on all nodes preceding it in stage order,
+ * which is expressed by an edge from the previous non-dependent node and from each dependent node in between.
+ * <p>
+ * Nodes without pending prerequisites are queued as ready. For each ready node a worker is submitted to the
+ * executor; the calling thread executes ready nodes as well, so the run progresses even if the executor is
+ * saturated. Callbacks and function state updates are serialized by synchronizing on the stage context, which is
+ * also the monitor used for waiting and for the graph bookkeeping.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageDependencyScheduler<S extends Enum<S>>
+{
+  private static final int NODE_WAITING = 0;
+  private static final int NODE_READY = 1;
+  private static final int NODE_RUNNING = 2;
+  private static final int NODE_DONE = 3;
+
+  private final StageContextImpl<S> stageContext;
+  private final StageRunnerCallback<S> callback;
+  private final Executor executor;
+  private final StageOrderFunctionArray<S> functionArray;
+
+  /** Index of the first stage function in the function array to execute. */
+  private final int startIndex;
+
+  /** Nodes, in the same order as the stage context's function array. */
+  private final List<Node> nodes;
+  private final Map<String,List<Node>> providers;
+  private final ArrayDeque<Node> readyNodes;
+  private final int[] stagePending;
+  private final boolean[] stageStarted;
+  private final ThreadLocal<Node> currentNode;
+  private final Runnable worker;
+
+  private int remaining;
+  private int running;
+  private int submissions;
+  private Throwable failure;
+
+
+  /**
+   * Create a scheduler for the stage functions of {@code stageContext}, starting with the stage function at
+   * {@code startIndex}. Stage functions preceding it are considered to be finished; the stages of those stage
+   * functions are considered to be started, so a stage continued by the scheduler is completed without being
+   * started again.
+   *
+   * @param stageContext        stage context of the run, not {@code null}
+   * @param stageRunnerFactory  stage runner factory, not {@code null}
+   * @param callback            stage runner callback instance, not {@code null}
+   * @param startIndex          index of the first stage function to execute
+   */
+  StageDependencyScheduler(@NotNull StageContextImpl<S> stageContext,
+                           @NotNull AbstractStageRunnerFactory<S> stageRunnerFactory,
+                           @NotNull StageRunnerCallback<S> callback, int startIndex)
+  {
+    final int stageCount = stageRunnerFactory.stageEnumType.getEnumConstants().length;
+
+    this.stageContext = stageContext;
+    this.callback = callback;
+    this.startIndex = startIndex;
+
+    executor = stageRunnerFactory.getExecutor();
+    functionArray = stageContext.functionArray;
+    nodes = new ArrayList<>(functionArray.size);
+    providers = new HashMap<>();
+    readyNodes = new ArrayDeque<>();
+    stagePending = new int[stageCount];
+    stageStarted = new boolean[stageCount];
+    currentNode = new ThreadLocal<>();
+
+    worker = () -> {
+      final var node = takeReadyNode();
+      if (node != null)
+        execute(node);
+    };
+  }
+
+
+  /**
+   * Execute all stage functions and wait for their completion. If the run is aborted, running stage functions
+   * are interrupted and the method returns as soon as they have finished.
+   */
+  void run()
+  {
+    synchronized(stageContext) {
+      buildGraph();
+    }
+
+    submitWorkers();
+
+    try {
+      for(Node node; (node = nextNode()) != null;)
+        execute(node);
+    } finally {
+      awaitRunningNodes();
+    }
+
+    final var ex = failure;
+
+    if (ex instanceof RuntimeException)
+      throw (RuntimeException)ex;
+    if (ex instanceof Error)
+      throw (Error)ex;
+    if (ex != null)
+      throw new StageRunnerException(String.valueOf(ex.getMessage()), ex);
+  }
+
+
+  /**
+   * Returns the stage of the stage function executed by the current thread.
+   *
+   * @return  current stage or {@code null} if the current thread is not executing a stage function
+   */
+  @Contract(pure = true)
+  S getCurrentStage()
+  {
+    final var node = currentNode.get();
+    return node == null ? null : node.function.stage;
+  }
+
+
+  /**
+   * Insert a stage function while the run is in progress. The caller must synchronize on the stage context.
+   *
+   * @param function  stage function to insert, not {@code null}
+   *
+   * @return  {@code true} if the function has been inserted, {@code false} if the run has already passed beyond
+   *          the position of the function
+   */
+  boolean insert(@NotNull StageOrderFunction<S> function)
+  {
+    final int ordinal = function.stage.ordinal();
+    final int index = functionArray.insertionIndex(function);
+    final Node nextNonDependent = findNonDependent(index);
+
+    if ((stageStarted[ordinal] && stagePending[ordinal] == 0) ||
+        (nextNonDependent != null && nextNonDependent.state != NODE_WAITING))
+      return false;
+
+    functionArray.add(function);
+
+    final var node = new Node(function, index);
+
+    for(int n = index, size = nodes.size(); n < size; n++)
+      nodes.get(n).index++;
+
+    nodes.add(index, node);
+    remaining++;
+    stagePending[ordinal]++;
+
+    if (function.dependencies == null)
+      linkPredecessors(node);
+    else
+      linkDependencies(node);
+
+    registerProvider(node);
+
+    if (nextNonDependent != null)
+      link(node, nextNonDependent);
+
+    // link waiting dependent nodes which could not resolve this function so far
+    for(var dependent: nodes)
+      if (dependent != node && dependent.state == NODE_WAITING && dependsOn(dependent, function))
+        link(node, dependent);
+
+    if (node.pending == 0)
+      ready(node);
+
+    stageContext.notifyAll();
+
+    return true;
+  }
+
+
+  private void buildGraph()
+  {
+    final StageOrderFunction<S>[] functions = functionArray.functions;
+    final int size = functionArray.size;
+
+    for(int n = 0; n < size; n++)
+    {
+      final var node = new Node(functions[n], n);
+      final int ordinal = node.function.stage.ordinal();
+
+      nodes.add(node);
+
+      if (n < startIndex)
+      {
+        node.state = NODE_DONE;
+        stageStarted[ordinal] = true;
+      }
+      else
+        stagePending[ordinal]++;
+
+      registerProvider(node);
+    }
+
+    for(var node: nodes)
+    {
+      if (node.state == NODE_DONE)
+        continue;
+
+      if (node.function.dependencies == null)
+        linkPredecessors(node);
+      else
+        linkDependencies(node);
+    }
+
+    remaining = size - startIndex;
+
+    for(var node: nodes)
+      if (node.state == NODE_WAITING && node.pending == 0)
+        ready(node);
+  }
+
+
+  private void registerProvider(@NotNull Node node)
+  {
+    final var function = node.function;
+
+    if (function.name != null)
+      providers.computeIfAbsent(function.name, key -> new ArrayList<>(1)).add(node);
+
+    if (function.providedData != null)
+      for(var dataKey: function.providedData)
+        providers.computeIfAbsent(dataKey, key -> new ArrayList<>(1)).add(node);
+  }
+
+
+  /**
+   * Link a non-dependent node to all preceding nodes up to and including the previous non-dependent node.
+   */
+  private void linkPredecessors(@NotNull Node node)
+  {
+    for(int n = node.index - 1; n >= 0; n--)
+    {
+      final var predecessor = nodes.get(n);
+
+      link(predecessor, node);
+
+      if (predecessor.function.dependencies == null)
+        break;
+    }
+  }
+
+
+  private void linkDependencies(@NotNull Node node)
+  {
+    for(var dependency: node.function.dependencies)
+    {
+      final var providerNodes = providers.get(dependency);
+
+      if (providerNodes != null)
+        for(var provider: providerNodes)
+          if (provider != node)
+            link(provider, node);
+    }
+  }
+
+
+  private void link(@NotNull Node prerequisite, @NotNull Node node)
+  {
+    if (prerequisite.state != NODE_DONE)
+    {
+      prerequisite.dependents.add(node);
+      node.pending++;
+    }
+  }
+
+
+  @Contract(pure = true)
+  private boolean dependsOn(@NotNull Node node, @NotNull StageOrderFunction<S> function)
+  {
+    final var dependencies = node.function.dependencies;
+
+    if (dependencies != null)
+      for(var dependency: dependencies)
+      {
+        if (dependency.equals(function.name))
+          return true;
+
+        if (function.providedData != null)
+          for(var dataKey: function.providedData)
+            if (dependency.equals(dataKey))
+              return true;
+      }
+
+    return false;
+  }
+
+
+  @Contract(pure = true)
+  private Node findNonDependent(int index)
+  {
+    for(int n = index, size = nodes.size(); n < size; n++)
+    {
+      final var node = nodes.get(n);
+      if (node.function.dependencies == null)
+        return node;
+    }
+
+    return null;
+  }
+
+
+  private void ready(@NotNull Node node)
+  {
+    node.state = NODE_READY;
+    readyNodes.add(node);
+    submissions++;
+  }
+
+
+  private void submitWorkers()
+  {
+    int n;
+
+    synchronized(stageContext) {
+      n = submissions;
+      submissions = 0;
+    }
+
+    try {
+      for(; n > 0; n--)
+        executor.execute(worker);
+    } catch(RejectedExecutionException ignored) {
+      // ready nodes are executed by the calling thread
+    }
+  }
+
+
+  private Node takeReadyNode()
+  {
+    synchronized(stageContext) {
+      return stageContext.isAborted() ? null : startNode(readyNodes.poll());
+    }
+  }
+
+
+  @Contract(mutates = "this")
+  private Node startNode(Node node)
+  {
+    if (node != null)
+    {
+      node.state = NODE_RUNNING;
+      node.thread = Thread.currentThread();
+      running++;
+    }
+
+    return node;
+  }
+
+
+  /**
+   * Returns the next ready node for the calling thread, waiting for running nodes to complete if necessary.
+   *
+   * @return  next ready node or {@code null} if the run has completed or has been aborted
+   */
+  private Node nextNode()
+  {
+    synchronized(stageContext) {
+      while(!stageContext.isAborted() && remaining > 0)
+      {
+        final var node = startNode(readyNodes.poll());
+        if (node != null)
+          return node;
+
+        if (running == 0)
+        {
+          fail(new StageRunnerConfigurationException("cyclic dependency between stage functions: " +
+              describeWaitingNodes()));
+          break;
+        }
+
+        try {
+          stageContext.wait();
+        } catch(InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          fail(ex);
+        }
+      }
+    }
+
+    return null;
+  }
+
+
+  private void execute(@NotNull Node node)
+  {
+    final var function = node.function;
+
+    currentNode.set(node);
+
+    try {
+      synchronized(stageContext) {
+        functionArray.setState(node.index, STATE_EXECUTING);
+
+        if (node.index > stageContext.functionIndex)
+          stageContext.functionIndex = node.index;
+
+        final int ordinal = function.stage.ordinal();
+        if (!stageStarted[ordinal])
+        {
+          stageStarted[ordinal] = true;
+          callback.preStageCallback(stageContext);
+        }
+
+        callback.preStageFunctionCallback(stageContext, function.description);
+      }
+
+      final var recorder = stageContext.metrics;
+      final long startNanos = recorder == null ? 0 : System.nanoTime();
+      final var event = isStageFunctionEnabled() ? new StageFunctionEvent(function) : null;
+      Throwable exception = null;
+
+      if (event != null)
+        event.begin();
+
+      try {
+        stageContext.process(function);
+      } catch(Throwable ex) {
+        exception = ex;
+      }
+
+      if (recorder != null)
+        recorder.recordFunction(function, System.nanoTime() - startNanos, exception != null, stageContext.isAborted());
+      if (event != null)
+        event.commit(exception != null, stageContext.isAborted());
+
+      synchronized(stageContext) {
+        try {
+          if (exception != null)
+          {
+            stageContext.failedFunctions++;
+            functionArray.setState(node.index, STATE_FAILED);
+            callback.stageExceptionHandler(stageContext, exception);
+          }
+        } finally {
+          if (functionArray.getState(node.index) == STATE_EXECUTING)
+            functionArray.setState(node.index, STATE_PROCESSED);
+
+          callback.postStageFunctionCallback(stageContext);
+        }
+      }
+    } catch(Throwable ex) {
+      synchronized(stageContext) {
+        fail(ex);
+      }
+    } finally {
+      synchronized(stageContext) {
+        complete(node);
+      }
+
+      currentNode.remove();
+      submitWorkers();
+    }
+  }
+
+
+  private void complete(@NotNull Node node)
+  {
+    final var stage = node.function.stage;
+    final int ordinal = stage.ordinal();
+
+    node.state = NODE_DONE;
+    node.thread = null;
+
+    if (node.interrupted)
+      Thread.interrupted();
+    running--;
+    remaining--;
+
+    if (--stagePending[ordinal] == 0 && stageStarted[ordinal] && !stageContext.isAborted())
+    {
+      stageContext.addProcessedStage(stage);
+
+      try {
+        callback.postStageCallback(stageContext, stage);
+      } catch(Throwable ex) {
+        fail(ex);
+      }
+    }
+
+    for(var dependent: node.dependents)
+      if (--dependent.pending == 0 && dependent.state == NODE_WAITING)
+        ready(dependent);
+
+    stageContext.notifyAll();
+  }
+
+
+  private void fail(@NotNull Throwable ex)
+  {
+    if (failure == null)
+      failure = ex;
+
+    stageContext.abort();
+    interruptRunningNodes();
+  }
+
+
+  /**
+   * Interrupt all threads executing a stage function, except for the current thread. The interrupt status is
+   * cleared again when the stage function has completed, so it does not leak into the executor or the thread
+   * which started the run.
+   */
+  private void interruptRunningNodes()
+  {
+    final var currentThread = Thread.currentThread();
+
+    for(var node: nodes)
+      if (node.state == NODE_RUNNING && !node.interrupted && node.thread != currentThread)
+      {
+        node.interrupted = true;
+        node.thread.interrupt();
+      }
+  }
+
+
+  private void awaitRunningNodes()
+  {
+    var interrupted = false;
+
+    synchronized(stageContext) {
+      if (stageContext.isAborted())
+        interruptRunningNodes();
+
+      while(running > 0)
+        try {
+          stageContext.wait();
+        } catch(InterruptedException ex) {
+          interrupted = true;
+        }
+    }
+
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull String describeWaitingNodes()
+  {
+    final var s = new StringJoiner(", ");
+
+    for(var node: nodes)
+      if (node.state == NODE_WAITING)
+        s.add(node.function.name != null ? node.function.name : node.function.toString());
+
+    return s.toString();
+  }
+
+
+
+
+  private final class Node
+  {
+    final StageOrderFunction<S> function;
+    final List<Node> dependents;
+    int index;
+    int pending;
+    int state;
+    Thread thread;
+    boolean interrupted;
+
+
+    private Node(@NotNull StageOrderFunction<S> function, int index)
+    {
+      this.function = function;
+      this.index = index;
+
+      dependents = new ArrayList<>(2);
+      state = NODE_WAITING;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageFunction;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+
+import static de.sayayi.lib.stagerunner.spi.StageOrderFunctionArray.mergeStages;
+import static de.sayayi.lib.stagerunner.spi.StageOrderFunctionArray.stageWords;
+import static java.lang.reflect.Array.newInstance;
+import static java.util.Collections.unmodifiableList;
+
+
+/**
+ * Frozen execution plan, compiled from the stage functions registered with a stage runner factory.
+ * <p>
+ * The plan is shared by all stage runner instances created by the factory and must never be modified. A stage
+ * runner, which adds stage functions while running, works on a private copy of the function array instead.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageFunctionPlan<S extends Enum<S>>
+{
+  final StageOrderFunction<S>[] functions;
+  final int size;
+
+  /**
+   * Stage offset table of {@link #functions}.
+   *
+   * @see StageOrderFunctionArray#stageOffsets
+   */
+  final int[] stageOffsets;
+
+  /**
+   * Bitmask of stages having at least one function.
+   *
+   * @see StageOrderFunctionArray#stageMask
+   */
+  final long[] stageMask;
+
+  /**
+   * Cached variants of this plan with enabled named stage functions or {@code null} if plan variants are not
+   * cached. Plan variants never have variants of their own.
+   */
+  final StageFunctionPlanCache<S> variants;
+
+  /**
+   * Compiled form of this plan or {@code null} if the plan has not been compiled. Plan variants are never
+   * compiled.
+   */
+  final CompiledStagePlan<S> compiledPlan;
+
+
+  StageFunctionPlan(@NotNull StageFunctionSegments<S> segments, int stageCount, int variantCacheSize) {
+    this(segments, stageCount, variantCacheSize, null);
+  }
+
+
+  @SuppressWarnings("unchecked")
+  StageFunctionPlan(@NotNull StageFunctionSegments<S> segments, int stageCount, int variantCacheSize,
+                    StagePlanCompiler compiler)
+  {
+    size = segments.size;
+    functions = size == 0 ? null : (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, size);
+    stageOffsets = new int[stageCount + 1];
+    stageMask = new long[stageWords(stageCount)];
+
+    if (functions != null)
+      segments.copyTo(functions, stageOffsets, stageMask);
+
+    variants = variantCacheSize == 0 ? null : new StageFunctionPlanCache<>(variantCacheSize);
+    compiledPlan = compiler == null || functions == null ? null : compile(compiler);
+  }
+
+
+  /**
+   * Compile a plan variant by merging named stage functions into the functions of {@code array}.
+   * <p>
+   * Named stage functions are placed after all unnamed functions with the same stage and order. Named stage
+   * functions with the same stage and order are placed in registration order. Provided that {@code array} has been
+   * compiled in the same way, the resulting order does not depend on the order in which named stage functions
+   * have been enabled.
+   *
+   * @param array           function array, containing the base plan functions and previously enabled named
+   *                        stage functions, not {@code null}
+   * @param namedFunctions  named stage functions, sorted by stage, order and registration index, not {@code null}
+   * @param count           number of functions in {@code namedFunctions} to merge
+   */
+  @SuppressWarnings("unchecked")
+  StageFunctionPlan(@NotNull StageOrderFunctionArray<S> array, @NotNull StageOrderFunction<S>[] namedFunctions,
+                    int count)
+  {
+    final var arrayFunctions = array.functions;
+    final int arraySize = array.size;
+
+    size = arraySize + count;
+    functions = (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, size);
+
+    for(int n = 0, i = 0, k = 0; k < size; k++)
+      functions[k] = n == count || (i < arraySize && precedes(arrayFunctions[i], namedFunctions[n]))
+          ? arrayFunctions[i++] : namedFunctions[n++];
+
+    stageOffsets = array.stageOffsets.clone();
+    stageMask = array.stageMask.clone();
+    variants = null;
+    compiledPlan = null;
+
+    mergeStages(stageOffsets, stageMask, namedFunctions, count);
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull CompiledStagePlan<S> compile(@NotNull StagePlanCompiler compiler)
+  {
+    final var stages = new ArrayList<S>(size);
+    final var stageFunctions = new ArrayList<StageFunction<S>>(size);
+
+    for(var function: functions)
+    {
+      stages.add(function.stage);
+      stageFunctions.add(function.function);
+    }
+
+    return compiler.compile(unmodifiableList(stages), unmodifiableList(stageFunctions));
+  }
+
+
+  @Contract(pure = true)
+  private static <S extends Enum<S>> boolean precedes(@NotNull StageOrderFunction<S> function,
+                                                      @NotNull StageOrderFunction<S> namedFunction)
+  {
+    final int cmp = function.stage.compareTo(namedFunction.stage);
+    if (cmp != 0)
+      return cmp < 0;
+
+    return function.order != namedFunction.order
+        ? function.order < namedFunction.order
+        : function.nameIndex < namedFunction.nameIndex;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Bounded cache of plan variants, compiled from a base execution plan and a set of enabled named stage functions.
+ * <p>
+ * Variants are keyed by the {@link StageOrderFunction#nameIndex name indexes} of the enabled named stage functions.
+ * Looking up a variant is lock-free. If the cache is full, an approximately least recently used variant is evicted:
+ * the access time of a variant is taken from a clock, which advances on each insertion only, so a lookup does not
+ * need to write to shared state, unless the variant has not been accessed since the last insertion.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageFunctionPlanCache<S extends Enum<S>>
+{
+  private final int cacheSize;
+  private final ConcurrentHashMap<BitSet,Variant<S>> variants;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** Insertion clock, providing the access time of variants. */
+  private volatile long clock;
+
+
+  StageFunctionPlanCache(int cacheSize)
+  {
+    this.cacheSize = cacheSize;
+
+    variants = new ConcurrentHashMap<>();
+  }
+
+
+  /**
+   * Returns the plan variant for the given set of enabled named stage functions.
+   *
+   * @param enabledNamedFunctions  name indexes of the enabled named stage functions, not {@code null}. The bitset
+   *                               is not retained, so a reusable bitset may be passed
+   *
+   * @return  plan variant or {@code null} if no such variant has been cached
+   */
+  StageFunctionPlan<S> get(@NotNull BitSet enabledNamedFunctions)
+  {
+    final var variant = variants.get(enabledNamedFunctions);
+
+    if (variant == null)
+    {
+      misses.increment();
+      return null;
+    }
+
+    hits.increment();
+
+    final long now = clock;
+    if (variant.lastAccess != now)
+      variant.lastAccess = now;
+
+    return variant.plan;
+  }
+
+
+  /**
+   * Cache a plan variant. If a variant for the same set of enabled named stage functions has been cached in the
+   * meantime, the cached variant is kept.
+   *
+   * @param enabledNamedFunctions  name indexes of the enabled named stage functions, not {@code null}. The bitset
+   *                               is copied, so a reusable bitset may be passed
+   * @param plan                   plan variant, not {@code null}
+   */
+  synchronized void put(@NotNull BitSet enabledNamedFunctions, @NotNull StageFunctionPlan<S> plan)
+  {
+    final long now = ++clock;
+
+    if (variants.putIfAbsent((BitSet)enabledNamedFunctions.clone(), new Variant<>(plan, now)) == null &&
+        variants.size() > cacheSize)
+      evictLeastRecentlyUsed();
+  }
+
+
+  /**
+   * Evict the variant with the oldest access time. The caller must synchronize on this cache.
+   */
+  private void evictLeastRecentlyUsed()
+  {
+    BitSet eldestKey = null;
+    long eldestAccess = Long.MAX_VALUE;
+
+    for(var entry: variants.entrySet())
+    {
+      final long lastAccess = entry.getValue().lastAccess;
+
+      if (lastAccess < eldestAccess)
+      {
+        eldestKey = entry.getKey();
+        eldestAccess = lastAccess;
+      }
+    }
+
+    if (eldestKey != null)
+      variants.remove(eldestKey);
+  }
+
+
+  @Contract(pure = true)
+  long getHits() {
+    return hits.sum();
+  }
+
+
+  @Contract(pure = true)
+  long getMisses() {
+    return misses.sum();
+  }
+
+
+
+
+  private static final class Variant<S extends Enum<S>>
+  {
+    final StageFunctionPlan<S> plan;
+    volatile long lastAccess;
+
+
+    private Variant(@NotNull StageFunctionPlan<S> plan, long lastAccess)
+    {
+      this.plan = plan;
+      this.lastAccess = lastAccess;
+    }
+  }
+}
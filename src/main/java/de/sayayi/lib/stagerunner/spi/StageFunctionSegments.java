@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+import static java.lang.reflect.Array.newInstance;
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.sort;
+
+
+/**
+ * Stage functions registered with a stage runner factory, kept in one segment per stage ordinal.
+ * <p>
+ * Stage functions are appended to the segment of their stage. Segments grow geometrically, so registering a stage
+ * function takes amortized constant time. A segment is sorted by order only when compiling an execution plan.
+ * The sort is stable, so stage functions with the same stage and order are executed in registration order.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageFunctionSegments<S extends Enum<S>>
+{
+  private static final int INITIAL_SEGMENT_CAPACITY = 8;
+
+  private static final Comparator<StageOrderFunction<?>> ORDER_COMPARATOR =
+      Comparator.comparingInt(function -> function.order);
+
+  private final StageOrderFunction<S>[][] segments;
+  private final int[] segmentSizes;
+
+  /** Segments with functions not appended in order, indexed by stage ordinal. */
+  private final boolean[] unsorted;
+
+  /** Total number of stage functions in all segments. */
+  int size;
+
+
+  @SuppressWarnings("unchecked")
+  StageFunctionSegments(int stageCount)
+  {
+    segments = (StageOrderFunction<S>[][])new StageOrderFunction<?>[stageCount][];
+    segmentSizes = new int[stageCount];
+    unsorted = new boolean[stageCount];
+  }
+
+
+  @SuppressWarnings("unchecked")
+  void add(@NotNull StageOrderFunction<S> function)
+  {
+    final int ordinal = function.stage.ordinal();
+    final int segmentSize = segmentSizes[ordinal];
+    var segment = segments[ordinal];
+
+    if (segment == null)
+    {
+      segments[ordinal] = segment =
+          (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, INITIAL_SEGMENT_CAPACITY);
+    }
+    else
+    {
+      if (segment.length == segmentSize)
+        segments[ordinal] = segment = copyOf(segment, segmentSize + (segmentSize >>> 1));
+
+      if (segment[segmentSize - 1].order > function.order)
+        unsorted[ordinal] = true;
+    }
+
+    segment[segmentSize] = function;
+    segmentSizes[ordinal] = segmentSize + 1;
+    size++;
+  }
+
+
+  void forEach(@NotNull Consumer<StageOrderFunction<S>> action)
+  {
+    for(int ordinal = 0; ordinal < segments.length; ordinal++)
+      for(int n = 0, segmentSize = segmentSizes[ordinal]; n < segmentSize; n++)
+        action.accept(segments[ordinal][n]);
+  }
+
+
+  /**
+   * Copy all stage functions, sorted by stage and order, into {@code functions} and build the stage offset table
+   * and stage bitmask. The segments themselves are not modified.
+   *
+   * @param functions     array to copy the stage functions to, with a length of at least {@link #size},
+   *                      not {@code null}
+   * @param stageOffsets  stage offset table to fill, not {@code null}
+   * @param stageMask     zero-filled stage bitmask, not {@code null}
+   *
+   * @see StageOrderFunctionArray#stageOffsets
+   * @see StageOrderFunctionArray#stageMask
+   */
+  @Contract(mutates = "param1,param2,param3")
+  void copyTo(@NotNull StageOrderFunction<S>[] functions, @NotNull int[] stageOffsets, @NotNull long[] stageMask)
+  {
+    int offset = 0;
+
+    for(int ordinal = 0; ordinal < segments.length; ordinal++)
+    {
+      final int segmentSize = segmentSizes[ordinal];
+      stageOffsets[ordinal] = offset;
+
+      if (segmentSize > 0)
+      {
+        System.arraycopy(segments[ordinal], 0, functions, offset, segmentSize);
+
+        if (unsorted[ordinal])
+          sort(functions, offset, offset + segmentSize, ORDER_COMPARATOR);
+
+        stageMask[ordinal >>> 6] |= 1L << ordinal;
+        offset += segmentSize;
+      }
+    }
+
+    stageOffsets[segments.length] = offset;
+  }
+}
@@ -15,6 +15,8 @@
  */
 package de.sayayi.lib.stagerunner.spi;
 
+import de.sayayi.lib.stagerunner.DependentStageFunction;
+import de.sayayi.lib.stagerunner.ParallelStageFunction;
 import de.sayayi.lib.stagerunner.StageFunction;
 import org.jetbrains.annotations.NotNull;
 
@@ -32,6 +34,21 @@ final class StageOrderFunction<S extends Enum<S>>
   final String description;
   final int order;
   final @NotNull StageFunction<S> function;
+  final boolean parallel;
+  final String name;
+
+  /**
+   * Stable id of a stage function registered with the stage runner factory or {@code -1} if the function has been
+   * added while running.
+   */
+  final int id;
+
+  /** Registration index of a named stage function or {@code -1} if the function is not named. */
+  final int nameIndex;
+
+  /** Declared dependencies or {@code null} if the function is not a {@link DependentStageFunction}. */
+  final String[] dependencies;
+  final String[] providedData;
 
 
   StageOrderFunction(@NotNull S stage, @NotNull StageFunction<S> function) {
@@ -40,12 +57,33 @@ final class StageOrderFunction<S extends Enum<S>>
 
 
   StageOrderFunction(@NotNull S stage, String description, int order,
+                     @NotNull StageFunction<S> function) {
+    this(-1, null, -1, stage, description, order, function);
+  }
+
+
+  StageOrderFunction(int id, String name, int nameIndex, @NotNull S stage, String description, int order,
                      @NotNull StageFunction<S> function)
   {
+    this.id = id;
+    this.name = name;
+    this.nameIndex = nameIndex;
     this.stage = stage;
     this.description = description;
     this.order = order;
     this.function = function;
+
+    parallel = function instanceof ParallelStageFunction;
+
+    if (function instanceof DependentStageFunction)
+    {
+      var dependentFunction = (DependentStageFunction<?>)function;
+
+      dependencies = dependentFunction.getDependencies().toArray(String[]::new);
+      providedData = dependentFunction.getProvidedData().toArray(String[]::new);
+    }
+    else
+      dependencies = providedData = null;
   }
 
 
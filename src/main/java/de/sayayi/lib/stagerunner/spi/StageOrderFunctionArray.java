@@ -19,7 +19,7 @@ import de.sayayi.lib.stagerunner.StageContext.FunctionState;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import static de.sayayi.lib.stagerunner.StageContext.FunctionState.WAITING;
+import static de.sayayi.lib.stagerunner.StageContext.FunctionState.*;
 import static java.lang.System.arraycopy;
 import static java.lang.reflect.Array.newInstance;
 import static java.util.Arrays.copyOf;
@@ -33,16 +33,57 @@ import static java.util.Arrays.fill;
  */
 final class StageOrderFunctionArray<S extends Enum<S>>
 {
+  static final int STATE_WAITING = 0;
+  static final int STATE_EXECUTING = 1;
+  static final int STATE_PROCESSED = 2;
+  static final int STATE_FAILED = 3;
+
+  private static final FunctionState[] FUNCTION_STATES = { WAITING, EXECUTING, PROCESSED, FAILED };
+
   StageOrderFunction<S>[] functions;
-  FunctionState[] executionState;
   int size;
 
+  /**
+   * Packed execution state, 2 bits per function (32 functions per array element). A zero-filled array
+   * represents all functions in state {@link FunctionState#WAITING WAITING}.
+   */
+  long[] executionState;
+
+  /**
+   * Stage offset table, indexed by stage ordinal: {@code stageOffsets[o]} is the index of the first function
+   * with a stage ordinal of at least {@code o}. The last element equals {@link #size}, so the functions of stage
+   * {@code o} are located at {@code [stageOffsets[o], stageOffsets[o + 1])}.
+   */
+  int[] stageOffsets;
+
+  /** Bitmask of stages having at least one function, 1 bit per stage ordinal. */
+  long[] stageMask;
+
+  /** {@code true} if {@link #functions} is owned by a shared plan and must be copied before modification. */
+  private boolean shared;
 
-  StageOrderFunctionArray()
+  /** Previously allocated function array, which is reused when copying a shared plan. */
+  private StageOrderFunction<S>[] ownedFunctions;
+
+
+  StageOrderFunctionArray(int stageCount)
   {
     functions = null;
     executionState = null;
     size = 0;
+    stageOffsets = new int[stageCount + 1];
+    stageMask = new long[stageWords(stageCount)];
+  }
+
+
+  /**
+   * Create a function array which references the functions of the given {@code plan} without copying them.
+   * The function array is copied on the first invocation of {@link #add(StageOrderFunction)}.
+   *
+   * @param plan  shared execution plan, not {@code null}
+   */
+  StageOrderFunctionArray(@NotNull StageFunctionPlan<S> plan) {
+    reset(plan);
   }
 
 
@@ -57,13 +98,101 @@ final class StageOrderFunctionArray<S extends Enum<S>>
     else
     {
       functions = copyOf(array.functions, size = array.size);
-      fill(executionState = new FunctionState[size], WAITING);
+      executionState = new long[stateWords(size)];
     }
+
+    stageOffsets = array.stageOffsets.clone();
+    stageMask = array.stageMask.clone();
   }
 
 
-  @SuppressWarnings("unchecked")
-  int add(@NotNull StageOrderFunction<S> function)
+  /**
+   * Reset this function array to reference the functions of the given {@code plan}. Arrays allocated for
+   * previous runs are reused.
+   *
+   * @param plan  shared execution plan, not {@code null}
+   *
+   * @see #release()
+   */
+  void reset(@NotNull StageFunctionPlan<S> plan)
+  {
+    functions = plan.functions;
+    size = plan.size;
+    shared = functions != null;
+
+    if (stageOffsets == null || stageOffsets.length != plan.stageOffsets.length)
+    {
+      stageOffsets = plan.stageOffsets.clone();
+      stageMask = plan.stageMask.clone();
+    }
+    else
+    {
+      arraycopy(plan.stageOffsets, 0, stageOffsets, 0, stageOffsets.length);
+      arraycopy(plan.stageMask, 0, stageMask, 0, stageMask.length);
+    }
+
+    final int words = stateWords(size);
+
+    if (executionState == null || executionState.length < words)
+      executionState = new long[words];
+    else
+      fill(executionState, 0, words, 0L);
+  }
+
+
+  /**
+   * Release all function references, retaining a privately allocated function array for reuse.
+   */
+  void release()
+  {
+    if (!shared && functions != null)
+    {
+      fill(functions, 0, size, null);
+      ownedFunctions = functions;
+    }
+
+    functions = null;
+    size = 0;
+    shared = false;
+  }
+
+
+  @Contract(pure = true)
+  int getState(int index) {
+    return (int)(executionState[index >>> 5] >>> ((index & 31) << 1)) & 3;
+  }
+
+
+  @Contract(pure = true)
+  @NotNull FunctionState getFunctionState(int index) {
+    return FUNCTION_STATES[getState(index)];
+  }
+
+
+  @Contract(pure = true)
+  static @NotNull FunctionState getFunctionState(@NotNull long[] executionState, int index) {
+    return FUNCTION_STATES[(int)(executionState[index >>> 5] >>> ((index & 31) << 1)) & 3];
+  }
+
+
+  void setState(int index, int state)
+  {
+    final int word = index >>> 5;
+    final int shift = (index & 31) << 1;
+
+    executionState[word] = (executionState[word] & ~(3L << shift)) | ((long)state << shift);
+  }
+
+
+  /**
+   * Returns the index at which {@code function} would be inserted by {@link #add(StageOrderFunction)}.
+   *
+   * @param function  stage function, not {@code null}
+   *
+   * @return  insertion index
+   */
+  @Contract(pure = true)
+  int insertionIndex(@NotNull StageOrderFunction<S> function)
   {
     int low = 0;
 
@@ -77,32 +206,234 @@ final class StageOrderFunctionArray<S extends Enum<S>>
         high = mid - 1;
     }
 
-    if (functions == null)
+    return low;
+  }
+
+
+  @SuppressWarnings("unchecked")
+  int add(@NotNull StageOrderFunction<S> function)
+  {
+    final int low = insertionIndex(function);
+
+    if (functions == null || shared)
     {
-      functions = (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, 4);
-      executionState = new FunctionState[4];
+      var ownedFunctions = this.ownedFunctions;
+      if (ownedFunctions == null || ownedFunctions.length <= size)
+        ownedFunctions = (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, grow(size));
+
+      if (size > 0)
+        arraycopy(functions, 0, ownedFunctions, 0, size);
+
+      functions = ownedFunctions;
+      this.ownedFunctions = null;
+      shared = false;
     }
     else if (functions.length == size)
-    {
-      functions = copyOf(functions, size + 4);
-      executionState = copyOf(executionState, size + 4);
-    }
+      functions = copyOf(functions, grow(size));
 
     final int moveElements = size - low;
     if (moveElements > 0)
-    {
       arraycopy(functions, low, functions, low + 1, moveElements);
-      arraycopy(executionState, low, executionState, low + 1, moveElements);
-    }
 
     functions[low] = function;
-    executionState[low] = WAITING;
+    insertState(low);
     size++;
 
+    final int ordinal = function.stage.ordinal();
+
+    for(int o = ordinal + 1; o < stageOffsets.length; o++)
+      stageOffsets[o]++;
+
+    stageMask[ordinal >>> 6] |= 1L << ordinal;
+
     return low;
   }
 
 
+  /**
+   * Merge {@code count} functions into this array in a single pass. The functions must be sorted by stage and
+   * order. As with {@link #add(StageOrderFunction)}, a function is placed after all existing functions with the
+   * same stage and order. The execution states of the existing functions are retained.
+   *
+   * @param newFunctions  functions sorted by stage and order, not {@code null}
+   * @param count         number of functions in {@code newFunctions} to merge
+   *
+   * @since 0.3.4
+   */
+  @SuppressWarnings("unchecked")
+  void addAll(@NotNull StageOrderFunction<S>[] newFunctions, int count)
+  {
+    if (count == 0)
+      return;
+
+    final int mergedSize = size + count;
+    final var mergedFunctions = (StageOrderFunction<S>[])newInstance(StageOrderFunction.class, grow(mergedSize));
+    final var mergedState = new long[stateWords(mergedSize)];
+
+    for(int n = 0, i = 0, k = 0; k < mergedSize; k++)
+      if (n == count || (i < size && compare(newFunctions[n], functions[i]) > 0))
+      {
+        final long state = getState(i);
+        if (state != STATE_WAITING)
+          mergedState[k >>> 5] |= state << ((k & 31) << 1);
+
+        mergedFunctions[k] = functions[i++];
+      }
+      else
+        mergedFunctions[k] = newFunctions[n++];
+
+    mergeStages(stageOffsets, stageMask, newFunctions, count);
+
+    functions = mergedFunctions;
+    executionState = mergedState;
+    size = mergedSize;
+    shared = false;
+    ownedFunctions = null;
+  }
+
+
+  /**
+   * Switch to the functions of {@code plan}, which must contain all functions of this array in the same relative
+   * order. This is only possible, if the functions up to and including {@code functionIndex} are located at the
+   * same indexes in {@code plan} and no function after {@code functionIndex} has left the
+   * {@link FunctionState#WAITING WAITING} state yet.
+   *
+   * @param plan           plan variant, not {@code null}
+   * @param functionIndex  index of the current function or {@code -1}
+   *
+   * @return  {@code true} if this array references the functions of {@code plan}, {@code false} if the array has
+   *          not been modified
+   *
+   * @since 0.3.4
+   */
+  boolean switchTo(@NotNull StageFunctionPlan<S> plan, int functionIndex)
+  {
+    // as both are ordered the same way, the prefix is identical if the current function has not moved
+    if (functionIndex >= 0 && (plan.functions[functionIndex] != functions[functionIndex] ||
+                               !isWaitingAfter(functionIndex)))
+      return false;
+
+    final int words = stateWords(size);
+    final int planWords = stateWords(plan.size);
+
+    if (executionState == null || executionState.length < planWords)
+      executionState = executionState == null ? new long[planWords] : copyOf(executionState, planWords);
+    else if (words < planWords)
+      fill(executionState, words, planWords, 0L);
+
+    if (!shared && functions != null)
+    {
+      fill(functions, 0, size, null);
+      ownedFunctions = functions;
+    }
+
+    functions = plan.functions;
+    size = plan.size;
+    shared = true;
+
+    arraycopy(plan.stageOffsets, 0, stageOffsets, 0, stageOffsets.length);
+    arraycopy(plan.stageMask, 0, stageMask, 0, stageMask.length);
+
+    return true;
+  }
+
+
+  @Contract(pure = true)
+  private boolean isWaitingAfter(int index)
+  {
+    final int first = index + 1;
+    final int words = stateWords(size);
+    int word = first >>> 5;
+
+    if (word < words && (executionState[word] & (-1L << ((first & 31) << 1))) != 0)
+      return false;
+
+    while(++word < words)
+      if (executionState[word] != 0)
+        return false;
+
+    return true;
+  }
+
+
+  /**
+   * Insert a {@link FunctionState#WAITING WAITING} state at {@code index}, moving the states of all
+   * subsequent functions up by one position.
+   *
+   * @param index  insertion index
+   */
+  private void insertState(int index)
+  {
+    final int words = stateWords(size + 1);
+
+    if (executionState == null)
+      executionState = new long[words];
+    else if (executionState.length < words)
+      executionState = copyOf(executionState, words);
+
+    final int word = index >>> 5;
+
+    // carry the highest state of each word into the next word
+    for(int w = words - 1; w > word; w--)
+      executionState[w] = (executionState[w] << 2) | (executionState[w - 1] >>> 62);
+
+    final long lowerStatesMask = (1L << ((index & 31) << 1)) - 1;
+    final long states = executionState[word];
+
+    executionState[word] = (states & lowerStatesMask) | ((states & ~lowerStatesMask) << 2);
+  }
+
+
+  /**
+   * Returns the capacity of a function array which is able to hold at least {@code size + 1} functions. The
+   * capacity grows geometrically, so repeatedly adding functions takes amortized constant time for growing.
+   */
+  @Contract(pure = true)
+  private static int grow(int size) {
+    return size + (size >>> 1) + 4;
+  }
+
+
+  @Contract(pure = true)
+  private static int stateWords(int size) {
+    return (size + 31) >>> 5;
+  }
+
+
+  @Contract(pure = true)
+  static int stageWords(int stageCount) {
+    return (stageCount + 63) >>> 6;
+  }
+
+
+  /**
+   * Update the stage offset table and stage bitmask for {@code count} merged functions.
+   *
+   * @param stageOffsets  stage offset table, not {@code null}
+   * @param stageMask     stage bitmask, not {@code null}
+   * @param newFunctions  merged functions, sorted by stage, not {@code null}
+   * @param count         number of merged functions
+   */
+  static <S extends Enum<S>> void mergeStages(@NotNull int[] stageOffsets, @NotNull long[] stageMask,
+                                              @NotNull StageOrderFunction<S>[] newFunctions, int count)
+  {
+    // stageOffsets[o] moves up by the number of merged functions with a stage ordinal below o
+    for(int o = 0, n = 0; o < stageOffsets.length; o++)
+    {
+      while(n < count && newFunctions[n].stage.ordinal() < o)
+        n++;
+
+      stageOffsets[o] += n;
+    }
+
+    for(int n = 0; n < count; n++)
+    {
+      final int ordinal = newFunctions[n].stage.ordinal();
+      stageMask[ordinal >>> 6] |= 1L << ordinal;
+    }
+  }
+
+
   @Contract(pure = true)
   private int compare(@NotNull StageOrderFunction<S> newFunction, @NotNull StageOrderFunction<S> arrayFunction)
   {
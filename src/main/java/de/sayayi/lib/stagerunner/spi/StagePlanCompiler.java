@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+
+/**
+ * Compiler turning the frozen execution plan of a stage runner factory into a {@link CompiledStagePlan}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see AbstractStageRunnerFactory#setStagePlanCompiler(StagePlanCompiler)
+ */
+@FunctionalInterface
+public interface StagePlanCompiler
+{
+  /**
+   * Compile the execution plan consisting of the given stage functions. The function at index {@code i} belongs
+   * to the stage at index {@code i}. Both lists are ordered in execution order.
+   *
+   * @param stages     stage of each stage function, not empty or {@code null}
+   * @param functions  stage functions in execution order, not empty or {@code null}
+   *
+   * @return  compiled plan, never {@code null}
+   *
+   * @param <S>  Stage enum type
+   *
+   * @throws StageRunnerConfigurationException  if the plan could not be compiled
+   */
+  @Contract(pure = true)
+  <S extends Enum<S>> @NotNull CompiledStagePlan<S> compile(@NotNull List<S> stages,
+                                                            @NotNull List<StageFunction<S>> functions)
+      throws StageRunnerConfigurationException;
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.NotNull;
+
+
+/**
+ * Java Flight Recorder events for stage runs, stages and stage functions.
+ * <p>
+ * The events are enabled and configured using the standard JFR settings for event names
+ * {@code de.sayayi.stagerunner.Run}, {@code de.sayayi.stagerunner.Stage} and
+ * {@code de.sayayi.stagerunner.StageFunction}. Stack traces are disabled by default.
+ * <p>
+ * Event instances are only created if the event type is enabled in a running recording, so disabled events cost a
+ * single check. Event classes are never loaded, if the {@code jdk.jfr} module is not available.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageRunnerEvents
+{
+  static final String OUTCOME_PROCESSED = "PROCESSED";
+  static final String OUTCOME_FAILED = "FAILED";
+  static final String OUTCOME_ABORTED = "ABORTED";
+  static final String OUTCOME_FINISHED = "FINISHED";
+
+  /** {@code true} if the {@code jdk.jfr} module is available to this library. */
+  static final boolean AVAILABLE = isJfrAvailable();
+
+
+  private StageRunnerEvents() {
+  }
+
+
+  private static boolean isJfrAvailable()
+  {
+    final var jfrModule = ModuleLayer.boot().findModule("jdk.jfr");
+    return jfrModule.isPresent() && StageRunnerEvents.class.getModule().canRead(jfrModule.get());
+  }
+
+
+  static boolean isRunEnabled() {
+    return AVAILABLE && EventTypes.RUN.isEnabled();
+  }
+
+
+  static boolean isStageEnabled() {
+    return AVAILABLE && EventTypes.STAGE.isEnabled();
+  }
+
+
+  static boolean isStageFunctionEnabled() {
+    return AVAILABLE && EventTypes.STAGE_FUNCTION.isEnabled();
+  }
+
+
+
+
+  /**
+   * Holder for the event types, loaded on first access only.
+   */
+  private static final class EventTypes
+  {
+    static final EventType RUN = EventType.getEventType(RunEvent.class);
+    static final EventType STAGE = EventType.getEventType(StageEvent.class);
+    static final EventType STAGE_FUNCTION = EventType.getEventType(StageFunctionEvent.class);
+  }
+
+
+
+
+  @Name("de.sayayi.stagerunner.Run")
+  @Label("Stage Run")
+  @Category("Stage Runner")
+  @Description("Execution of a stage run")
+  @StackTrace(false)
+  static final class RunEvent extends Event
+  {
+    @Label("Stage Type")
+    String stageType;
+
+    @Label("Outcome")
+    @Description("FINISHED or ABORTED")
+    String outcome;
+
+    @Label("Failed Functions")
+    @Description("Number of stage functions which have thrown an exception")
+    int failedFunctions;
+
+
+    RunEvent(@NotNull Class<?> stageType) {
+      this.stageType = stageType.getName();
+    }
+
+
+    void commit(boolean aborted, int failedFunctions)
+    {
+      end();
+
+      if (shouldCommit())
+      {
+        outcome = aborted ? OUTCOME_ABORTED : OUTCOME_FINISHED;
+        this.failedFunctions = failedFunctions;
+        commit();
+      }
+    }
+  }
+
+
+
+
+  @Name("de.sayayi.stagerunner.Stage")
+  @Label("Stage")
+  @Category("Stage Runner")
+  @Description("Execution of all stage functions of a stage")
+  @StackTrace(false)
+  static final class StageEvent extends Event
+  {
+    @Label("Stage Type")
+    String stageType;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Outcome")
+    @Description("PROCESSED or ABORTED")
+    String outcome;
+
+
+    StageEvent(@NotNull Enum<?> stage)
+    {
+      stageType = stage.getDeclaringClass().getName();
+      this.stage = stage.name();
+    }
+
+
+    void commit(boolean aborted)
+    {
+      end();
+
+      if (shouldCommit())
+      {
+        outcome = aborted ? OUTCOME_ABORTED : OUTCOME_PROCESSED;
+        commit();
+      }
+    }
+  }
+
+
+
+
+  @Name("de.sayayi.stagerunner.StageFunction")
+  @Label("Stage Function")
+  @Category("Stage Runner")
+  @Description("Execution of a stage function")
+  @StackTrace(false)
+  static final class StageFunctionEvent extends Event
+  {
+    @Label("Stage Type")
+    String stageType;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Order")
+    int order;
+
+    @Label("Name")
+    @Description("Name of a named stage function")
+    String name;
+
+    @Label("Description")
+    String description;
+
+    @Label("Outcome")
+    @Description("PROCESSED, FAILED or ABORTED")
+    String outcome;
+
+
+    StageFunctionEvent(@NotNull StageOrderFunction<?> function)
+    {
+      stageType = function.stage.getDeclaringClass().getName();
+      stage = function.stage.name();
+      order = function.order;
+      name = function.name;
+      description = function.description;
+    }
+
+
+    void commit(boolean failed, boolean aborted)
+    {
+      end();
+
+      if (shouldCommit())
+      {
+        outcome = failed ? OUTCOME_FAILED : aborted ? OUTCOME_ABORTED : OUTCOME_PROCESSED;
+        commit();
+      }
+    }
+  }
+}
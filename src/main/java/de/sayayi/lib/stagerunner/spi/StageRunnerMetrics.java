@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+
+/**
+ * Snapshot of the metrics recorded by a stage runner factory.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ *
+ * @see AbstractStageRunnerFactory#setMetricsEnabled(boolean)
+ */
+public final class StageRunnerMetrics<S extends Enum<S>>
+{
+  private final List<FunctionMetrics<S>> functions;
+  private final Map<S,LatencyHistogram> stages;
+
+
+  StageRunnerMetrics(@NotNull List<FunctionMetrics<S>> functions, @NotNull Map<S,LatencyHistogram> stages)
+  {
+    this.functions = unmodifiableList(functions);
+    this.stages = unmodifiableMap(stages);
+  }
+
+
+  /**
+   * Returns the metrics for all stage functions registered with the stage runner factory, ordered by id.
+   *
+   * @return  stage function metrics, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull List<FunctionMetrics<S>> getFunctions() {
+    return functions;
+  }
+
+
+  /**
+   * Returns the latency histograms of completed stages for all stages.
+   *
+   * @return  map with the latency histogram for each stage, never {@code null}
+   */
+  @Contract(pure = true)
+  public @NotNull Map<S,LatencyHistogram> getStages() {
+    return stages;
+  }
+
+
+  @Override
+  public String toString() {
+    return "StageRunnerMetrics(functions=" + functions + ",stages=" + stages + ')';
+  }
+
+
+
+
+  /**
+   * Metrics of a single stage function.
+   *
+   * @param <S>  Stage enum type
+   */
+  public static final class FunctionMetrics<S extends Enum<S>>
+  {
+    private final int id;
+    private final S stage;
+    private final int order;
+    private final String name;
+    private final String description;
+    private final long invocations;
+    private final long failures;
+    private final long aborts;
+    private final LatencyHistogram latency;
+    private final long profiledInvocations;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+
+    FunctionMetrics(int id, @NotNull S stage, int order, String name, String description, long invocations,
+                    long failures, long aborts, @NotNull LatencyHistogram latency, long profiledInvocations,
+                    long cpuNanos, long allocatedBytes)
+    {
+      this.id = id;
+      this.stage = stage;
+      this.order = order;
+      this.name = name;
+      this.description = description;
+      this.invocations = invocations;
+      this.failures = failures;
+      this.aborts = aborts;
+      this.latency = latency;
+      this.profiledInvocations = profiledInvocations;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+
+    /**
+     * Returns the id of the stage function. Ids are assigned in registration order, starting with {@code 0}, and
+     * remain stable for the lifetime of the stage runner factory.
+     *
+     * @return  stage function id
+     */
+    @Contract(pure = true)
+    public int getId() {
+      return id;
+    }
+
+
+    @Contract(pure = true)
+    public @NotNull S getStage() {
+      return stage;
+    }
+
+
+    @Contract(pure = true)
+    public int getOrder() {
+      return order;
+    }
+
+
+    /**
+     * Returns the name of a named stage function.
+     *
+     * @return  stage function name or {@code null} if the stage function is not named
+     */
+    @Contract(pure = true)
+    public String getName() {
+      return name;
+    }
+
+
+    @Contract(pure = true)
+    public String getDescription() {
+      return description;
+    }
+
+
+    /**
+     * Returns the number of completed executions, including the failed ones.
+     *
+     * @return  number of completed executions
+     */
+    @Contract(pure = true)
+    public long getInvocations() {
+      return invocations;
+    }
+
+
+    /**
+     * Returns the number of executions, which have thrown an exception.
+     *
+     * @return  number of failed executions
+     */
+    @Contract(pure = true)
+    public long getFailures() {
+      return failures;
+    }
+
+
+    /**
+     * Returns the number of executions, during which the stage run has been aborted.
+     *
+     * @return  number of aborting executions
+     */
+    @Contract(pure = true)
+    public long getAborts() {
+      return aborts;
+    }
+
+
+    @Contract(pure = true)
+    public @NotNull LatencyHistogram getLatency() {
+      return latency;
+    }
+
+
+    /**
+     * Returns the number of executions included in the {@link #getCpuNanos() CPU time} and
+     * {@link #getAllocatedBytes() allocations}. Executions by a virtual thread are not profiled, as the JVM does
+     * not measure virtual threads, so this number may be less than the number of {@link #getInvocations()
+     * invocations}.
+     *
+     * @return  number of profiled executions or {@code -1} if profiling is not enabled
+     *
+     * @see AbstractStageRunnerFactory#setProfilingEnabled(boolean)
+     */
+    @Contract(pure = true)
+    public long getProfiledInvocations() {
+      return profiledInvocations;
+    }
+
+
+    /**
+     * Returns the CPU time consumed by all {@link #getProfiledInvocations() profiled executions}. For asynchronous
+     * stage functions, only the CPU time of the thread starting the asynchronous operation is included.
+     *
+     * @return  CPU time in nanoseconds or {@code -1} if profiling is not enabled
+     *
+     * @see AbstractStageRunnerFactory#setProfilingEnabled(boolean)
+     */
+    @Contract(pure = true)
+    public long getCpuNanos() {
+      return cpuNanos;
+    }
+
+
+    /**
+     * Returns the number of bytes allocated by all {@link #getProfiledInvocations() profiled executions}. For
+     * asynchronous stage functions, only the allocations of the thread starting the asynchronous operation are
+     * included.
+     *
+     * @return  number of allocated bytes or {@code -1} if profiling is not enabled
+     *
+     * @see AbstractStageRunnerFactory#setProfilingEnabled(boolean)
+     */
+    @Contract(pure = true)
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      var s = new StringBuilder("FunctionMetrics(id=").append(id).append(",stage=").append(stage).append('@')
+          .append(order);
+
+      if (name != null)
+        s.append(",name=").append(name);
+      if (description != null && !description.isEmpty())
+        s.append(",description=").append(description);
+
+      s.append(",invocations=").append(invocations).append(",failures=").append(failures)
+          .append(",aborts=").append(aborts).append(",latency=").append(latency);
+
+      if (cpuNanos >= 0)
+      {
+        s.append(",profiled=").append(profiledInvocations).append(",cpu=").append(cpuNanos)
+            .append("ns,allocated=").append(allocatedBytes).append('B');
+      }
+
+      return s.append(')').toString();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static java.lang.Long.bitCount;
+import static java.lang.Long.numberOfTrailingZeros;
+
+
+/**
+ * Immutable set of stages, backed by a bitmask with 1 bit per stage ordinal.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageSet<S extends Enum<S>> extends AbstractSet<S>
+{
+  private final S[] stages;
+  private final long[] mask;
+  private final int size;
+
+
+  /**
+   * Create a stage set. The {@code mask} array is not copied and must not be modified afterwards.
+   *
+   * @param stages  all enum constants of the stage type, not {@code null}
+   * @param mask    stage bitmask, not {@code null}
+   */
+  StageSet(@NotNull S[] stages, @NotNull long[] mask)
+  {
+    this.stages = stages;
+    this.mask = mask;
+
+    int size = 0;
+    for(var word: mask)
+      size += bitCount(word);
+
+    this.size = size;
+  }
+
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+
+  @Override
+  @Contract(pure = true)
+  public boolean contains(Object o)
+  {
+    if (!(o instanceof Enum))
+      return false;
+
+    final int ordinal = ((Enum<?>)o).ordinal();
+
+    return ordinal < stages.length && stages[ordinal] == o && (mask[ordinal >>> 6] & (1L << ordinal)) != 0;
+  }
+
+
+  @Override
+  public @NotNull Iterator<S> iterator()
+  {
+    return new Iterator<>() {
+      private int word = 0;
+      private long bits = mask.length == 0 ? 0 : mask[0];
+
+
+      @Override
+      public boolean hasNext()
+      {
+        while(bits == 0 && ++word < mask.length)
+          bits = mask[word];
+
+        return bits != 0;
+      }
+
+
+      @Override
+      public S next()
+      {
+        if (!hasNext())
+          throw new NoSuchElementException();
+
+        final int ordinal = (word << 6) + numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+
+        return stages[ordinal];
+      }
+    };
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import de.sayayi.lib.stagerunner.StreamingStageRunner;
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+
+
+/**
+ * Streaming stage runner with a bounded queue and a number of workers for each stage.
+ * <p>
+ * Each data item is processed by its own stage context. A worker executes all consecutive stage functions of its
+ * stage and then puts the data item into the queue of the stage of the next stage function. As stages are
+ * processed in enum order, queues are only ever waited on downstream, which propagates backpressure to the
+ * submitting thread without the risk of a deadlock.
+ *
+ * @param <S>  Stage enum type
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StreamingStageRunnerImpl<S extends Enum<S>> implements StreamingStageRunner<S>
+{
+  private final AbstractStageRunnerFactory<S> stageRunnerFactory;
+  private final StageRunnerCallback<S> callback;
+  private final BlockingQueue<Item>[] queues;
+  private final int workersPerStage;
+
+  /** Data items in submission order, or {@code null} if results are completed in any order. */
+  private final ArrayDeque<Item> orderedItems;
+  private final Item poison;
+
+  private int inFlight;
+  private boolean closed;
+  private boolean completing;
+
+
+  StreamingStageRunnerImpl(@NotNull AbstractStageRunnerFactory<S> stageRunnerFactory, int queueCapacity,
+                           int workersPerStage, boolean ordered, @NotNull StageRunnerCallback<S> callback,
+                           @NotNull Executor executor)
+  {
+    final var stages = stageRunnerFactory.stageEnumType.getEnumConstants();
+
+    this.stageRunnerFactory = stageRunnerFactory;
+    this.callback = callback;
+    this.workersPerStage = workersPerStage;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final BlockingQueue<Item>[] stageQueues = new BlockingQueue[stages.length];
+
+    queues = stageQueues;
+    orderedItems = ordered ? new ArrayDeque<>() : null;
+    poison = new Item(null);
+
+    for(var stage: stages)
+    {
+      final var queue = queues[stage.ordinal()] = new ArrayBlockingQueue<>(queueCapacity);
+
+      for(int n = 0; n < workersPerStage; n++)
+        executor.execute(() -> work(stage, queue));
+    }
+  }
+
+
+  @Override
+  public @NotNull CompletableFuture<Boolean> submit(@NotNull Map<String,Object> data) throws InterruptedException {
+    return submit(data, Long.MAX_VALUE, DAYS);
+  }
+
+
+  @Override
+  public CompletableFuture<Boolean> submit(@NotNull Map<String,Object> data, long timeout, @NotNull TimeUnit unit)
+      throws InterruptedException
+  {
+    final var item = new Item(stageRunnerFactory.acquireStageContext(data));
+
+    synchronized(this) {
+      if (closed)
+      {
+        stageRunnerFactory.releaseStageContext(item.stageContext);
+        throw new StageRunnerException("streaming stage runner has been closed");
+      }
+
+      inFlight++;
+
+      if (orderedItems != null)
+        orderedItems.add(item);
+    }
+
+    try {
+      final S stage;
+
+      if (!item.stageContext.begin(callback) || (stage = item.stageContext.peekNextStage()) == null)
+        finish(item);
+      else if (!queues[stage.ordinal()].offer(item, timeout, unit))
+      {
+        item.timedOut = true;
+        finish(item);
+
+        return null;
+      }
+    } catch(InterruptedException ex) {
+      item.timedOut = true;
+      finish(item);
+
+      throw ex;
+    } catch(Throwable ex) {
+      item.failure = ex;
+      finish(item);
+    }
+
+    return item.result;
+  }
+
+
+  @Override
+  public void close()
+  {
+    var interrupted = false;
+
+    synchronized(this) {
+      if (closed)
+        return;
+
+      closed = true;
+
+      while(inFlight > 0)
+        try {
+          wait();
+        } catch(InterruptedException ex) {
+          interrupted = true;
+        }
+    }
+
+    for(var queue: queues)
+      for(int n = 0; n < workersPerStage; n++)
+        queue.add(poison);
+
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+
+  private void work(@NotNull S stage, @NotNull BlockingQueue<Item> queue)
+  {
+    try {
+      for(Item item; (item = queue.take()) != poison;)
+        process(stage, item);
+    } catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+  private void process(@NotNull S stage, @NotNull Item item) throws InterruptedException
+  {
+    final var stageContext = item.stageContext;
+    S nextStage;
+
+    try {
+      while((nextStage = stageContext.peekNextStage()) == stage)
+        stageContext.step(callback);
+
+      if (nextStage != null)
+      {
+        queues[nextStage.ordinal()].put(item);
+        return;
+      }
+
+      // finish the run
+      stageContext.step(callback);
+    } catch(InterruptedException ex) {
+      item.failure = ex;
+      finish(item);
+
+      throw ex;
+    } catch(Throwable ex) {
+      item.failure = ex;
+    }
+
+    finish(item);
+  }
+
+
+  private void finish(@NotNull Item item)
+  {
+    final var stageContext = item.stageContext;
+
+    item.success = !stageContext.isAborted();
+    stageRunnerFactory.releaseStageContext(stageContext);
+
+    if (orderedItems == null)
+    {
+      item.complete();
+      completed(1);
+      return;
+    }
+
+    synchronized(this) {
+      item.finished = true;
+
+      // another thread is completing the finished items at the head
+      if (completing)
+        return;
+
+      completing = true;
+    }
+
+    for(int completedItems = 0;; completedItems++)
+    {
+      final Item head;
+
+      synchronized(this) {
+        if ((head = orderedItems.peek()) == null || !head.finished)
+        {
+          completing = false;
+          completed(completedItems);
+          return;
+        }
+
+        orderedItems.poll();
+      }
+
+      head.complete();
+    }
+  }
+
+
+  private synchronized void completed(int completedItems)
+  {
+    if ((inFlight -= completedItems) == 0)
+      notifyAll();
+  }
+
+
+
+
+  private final class Item
+  {
+    final StageContextImpl<S> stageContext;
+    final CompletableFuture<Boolean> result;
+    boolean finished;
+    boolean timedOut;
+    boolean success;
+    Throwable failure;
+
+
+    private Item(StageContextImpl<S> stageContext)
+    {
+      this.stageContext = stageContext;
+
+      result = new CompletableFuture<>();
+    }
+
+
+    private void complete()
+    {
+      if (timedOut)
+        result.cancel(false);
+      else if (failure != null)
+        result.completeExceptionally(failure);
+      else
+        result.complete(success);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+/**
+ * Reads the CPU time and the number of allocated bytes of the current thread.
+ * <p>
+ * CPU time measurement requires module {@code java.management}. Allocation measurement additionally requires module
+ * {@code jdk.management}, providing {@link com.sun.management.ThreadMXBean}. If a measurement is not supported by
+ * the Java runtime, it always reads {@code 0}.
+ * <p>
+ * The JVM does not measure virtual threads: for a virtual thread, both measurements read {@code -1}. Callers must
+ * discard a sample if any of its readings is negative, instead of attributing a difference of {@code 0}.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class ThreadProfiler
+{
+  private static ThreadProfiler instance;
+
+  private final ThreadMXBean threadMXBean;
+  private final boolean cpuTimeSupported;
+  private final boolean allocatedBytesSupported;
+
+
+  private ThreadProfiler()
+  {
+    threadMXBean = ManagementFactory.getThreadMXBean();
+    cpuTimeSupported = enableCpuTime(threadMXBean);
+    allocatedBytesSupported = isModuleReadable("jdk.management") && AllocatedBytes.enable(threadMXBean);
+  }
+
+
+  /**
+   * Returns the thread profiler, enabling thread CPU time and allocation measurement on first access.
+   *
+   * @return  thread profiler, never {@code null}
+   *
+   * @throws StageRunnerConfigurationException  if module {@code java.management} is not available
+   */
+  static synchronized @NotNull ThreadProfiler getInstance()
+  {
+    if (instance == null)
+    {
+      if (!isModuleReadable("java.management"))
+        throw new StageRunnerConfigurationException("profiling requires module java.management");
+
+      instance = new ThreadProfiler();
+    }
+
+    return instance;
+  }
+
+
+  @Contract(pure = true)
+  private static boolean isModuleReadable(@NotNull String moduleName)
+  {
+    final var module = ModuleLayer.boot().findModule(moduleName);
+    return module.isPresent() && ThreadProfiler.class.getModule().canRead(module.get());
+  }
+
+
+  private static boolean enableCpuTime(@NotNull ThreadMXBean threadMXBean)
+  {
+    try {
+      if (!threadMXBean.isCurrentThreadCpuTimeSupported())
+        return false;
+
+      if (!threadMXBean.isThreadCpuTimeEnabled())
+        threadMXBean.setThreadCpuTimeEnabled(true);
+
+      return true;
+    } catch(UnsupportedOperationException | SecurityException ex) {
+      return false;
+    }
+  }
+
+
+  /**
+   * Returns the CPU time of the current thread.
+   *
+   * @return  CPU time in nanoseconds or {@code -1} if the current thread is not measured, e.g. a virtual thread
+   */
+  long getCpuTime() {
+    return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : 0;
+  }
+
+
+  /**
+   * Returns the number of bytes allocated by the current thread.
+   *
+   * @return  number of allocated bytes or {@code -1} if the current thread is not measured, e.g. a virtual thread
+   */
+  long getAllocatedBytes() {
+    return allocatedBytesSupported ? AllocatedBytes.get(threadMXBean) : 0;
+  }
+
+
+
+
+  /**
+   * Access to {@link com.sun.management.ThreadMXBean}, which is only loaded if module {@code jdk.management} is
+   * available.
+   */
+  private static final class AllocatedBytes
+  {
+    private static boolean enable(@NotNull ThreadMXBean threadMXBean)
+    {
+      if (!(threadMXBean instanceof com.sun.management.ThreadMXBean))
+        return false;
+
+      final var sunThreadMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+
+      try {
+        if (!sunThreadMXBean.isThreadAllocatedMemorySupported())
+          return false;
+
+        if (!sunThreadMXBean.isThreadAllocatedMemoryEnabled())
+          sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        return true;
+      } catch(UnsupportedOperationException | SecurityException ex) {
+        return false;
+      }
+    }
+
+
+    private static long get(@NotNull ThreadMXBean threadMXBean)
+    {
+      return ((com.sun.management.ThreadMXBean)threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Executor for {@link ExecutionMode#VIRTUAL_THREADS}.
+ * <p>
+ * This implementation is used on Java versions prior to 21 and falls back to a shared pool of cached daemon
+ * threads. The multi-release jar contains a Java 21 implementation which starts a virtual thread for each task.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class VirtualThreads
+{
+  private VirtualThreads() {
+  }
+
+
+  /**
+   * Returns the executor for running tasks on virtual threads.
+   *
+   * @return  executor, never {@code null}
+   */
+  @Contract(pure = true)
+  static @NotNull Executor executor() {
+    return CachedThreadPool.EXECUTOR;
+  }
+
+
+
+
+  private static final class CachedThreadPool
+  {
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+      var thread = new Thread(runnable, "stage-runner-" + THREAD_NUMBER.incrementAndGet());
+      thread.setDaemon(true);
+
+      return thread;
+    });
+  }
+}
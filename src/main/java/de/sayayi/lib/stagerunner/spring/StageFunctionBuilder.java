@@ -15,6 +15,7 @@
  */
 package de.sayayi.lib.stagerunner.spring;
 
+import de.sayayi.lib.stagerunner.DataLayout;
 import de.sayayi.lib.stagerunner.StageFunction;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
 import org.jetbrains.annotations.Contract;
@@ -38,4 +39,34 @@ public interface StageFunctionBuilder
       @NotNull Map<String,ResolvableType> dataNameTypeMap,
       @NotNull Method stageFunction,
       @NotNull Object bean) throws StageRunnerConfigurationException;
+
+
+  /**
+   * Create a stage function for {@code stageFunction}. Data parameters of the generated stage function may access
+   * the stage data using the data keys provided by {@code dataLayout}.
+   * <p>
+   * The default implementation ignores the data layout and delegates to
+   * {@link #createStageFunction(StageFunctionAnnotation, Map, Method, Object)}.
+   *
+   * @param stageFunctionAnnotation  stage function annotation, not {@code null}
+   * @param dataLayout               data layout of the stage runner interface method, not {@code null}
+   * @param dataNameTypeMap          data name to type map, not {@code null}
+   * @param stageFunction            stage function method, not {@code null}
+   * @param bean                     bean instance, not {@code null}
+   *
+   * @return  stage function, never {@code null}
+   *
+   * @param <S>  stage enumeration type
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default <S extends Enum<S>> @NotNull StageFunction<S> createStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @NotNull DataLayout dataLayout,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      @NotNull Object bean) throws StageRunnerConfigurationException {
+    return createStageFunction(stageFunctionAnnotation, dataNameTypeMap, stageFunction, bean);
+  }
 }
@@ -15,13 +15,18 @@
  */
 package de.sayayi.lib.stagerunner.spring;
 
+import de.sayayi.lib.stagerunner.DataLayout;
 import de.sayayi.lib.stagerunner.StageRunnerCallback;
 import de.sayayi.lib.stagerunner.StageRunnerFactory;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
 import de.sayayi.lib.stagerunner.exception.StageRunnerException;
 import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import de.sayayi.lib.stagerunner.spi.StagePlanCompiler;
 import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import de.sayayi.lib.stagerunner.spring.builder.MethodHandleStageFunctionBuilder;
+import de.sayayi.lib.stagerunner.spring.builder.ReflectiveStageRunnerProxyBuilder;
 import de.sayayi.lib.stagerunner.spring.builder.StageFunctionBuilderImpl;
+import de.sayayi.lib.stagerunner.spring.builder.StagePlanCompilerImpl;
 import de.sayayi.lib.stagerunner.spring.builder.StageRunnerProxyBuilderImpl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,9 +48,11 @@ import org.springframework.core.annotation.AnnotationAttributes;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiFunction;
@@ -66,6 +73,9 @@ import static org.springframework.core.annotation.AnnotatedElementUtils.findMerg
 public class StageRunnerFactoryProcessor<R>
     implements BeanPostProcessor, BeanDefinitionRegistryPostProcessor, BeanFactoryAware, InitializingBean
 {
+  private static final boolean BYTE_BUDDY_PRESENT =
+      ClassUtils.isPresent("net.bytebuddy.ByteBuddy", StageRunnerFactoryProcessor.class.getClassLoader());
+
   protected final Log logger = LogFactory.getLog(StageRunnerFactoryProcessor.class);
 
   protected final Class<R> stageRunnerInterfaceType;
@@ -74,6 +84,7 @@ public class StageRunnerFactoryProcessor<R>
   protected final Method stageRunnerInterfaceMethod;
   protected final String[] dataNames;
   protected final Map<String,ResolvableType> dataNameTypeMap;
+  protected final DataLayout dataLayout;
 
   protected BeanFactory beanFactory;
   protected ConversionService conversionService;
@@ -136,6 +147,18 @@ public class StageRunnerFactoryProcessor<R>
     dataNameTypeMap = Map.copyOf(tmpDataNameTypeMap);
     logger.debug("stage runner data = " + dataNameTypeMap);
 
+    var layoutNames = new ArrayList<String>();
+    var layoutTypes = new ArrayList<Class<?>>();
+
+    for(int p = 0; p < parameterCount; p++)
+      if (dataNames[p] != null)
+      {
+        layoutNames.add(dataNames[p]);
+        layoutTypes.add(parameters[p].getType());
+      }
+
+    dataLayout = DataLayout.of(layoutNames.toArray(String[]::new), layoutTypes.toArray(Class<?>[]::new));
+
     stageFunctionNameGenerator = (stageFunctionAnnotationAttributes,method) ->
         stageFunctionAnnotation.getName(stageFunctionAnnotationAttributes);
   }
@@ -160,13 +183,20 @@ public class StageRunnerFactoryProcessor<R>
   }
 
 
+  /**
+   * Set the default stage runner proxy builder and stage function builder, if not set explicitly. If ByteBuddy is
+   * not available, the reflective proxy builder and the method handle based stage function builder are used
+   * instead.
+   */
   @Override
   public void afterPropertiesSet()
   {
     if (stageRunnerProxyBuilder == null)
     {
       logger.trace("set default stage runner proxy builder");
-      setStageRunnerProxyBuilder(new StageRunnerProxyBuilderImpl(copyInterfaceMethodAnnotations));
+      setStageRunnerProxyBuilder(BYTE_BUDDY_PRESENT
+          ? new StageRunnerProxyBuilderImpl(copyInterfaceMethodAnnotations)
+          : new ReflectiveStageRunnerProxyBuilder());
     }
 
     if (stageFunctionBuilder == null)
@@ -182,7 +212,9 @@ public class StageRunnerFactoryProcessor<R>
       }
 
       logger.trace("set default stage function builder");
-      setStageFunctionBuilder(new StageFunctionBuilderImpl(conversionService));
+      setStageFunctionBuilder(BYTE_BUDDY_PRESENT
+          ? new StageFunctionBuilderImpl(conversionService)
+          : new MethodHandleStageFunctionBuilder(conversionService));
     }
   }
 
@@ -234,7 +266,7 @@ public class StageRunnerFactoryProcessor<R>
     {
       var description = stageFunctionAnnotation.getDescription(stageFunctionAnnotationAttributes);
       var function = stageFunctionBuilder
-          .createStageFunction(stageFunctionAnnotation, dataNameTypeMap, method, bean);
+          .createStageFunction(stageFunctionAnnotation, dataLayout, dataNameTypeMap, method, bean);
 
       if (logger.isDebugEnabled())
       {
@@ -278,6 +310,7 @@ public class StageRunnerFactoryProcessor<R>
         (Class<S>)stageFunctionAnnotation.getStageType(),
         stageRunnerInterfaceType,
         stageRunnerInterfaceMethod,
+        dataLayout,
         dataNames,
         (StageRunnerFactory<S>)stageRunnerFactory);
   }
@@ -325,6 +358,12 @@ public class StageRunnerFactoryProcessor<R>
   }
 
 
+  /**
+   * Set the builder for the stage runner proxy. By default, {@link StageRunnerProxyBuilderImpl} is used, or
+   * {@link ReflectiveStageRunnerProxyBuilder} if ByteBuddy is not available.
+   *
+   * @param stageRunnerProxyBuilder  stage runner proxy builder, not {@code null}
+   */
   public void setStageRunnerProxyBuilder(@NotNull StageRunnerProxyBuilder stageRunnerProxyBuilder)
   {
     Assert.notNull(stageRunnerProxyBuilder, "stageRunnerProxyBuilder must not be null");
@@ -332,6 +371,13 @@ public class StageRunnerFactoryProcessor<R>
   }
 
 
+  /**
+   * Set the builder for stage functions adapting annotated bean methods. By default,
+   * {@link StageFunctionBuilderImpl} is used, or {@link MethodHandleStageFunctionBuilder} if ByteBuddy is not
+   * available.
+   *
+   * @param stageFunctionBuilder  stage function builder, not {@code null}
+   */
   public void setStageFunctionBuilder(@NotNull StageFunctionBuilder stageFunctionBuilder)
   {
     Assert.notNull(stageFunctionBuilder, "stageFunctionBuilder must not be null");
@@ -339,6 +385,22 @@ public class StageRunnerFactoryProcessor<R>
   }
 
 
+  /**
+   * Set the compiler for the execution plan of the stage runner factory. By default, the execution plan is
+   * interpreted.
+   *
+   * @param stagePlanCompiler  stage plan compiler, e.g. {@link StagePlanCompilerImpl}, or {@code null} to interpret
+   *                           the execution plan
+   *
+   * @since 0.3.4
+   *
+   * @see DefaultStageRunnerFactory#setStagePlanCompiler(StagePlanCompiler)
+   */
+  public void setStagePlanCompiler(StagePlanCompiler stagePlanCompiler) {
+    stageRunnerFactory.setStagePlanCompiler(stagePlanCompiler);
+  }
+
+
   public void setStageFunctionFilter(@NotNull StageFunctionFilter stageFunctionFilter)
   {
     Assert.notNull(stageFunctionFilter, "stageFunctionFilter must not be null");
@@ -15,6 +15,7 @@
  */
 package de.sayayi.lib.stagerunner.spring;
 
+import de.sayayi.lib.stagerunner.DataLayout;
 import de.sayayi.lib.stagerunner.StageRunnerFactory;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
 import org.jetbrains.annotations.Contract;
@@ -56,4 +57,39 @@ public interface StageRunnerProxyBuilder
                                                @NotNull String[] dataNames,
                                                @NotNull StageRunnerFactory<S> stageRunnerFactory)
       throws StageRunnerConfigurationException;
+
+
+  /**
+   * Create and initialize a proxy stage runner, which passes the stage runner interface method parameters as
+   * {@link de.sayayi.lib.stagerunner.StageData StageData} using {@code dataLayout}.
+   * <p>
+   * The default implementation ignores the data layout and delegates to
+   * {@link #createProxy(Class, Class, Method, String[], StageRunnerFactory)}.
+   *
+   * @param stageType                   stage enumeration type, not {@code null}
+   * @param stageRunnerInterfaceType    stage runner interface type, not {@code null}
+   * @param stageRunnerInterfaceMethod  functional interface method of {@code stageRunnerInterfaceType}, not {@code null}
+   * @param dataLayout                  data layout containing all non-null data names, not {@code null}
+   * @param dataNames                   data names array, not {@code null}
+   * @param stageRunnerFactory          stage runner factory instance, not {@code null}
+   *
+   * @return  stage runner proxy instance, never {@code null}
+   *
+   * @param <R>  stage runner interface type, not {@code null}
+   * @param <S>  stage enumeration type, not {@code null}
+   *
+   * @since 0.3.4
+   */
+  @Contract(pure = true)
+  default <R,S extends Enum<S>> @NotNull R createProxy(@NotNull Class<S> stageType,
+                                                       @NotNull Class<R> stageRunnerInterfaceType,
+                                                       @NotNull Method stageRunnerInterfaceMethod,
+                                                       @NotNull DataLayout dataLayout,
+                                                       @NotNull String[] dataNames,
+                                                       @NotNull StageRunnerFactory<S> stageRunnerFactory)
+      throws StageRunnerConfigurationException
+  {
+    return createProxy(stageType, stageRunnerInterfaceType, stageRunnerInterfaceMethod, dataNames,
+        stageRunnerFactory);
+  }
 }
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.DataKey;
+import de.sayayi.lib.stagerunner.DataLayout;
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import de.sayayi.lib.stagerunner.spring.StageFunctionAnnotation;
+import de.sayayi.lib.stagerunner.spring.StageFunctionBuilder;
+import de.sayayi.lib.stagerunner.spring.builder.StageFunctionParameterResolver.NameWithQualifierAndType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import static de.sayayi.lib.stagerunner.spring.builder.StageFunctionParameterResolver.createDataKeys;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.identity;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodHandles.privateLookupIn;
+import static java.lang.invoke.MethodHandles.publicLookup;
+import static java.lang.invoke.MethodType.methodType;
+
+
+/**
+ * Stage function builder, which adapts stage function methods using method handles instead of generating classes.
+ * It does not require ByteBuddy and creates stage functions considerably faster than
+ * {@link StageFunctionBuilderImpl}.
+ * <p>
+ * A method with the stage context as its only parameter is adapted using {@link LambdaMetafactory}, so the stage
+ * function invokes the method directly. For any other method, the stage function invokes a method handle, which
+ * fetches each parameter from the stage context using constant method handles bound to its data name or data key,
+ * followed by conversion, null check and unboxing, as required by the parameter type.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class MethodHandleStageFunctionBuilder implements StageFunctionBuilder
+{
+  private static final Log LOGGER = LogFactory.getLog(MethodHandleStageFunctionBuilder.class);
+
+  /** {@code (StageContext, String) -> Object} */
+  private static final MethodHandle GET_DATA;
+
+  /** {@code (StageContext, DataKey) -> Object} */
+  private static final MethodHandle GET_DATA_BY_KEY;
+
+  /** {@code (StageContext, DataKey) -> int|long|double}, by primitive data key type. */
+  private static final Map<Class<?>,MethodHandle> GET_PRIMITIVE_DATA;
+
+  /** {@code (ConversionService, TypeDescriptor, Object) -> Object} */
+  private static final MethodHandle CONVERT;
+
+  /** {@code (String, Object) -> Object} */
+  private static final MethodHandle REQUIRE_NOT_NULL;
+
+  static
+  {
+    final var lookup = MethodHandles.lookup();
+
+    try {
+      GET_DATA = lookup.findVirtual(StageContext.class, "getData", methodType(Object.class, String.class));
+      GET_DATA_BY_KEY = lookup.findVirtual(StageContext.class, "getData", methodType(Object.class, DataKey.class));
+      GET_PRIMITIVE_DATA = Map.of(
+          int.class, lookup.findVirtual(StageContext.class, "getIntData", methodType(int.class, DataKey.class)),
+          long.class, lookup.findVirtual(StageContext.class, "getLongData", methodType(long.class, DataKey.class)),
+          double.class,
+          lookup.findVirtual(StageContext.class, "getDoubleData", methodType(double.class, DataKey.class)));
+      CONVERT = lookup.findStatic(MethodHandleStageFunctionBuilder.class, "convert",
+          methodType(Object.class, ConversionService.class, TypeDescriptor.class, Object.class));
+      REQUIRE_NOT_NULL = lookup.findStatic(MethodHandleStageFunctionBuilder.class, "requireNotNull",
+          methodType(Object.class, String.class, Object.class));
+    } catch(ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final ConversionService conversionService;
+  private final StageFunctionParameterResolver parameterResolver;
+
+
+  public MethodHandleStageFunctionBuilder(@NotNull ConversionService conversionService)
+  {
+    this.conversionService = conversionService;
+
+    parameterResolver = new StageFunctionParameterResolver(conversionService);
+  }
+
+
+  @Override
+  public @NotNull <S extends Enum<S>> StageFunction<S> createStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      @NotNull Object bean) {
+    return buildStageFunction(stageFunctionAnnotation, null, dataNameTypeMap, stageFunction, bean);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The stage function accesses its data parameters using the data keys of {@code dataLayout}, which is an array
+   * access if the stage runner has been started with {@link de.sayayi.lib.stagerunner.StageData StageData} of the
+   * same layout.
+   */
+  @Override
+  public @NotNull <S extends Enum<S>> StageFunction<S> createStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @NotNull DataLayout dataLayout,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      @NotNull Object bean) {
+    return buildStageFunction(stageFunctionAnnotation, dataLayout, dataNameTypeMap, stageFunction, bean);
+  }
+
+
+  private @NotNull <S extends Enum<S>> StageFunction<S> buildStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @Nullable DataLayout dataLayout,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      Object bean)
+  {
+    var parameters = parameterResolver.resolve(stageFunctionAnnotation, dataNameTypeMap, stageFunction);
+
+    if (Modifier.isStatic(stageFunction.getModifiers()))
+      bean = null;
+
+    if (parameters.length == 1 && "$context".equals(parameters[0].name))
+    {
+      final StageFunction<S> function = createLambdaStageFunction(stageFunction, bean);
+      if (function != null)
+        return function;
+    }
+
+    try {
+      var target = publicLookup().unreflect(stageFunction);
+      if (bean != null)
+        target = target.bindTo(bean);
+
+      return new MethodHandleStageFunction<>(
+          adapt(target, parameters, dataLayout == null ? null : createDataKeys(dataLayout, parameters)),
+          stageFunction);
+    } catch(IllegalAccessException ex) {
+      throw new StageRunnerConfigurationException("failed to create stage function for method " + stageFunction, ex);
+    }
+  }
+
+
+  /**
+   * Create a stage function for a method with the stage context as its only parameter, using
+   * {@link LambdaMetafactory}. The lambda class is defined in the declaring class of the method.
+   *
+   * @return  stage function or {@code null} if the lambda class could not be created
+   */
+  @Contract(pure = true)
+  @SuppressWarnings("unchecked")
+  private static <S extends Enum<S>> StageFunction<S> createLambdaStageFunction(@NotNull Method stageFunction,
+                                                                                Object bean)
+  {
+    final var declaringClass = stageFunction.getDeclaringClass();
+    final var processType = methodType(void.class, StageContext.class);
+    final MethodHandle factory;
+
+    try {
+      // a private lookup in a named module requires this module to read it
+      final var module = MethodHandleStageFunctionBuilder.class.getModule();
+      if (!module.canRead(declaringClass.getModule()))
+        module.addReads(declaringClass.getModule());
+
+      final var caller = privateLookupIn(declaringClass, MethodHandles.lookup());
+
+      factory = LambdaMetafactory
+          .metafactory(caller, "process",
+              bean == null ? methodType(StageFunction.class) : methodType(StageFunction.class, declaringClass),
+              processType, caller.unreflect(stageFunction), processType)
+          .getTarget();
+    } catch(ReflectiveOperationException | LambdaConversionException | IllegalArgumentException ex) {
+      // e.g. the declaring class is in a module, which is not open to this module
+      if (LOGGER.isDebugEnabled())
+        LOGGER.debug("adapt stage function " + stageFunction + " using a method handle: " + ex);
+
+      return null;
+    }
+
+    try {
+      return (StageFunction<S>)(bean == null ? factory.invoke() : factory.invoke(bean));
+    } catch(Throwable ex) {
+      throw new StageRunnerConfigurationException("failed to create stage function for method " + stageFunction, ex);
+    }
+  }
+
+
+  /**
+   * Adapt {@code target} to a method handle of type {@code (StageContext) -> void}, which fetches each parameter
+   * from the stage context and discards the return value.
+   */
+  @Contract(pure = true)
+  private @NotNull MethodHandle adapt(@NotNull MethodHandle target, @NotNull NameWithQualifierAndType[] parameters,
+                                      DataKey<?>[] dataKeys)
+  {
+    final var targetType = target.type();
+    final var fetchers = new MethodHandle[parameters.length];
+
+    for(int p = 0; p < parameters.length; p++)
+    {
+      fetchers[p] = parameterFetcher(parameters[p], targetType.parameterType(p),
+          dataKeys == null ? null : dataKeys[p]);
+    }
+
+    // (StageContext, ..., StageContext) -> void
+    final var handle = filterArguments(target.asType(targetType.changeReturnType(void.class)), 0, fetchers);
+
+    // pass the stage context to all fetchers
+    return permuteArguments(handle, methodType(void.class, StageContext.class), new int[parameters.length]);
+  }
+
+
+  /**
+   * Returns a method handle of type {@code (StageContext) -> parameterType}, providing the value for
+   * {@code parameter}.
+   */
+  @Contract(pure = true)
+  private @NotNull MethodHandle parameterFetcher(@NotNull NameWithQualifierAndType parameter,
+                                                 @NotNull Class<?> parameterType, DataKey<?> dataKey)
+  {
+    final var fetcherType = methodType(parameterType, StageContext.class);
+
+    if ("$context".equals(parameter.name))
+      return identity(StageContext.class).asType(fetcherType);
+
+    final var convertible = parameter.isConvertableQualifier();
+
+    // read from the primitive lane of the data key, without boxing
+    if (dataKey != null && !convertible && dataKey.getType() == parameterType &&
+        GET_PRIMITIVE_DATA.containsKey(parameterType))
+      return insertArguments(GET_PRIMITIVE_DATA.get(parameterType), 1, dataKey);
+
+    var fetcher = dataKey != null
+        ? insertArguments(GET_DATA_BY_KEY, 1, dataKey)
+        : insertArguments(GET_DATA, 1, parameter.name);
+
+    if (convertible)
+      fetcher = filterReturnValue(fetcher, insertArguments(CONVERT, 0, conversionService, parameter.type));
+
+    if (parameterType.isPrimitive())
+    {
+      fetcher = filterReturnValue(fetcher, insertArguments(REQUIRE_NOT_NULL, 0, parameter.name))
+          .asType(fetcherType.wrap().changeParameterType(0, StageContext.class));
+    }
+
+    return fetcher.asType(fetcherType);
+  }
+
+
+  @SuppressWarnings("unused")
+  private static Object convert(@NotNull ConversionService conversionService, @NotNull TypeDescriptor targetType,
+                                Object value) {
+    return conversionService.convert(value, TypeDescriptor.forObject(value), targetType);
+  }
+
+
+  @Contract("_, null -> fail")
+  @SuppressWarnings("unused")
+  private static Object requireNotNull(@NotNull String dataName, Object value)
+  {
+    if (value == null)
+      throw new StageRunnerException("Data value '" + dataName + "' must not be null");
+
+    return value;
+  }
+
+
+
+
+  private static final class MethodHandleStageFunction<S extends Enum<S>> implements StageFunction<S>
+  {
+    /** {@code (StageContext) -> void} */
+    private final MethodHandle handle;
+    private final Method method;
+
+
+    private MethodHandleStageFunction(@NotNull MethodHandle handle, @NotNull Method method)
+    {
+      this.handle = handle;
+      this.method = method;
+    }
+
+
+    @Override
+    public void process(@NotNull StageContext<S> stageContext)
+    {
+      try {
+        handle.invokeExact((StageContext<?>)stageContext);
+      } catch(Throwable ex) {
+        throw MethodHandleStageFunction.<RuntimeException>rethrow(ex);
+      }
+    }
+
+
+    /**
+     * Rethrow {@code exception} unchanged, including checked exceptions thrown by the stage function method.
+     */
+    @Contract("_ -> fail")
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException rethrow(@NotNull Throwable exception) throws T {
+      throw (T)exception;
+    }
+
+
+    @Override
+    public String toString() {
+      return StageFunction.class.getSimpleName() + " adapter for " + method;
+    }
+  }
+}
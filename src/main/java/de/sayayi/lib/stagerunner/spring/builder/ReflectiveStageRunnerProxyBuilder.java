@@ -0,0 +1,329 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.DataLayout;
+import de.sayayi.lib.stagerunner.StageData;
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import de.sayayi.lib.stagerunner.StageRunnerFactory;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import de.sayayi.lib.stagerunner.spring.FactoryAccessor;
+import de.sayayi.lib.stagerunner.spring.StageRunnerProxyBuilder;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodHandles.privateLookupIn;
+import static java.util.Collections.unmodifiableMap;
+
+
+/**
+ * Stage runner proxy builder, which creates proxies using {@link Proxy java.lang.reflect.Proxy} instead of
+ * generating classes. It does not require ByteBuddy and is considerably faster in creating the proxy.
+ * <p>
+ * The proxy is reflective: each call of the stage runner interface method is dispatched through an
+ * {@link InvocationHandler}, which allocates an {@code Object[]} for the arguments and receives primitive arguments
+ * boxed. With a {@link DataLayout}, the primitive arguments are unboxed again into the stage data lanes. For stage
+ * runner interfaces called at high rates, the ByteBuddy generated proxy of {@link StageRunnerProxyBuilderImpl}
+ * avoids these allocations.
+ * <p>
+ * As the proxy class is created by the JDK, annotations of the stage runner interface method are never copied to
+ * the proxy.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class ReflectiveStageRunnerProxyBuilder implements StageRunnerProxyBuilder
+{
+  @Override
+  public @NotNull <R,S extends Enum<S>> R createProxy(@NotNull Class<S> stageType,
+                                                      @NotNull Class<R> stageRunnerInterfaceType,
+                                                      @NotNull Method stageRunnerInterfaceMethod,
+                                                      @NotNull String[] dataNames,
+                                                      @NotNull StageRunnerFactory<S> stageRunnerFactory) {
+    return buildProxy(stageRunnerInterfaceType, stageRunnerInterfaceMethod, null, dataNames, stageRunnerFactory);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The proxy stores the parameter values in the stage data lanes, in slot order, and runs the stage runner with
+   * {@link StageData}.
+   */
+  @Override
+  public @NotNull <R,S extends Enum<S>> R createProxy(@NotNull Class<S> stageType,
+                                                      @NotNull Class<R> stageRunnerInterfaceType,
+                                                      @NotNull Method stageRunnerInterfaceMethod,
+                                                      @NotNull DataLayout dataLayout,
+                                                      @NotNull String[] dataNames,
+                                                      @NotNull StageRunnerFactory<S> stageRunnerFactory) {
+    return buildProxy(stageRunnerInterfaceType, stageRunnerInterfaceMethod, dataLayout, dataNames,
+        stageRunnerFactory);
+  }
+
+
+  @Contract(pure = true)
+  private <R,S extends Enum<S>> @NotNull R buildProxy(@NotNull Class<R> stageRunnerInterfaceType,
+                                                      @NotNull Method stageRunnerInterfaceMethod,
+                                                      @Nullable DataLayout dataLayout,
+                                                      @NotNull String[] dataNames,
+                                                      @NotNull StageRunnerFactory<S> stageRunnerFactory)
+  {
+    var handler = new ProxyInvocationHandler<>(stageRunnerInterfaceType, stageRunnerInterfaceMethod, dataLayout,
+        dataNames, stageRunnerFactory);
+
+    try {
+      return stageRunnerInterfaceType.cast(Proxy.newProxyInstance(stageRunnerInterfaceType.getClassLoader(),
+          new Class<?>[] { stageRunnerInterfaceType, FactoryAccessor.class }, handler));
+    } catch(Exception ex) {
+      throw new StageRunnerConfigurationException("failed to create proxy for stage runner interface " +
+          stageRunnerInterfaceType, ex);
+    }
+  }
+
+
+
+
+  private static final class ProxyInvocationHandler<S extends Enum<S>> implements InvocationHandler
+  {
+    /** Component types of the stage data lanes, in {@code StageData} constructor parameter order. */
+    private static final Class<?>[] LANE_TYPES = { Object.class, int.class, long.class, double.class };
+
+    private final String interfaceName;
+    private final Method method;
+    private final DataLayout dataLayout;
+    private final String[] dataNames;
+    private final StageRunnerFactory<S> factory;
+
+    /** Stage data lane for each data parameter, or {@code -1} if the parameter is not stored. */
+    private final int[] parameterLanes;
+
+    /** Stage data slot for each data parameter. */
+    private final int[] parameterSlots;
+
+    /** Number of slots for each stage data lane. */
+    private final int[] laneSizes;
+
+    private final int callbackParameterIndex;
+    private final Map<Method,MethodHandle> defaultMethodHandles = new ConcurrentHashMap<>();
+
+
+    private ProxyInvocationHandler(@NotNull Class<?> stageRunnerInterfaceType, @NotNull Method method,
+                                   DataLayout dataLayout, @NotNull String[] dataNames,
+                                   @NotNull StageRunnerFactory<S> factory)
+    {
+      this.method = method;
+      this.dataLayout = dataLayout;
+      this.dataNames = dataNames;
+      this.factory = factory;
+
+      interfaceName = stageRunnerInterfaceType.getName();
+
+      var parameterTypes = method.getParameterTypes();
+      parameterLanes = new int[parameterTypes.length];
+      parameterSlots = new int[parameterTypes.length];
+      laneSizes = new int[LANE_TYPES.length];
+
+      if (dataLayout != null)
+      {
+        for(var key: dataLayout.getKeys())
+          laneSizes[laneOf(key.getType())]++;
+      }
+
+      int callbackParameter = -1;
+
+      for(int p = 0; p < parameterTypes.length; p++)
+      {
+        var dataName = dataNames[p];
+        parameterLanes[p] = -1;
+
+        if (dataName != null && dataLayout != null)
+        {
+          var key = dataLayout.findKey(dataName);
+          if (key == null)
+            throw new StageRunnerConfigurationException("data name '" + dataName + "' missing in " + dataLayout);
+
+          var lane = laneOf(key.getType());
+          if (lane != 0 && parameterTypes[p] != LANE_TYPES[lane])
+          {
+            throw new StageRunnerConfigurationException("parameter " + method.getParameters()[p] +
+                " does not match type " + key.getType().getName() + " of data '" + dataName + "'");
+          }
+
+          parameterLanes[p] = lane;
+          parameterSlots[p] = key.getSlot();
+        }
+
+        if (callbackParameter == -1 && StageRunnerCallback.class.isAssignableFrom(parameterTypes[p]))
+          callbackParameter = p;
+      }
+
+      callbackParameterIndex = callbackParameter;
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method invokedMethod, Object[] args) throws Throwable
+    {
+      if (method.equals(invokedMethod))
+      {
+        var runner = factory.createRunner();
+        boolean result;
+
+        if (dataLayout != null)
+        {
+          result = callbackParameterIndex == -1
+              ? runner.run(buildStageData(args))
+              : runner.run(buildStageData(args), (StageRunnerCallback<S>)args[callbackParameterIndex]);
+        }
+        else
+        {
+          result = callbackParameterIndex == -1
+              ? runner.run(buildMap(args))
+              : runner.run(buildMap(args), (StageRunnerCallback<S>)args[callbackParameterIndex]);
+        }
+
+        return method.getReturnType() == void.class ? null : result;
+      }
+
+      switch(invokedMethod.getName())
+      {
+        case "getStageRunnerFactory":
+          if (invokedMethod.getParameterCount() == 0)
+            return factory;
+          break;
+
+        case "toString":
+          if (invokedMethod.getParameterCount() == 0)
+            return "Proxy implementation for interface " + interfaceName;
+          break;
+
+        case "hashCode":
+          if (invokedMethod.getParameterCount() == 0)
+            return System.identityHashCode(proxy);
+          break;
+
+        case "equals":
+          if (invokedMethod.getParameterCount() == 1 && invokedMethod.getParameterTypes()[0] == Object.class)
+            return proxy == args[0];
+          break;
+      }
+
+      if (invokedMethod.isDefault())
+      {
+        return defaultMethodHandles
+            .computeIfAbsent(invokedMethod, ProxyInvocationHandler::findDefaultMethod)
+            .bindTo(proxy)
+            .invokeWithArguments(args == null ? new Object[0] : args);
+      }
+
+      throw new UnsupportedOperationException(invokedMethod.toString());
+    }
+
+
+    /**
+     * Build {@code new StageData(layout, new Object[] { ... }, new int[] { ... }, new long[] { ... },
+     * new double[] { ... })} with each data parameter stored at the slot assigned to its data name. Empty primitive
+     * lanes are passed as {@code null}.
+     */
+    @Contract(pure = true)
+    private @NotNull StageData buildStageData(Object[] args)
+    {
+      var values = new Object[laneSizes[0]];
+      var ints = laneSizes[1] == 0 ? null : new int[laneSizes[1]];
+      var longs = laneSizes[2] == 0 ? null : new long[laneSizes[2]];
+      var doubles = laneSizes[3] == 0 ? null : new double[laneSizes[3]];
+
+      // args is null for a method without parameters
+      for(int p = 0, n = args == null ? 0 : args.length; p < n; p++)
+        switch(parameterLanes[p])
+        {
+          case 0:
+            values[parameterSlots[p]] = args[p];
+            break;
+
+          case 1:
+            //noinspection DataFlowIssue
+            ints[parameterSlots[p]] = (Integer)args[p];
+            break;
+
+          case 2:
+            //noinspection DataFlowIssue
+            longs[parameterSlots[p]] = (Long)args[p];
+            break;
+
+          case 3:
+            //noinspection DataFlowIssue
+            doubles[parameterSlots[p]] = (Double)args[p];
+            break;
+        }
+
+      return new StageData(dataLayout, values, ints, longs, doubles);
+    }
+
+
+    @Contract(pure = true)
+    private @NotNull Map<String,Object> buildMap(Object[] args)
+    {
+      if (args == null)
+        return Map.of();
+
+      var data = new HashMap<String,Object>();
+
+      for(int p = 0; p < args.length; p++)
+        if (dataNames[p] != null)
+          data.put(dataNames[p], args[p]);
+
+      // unlike Map.copyOf, the view accepts null arguments
+      return data.isEmpty() ? Map.of() : unmodifiableMap(data);
+    }
+
+
+    @Contract(pure = true)
+    private static int laneOf(@NotNull Class<?> type)
+    {
+      for(int lane = 1; lane < LANE_TYPES.length; lane++)
+        if (LANE_TYPES[lane] == type)
+          return lane;
+
+      return 0;
+    }
+
+
+    @Contract(pure = true)
+    private static @NotNull MethodHandle findDefaultMethod(@NotNull Method method)
+    {
+      var declaringClass = method.getDeclaringClass();
+
+      try {
+        return privateLookupIn(declaringClass, lookup()).unreflectSpecial(method, declaringClass);
+      } catch(IllegalAccessException ex) {
+        throw new StageRunnerConfigurationException("failed to access default method " + method, ex);
+      }
+    }
+  }
+}
@@ -15,13 +15,16 @@
  */
 package de.sayayi.lib.stagerunner.spring.builder;
 
+import de.sayayi.lib.stagerunner.DataKey;
+import de.sayayi.lib.stagerunner.DataLayout;
 import de.sayayi.lib.stagerunner.StageContext;
 import de.sayayi.lib.stagerunner.StageFunction;
 import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
 import de.sayayi.lib.stagerunner.exception.StageRunnerException;
 import de.sayayi.lib.stagerunner.spring.StageFunctionAnnotation;
 import de.sayayi.lib.stagerunner.spring.StageFunctionBuilder;
-import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import de.sayayi.lib.stagerunner.spring.builder.StageFunctionParameterResolver.NameWithQualifier;
+import de.sayayi.lib.stagerunner.spring.builder.StageFunctionParameterResolver.NameWithQualifierAndType;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.modifier.MethodManifestation;
@@ -33,6 +36,7 @@ import net.bytebuddy.implementation.bytecode.Removal;
 import net.bytebuddy.implementation.bytecode.StackManipulation;
 import net.bytebuddy.implementation.bytecode.assign.TypeCasting;
 import net.bytebuddy.implementation.bytecode.assign.primitive.PrimitiveUnboxingDelegate;
+import net.bytebuddy.implementation.bytecode.collection.ArrayAccess;
 import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
 import net.bytebuddy.implementation.bytecode.constant.TextConstant;
 import net.bytebuddy.implementation.bytecode.member.FieldAccess;
@@ -43,27 +47,25 @@ import net.bytebuddy.jar.asm.MethodVisitor;
 import net.bytebuddy.jar.asm.Opcodes;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.core.MethodParameter;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.core.ResolvableType;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.core.convert.TypeDescriptor;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static de.sayayi.lib.stagerunner.spring.builder.StageFunctionParameterResolver.createDataKeys;
 import static net.bytebuddy.description.modifier.TypeManifestation.FINAL;
 import static net.bytebuddy.description.modifier.Visibility.PUBLIC;
 import static net.bytebuddy.dynamic.loading.ClassLoadingStrategy.Default.INJECTION;
 import static net.bytebuddy.matcher.ElementMatchers.isToString;
 import static net.bytebuddy.matcher.ElementMatchers.named;
-import static org.springframework.core.ResolvableType.forClassWithGenerics;
-import static org.springframework.core.annotation.AnnotatedElementUtils.findMergedAnnotation;
-import static org.springframework.util.StringUtils.hasLength;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
 
 
 /**
@@ -73,6 +75,7 @@ import static org.springframework.util.StringUtils.hasLength;
 public final class StageFunctionBuilderImpl extends AbstractBuilder implements StageFunctionBuilder
 {
   private final ConversionService conversionService;
+  private final StageFunctionParameterResolver parameterResolver;
   private final Map<CacheKey,Class<? extends StageFunction<?>>> stageFunctionClassCache;
 
 
@@ -80,6 +83,8 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
   {
     this.conversionService = conversionService;
 
+    parameterResolver = new StageFunctionParameterResolver(conversionService);
+
     stageFunctionClassCache = new ConcurrentHashMap<>();
   }
 
@@ -89,32 +94,48 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
       @NotNull StageFunctionAnnotation stageFunctionAnnotation,
       @NotNull Map<String,ResolvableType> dataNameTypeMap,
       @NotNull Method stageFunction,
-      @NotNull Object bean)
-  {
-    var methodParameters = stageFunction.getParameters();
-    var parameters = new NameWithQualifierAndType[methodParameters.length];
-    var stageContextType = forClassWithGenerics(
-        StageContext.class, stageFunctionAnnotation.getStageType());
+      @NotNull Object bean) {
+    return buildStageFunction(stageFunctionAnnotation, null, dataNameTypeMap, stageFunction, bean);
+  }
 
-    for(int p = 0; p < methodParameters.length; p++)
-    {
-      var parameterType = new TypeDescriptor(new MethodParameter(stageFunction, p));
 
-      parameters[p] = new NameWithQualifierAndType(
-          parameterType.getResolvableType().isAssignableFrom(stageContextType)
-              ? new NameWithQualifier("$context", TypeQualifier.ASSIGNABLE)
-              : findNameWithQualifier(methodParameters[p], parameterType, dataNameTypeMap),
-          parameterType);
-    }
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The generated stage function accesses its data parameters using the data keys of {@code dataLayout}, which is
+   * an array access if the stage runner has been started with {@link de.sayayi.lib.stagerunner.StageData StageData}
+   * of the same layout.
+   */
+  @Override
+  public @NotNull <S extends Enum<S>> StageFunction<S> createStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @NotNull DataLayout dataLayout,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      @NotNull Object bean) {
+    return buildStageFunction(stageFunctionAnnotation, dataLayout, dataNameTypeMap, stageFunction, bean);
+  }
+
+
+  private @NotNull <S extends Enum<S>> StageFunction<S> buildStageFunction(
+      @NotNull StageFunctionAnnotation stageFunctionAnnotation,
+      @Nullable DataLayout dataLayout,
+      @NotNull Map<String,ResolvableType> dataNameTypeMap,
+      @NotNull Method stageFunction,
+      Object bean)
+  {
+    var parameters = parameterResolver.resolve(stageFunctionAnnotation, dataNameTypeMap, stageFunction);
 
     var methodDescription = new MethodDescription.ForLoadedMethod(stageFunction);
     if (methodDescription.isStatic())
       bean = null;
 
+    var dataKeys = dataLayout == null ? null : createDataKeys(dataLayout, parameters);
+
     try {
       return Arrays.stream(parameters).anyMatch(NameWithQualifierAndType::isConvertableQualifier)
-          ? buildForWithConversion(bean, methodDescription, parameters, stageFunctionAnnotation)
-          : buildForNoConversion(bean, methodDescription, parameters, stageFunctionAnnotation);
+          ? buildForWithConversion(bean, dataKeys, methodDescription, parameters, stageFunctionAnnotation)
+          : buildForNoConversion(bean, dataKeys, methodDescription, parameters, stageFunctionAnnotation);
     } catch(ReflectiveOperationException ex) {
       throw new StageRunnerConfigurationException(
           "failed to generate stage function for method " + methodDescription, ex);
@@ -122,33 +143,50 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
   }
 
 
+  /**
+   * Returns the declared data key types, indexed by parameter position. The generated stage function class
+   * depends on these types, as {@code int}, {@code long} and {@code double} data is read from its primitive lane.
+   *
+   * @return  data key types array or {@code null} if data must be looked up by name
+   */
+  @Contract(pure = true)
+  private static Class<?>[] dataKeyTypes(DataKey<?>[] dataKeys)
+  {
+    return dataKeys == null
+        ? null
+        : Arrays.stream(dataKeys).map(key -> key == null ? null : key.getType()).toArray(Class<?>[]::new);
+  }
+
+
   private @NotNull <S extends Enum<S>> StageFunction<S> buildForNoConversion(
-      Object bean, @NotNull MethodDescription method, @NotNull NameWithQualifierAndType[] parameters,
-      @NotNull StageFunctionAnnotation stageFunctionAnnotation) throws ReflectiveOperationException
+      Object bean, DataKey<?>[] dataKeys, @NotNull MethodDescription method,
+      @NotNull NameWithQualifierAndType[] parameters, @NotNull StageFunctionAnnotation stageFunctionAnnotation)
+      throws ReflectiveOperationException
   {
     final Class<? extends StageFunction<S>> stageFunctionClass = createStageFunctionType(
         parameterizedType(AbstractStageFunction.class, stageFunctionAnnotation.getStageType()),
-        method, parameters, stageFunctionAnnotation);
+        method, parameters, dataKeyTypes(dataKeys), stageFunctionAnnotation);
 
     return stageFunctionClass
-        .getDeclaredConstructor(Object.class)
-        .newInstance(bean);
+        .getDeclaredConstructor(Object.class, DataKey[].class)
+        .newInstance(bean, dataKeys);
   }
 
 
   private @NotNull <S extends Enum<S>> StageFunction<S> buildForWithConversion(
       Object bean,
+      DataKey<?>[] dataKeys,
       @NotNull MethodDescription method,
       @NotNull NameWithQualifierAndType[] parameters,
       @NotNull StageFunctionAnnotation stageFunctionAnnotation) throws ReflectiveOperationException
   {
     final Class<? extends StageFunction<S>> stageFunctionClass = createStageFunctionType(
         parameterizedType(AbstractStageFunctionWithConversion.class, stageFunctionAnnotation.getStageType()),
-        method, parameters, stageFunctionAnnotation);
+        method, parameters, dataKeyTypes(dataKeys), stageFunctionAnnotation);
 
     return stageFunctionClass
-        .getDeclaredConstructor(Object.class, ConversionService.class, TypeDescriptor[].class)
-        .newInstance(bean, conversionService, Arrays
+        .getDeclaredConstructor(Object.class, DataKey[].class, ConversionService.class, TypeDescriptor[].class)
+        .newInstance(bean, dataKeys, conversionService, Arrays
             .stream(parameters)
             .map(p -> p.isConvertableQualifier() ? p.type : null)
             .toArray(TypeDescriptor[]::new));
@@ -160,12 +198,13 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
       @NotNull TypeDescription.Generic superType,
       @NotNull MethodDescription method,
       @NotNull NameWithQualifierAndType[] parameters,
+      Class<?>[] dataKeyTypes,
       @NotNull StageFunctionAnnotation stageFunctionAnnotation)
   {
     return (Class<? extends StageFunction<S>>)stageFunctionClassCache
         .computeIfAbsent(
-            new CacheKey(method, parameters),
-            ck -> buildStageFunctionClass(superType, method, parameters, stageFunctionAnnotation));
+            new CacheKey(method, parameters, dataKeyTypes),
+            ck -> buildStageFunctionClass(superType, method, parameters, dataKeyTypes, stageFunctionAnnotation));
   }
 
 
@@ -174,6 +213,7 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
       @NotNull TypeDescription.Generic superType,
       @NotNull MethodDescription method,
       @NotNull NameWithQualifierAndType[] parameters,
+      Class<?>[] dataKeyTypes,
       @NotNull StageFunctionAnnotation stageFunctionAnnotation)
   {
     var className = StageFunction.class.getName() +
@@ -188,7 +228,7 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
             .modifiers(PUBLIC, FINAL)
             .defineMethod("process", void.class, PUBLIC, MethodManifestation.FINAL)
                 .withParameter(typeDescription(StageContext.class), "stageContext")
-                .intercept(new ProcessMethodImplementation(method, parameters))
+                .intercept(new ProcessMethodImplementation(method, parameters, dataKeyTypes))
             .method(isToString())
                 .intercept(FixedValue.value(StageFunction.class.getSimpleName() + " adapter for " + method))
             .make()
@@ -197,230 +237,6 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
   }
 
 
-  @Contract(pure = true)
-  private @NotNull NameWithQualifier findNameWithQualifier(@NotNull Parameter parameter,
-                                                           @NotNull TypeDescriptor parameterType,
-                                                           @NotNull Map<String,ResolvableType> dataNameTypeMap)
-  {
-    var nameWithQualifier =
-        findNameWithQualifierByParameterName(parameter, parameterType, dataNameTypeMap);
-
-    if (nameWithQualifier == null &&
-        (nameWithQualifier = findNameWithQualifierByParameterType(parameter, parameterType, dataNameTypeMap)) == null)
-    {
-      throw new StageRunnerConfigurationException("Unknown data type for parameter " + parameter +
-          "; please specify @Data annotation and/or extend the conversion service");
-    }
-
-    return nameWithQualifier;
-  }
-
-
-  @Contract(pure = true)
-  private NameWithQualifier findNameWithQualifierByParameterName(@NotNull Parameter parameter,
-                                                                 @NotNull TypeDescriptor parameterType,
-                                                                 @NotNull Map<String,ResolvableType> dataNameTypeMap)
-  {
-    ResolvableType dataType;
-
-    var dataAnnotation = findMergedAnnotation(parameter, Data.class);
-    if (dataAnnotation != null)
-    {
-      var dataName = dataAnnotation.name();
-      if (!hasLength(dataName))
-        throw new StageRunnerConfigurationException("@Data name must not be empty for parameter " + parameter);
-
-      if ((dataType = dataNameTypeMap.get(dataName)) != null)
-        return new NameWithQualifier(dataName, qualifyParameterTypeOrFail(parameterType, dataType));
-
-      throw new StageRunnerConfigurationException("Unknown @Data name '" + dataName + "' for parameter " + parameter);
-    }
-
-    var parameterName = parameter.getName();
-    if (hasLength(parameterName) && (dataType = dataNameTypeMap.get(parameterName)) != null)
-      return new NameWithQualifier(parameterName, qualifyParameterTypeOrFail(parameterType, dataType));
-
-    return null;
-  }
-
-
-  @Contract(pure = true)
-  private NameWithQualifier findNameWithQualifierByParameterType(@NotNull Parameter parameter,
-                                                                 @NotNull TypeDescriptor parameterType,
-                                                                 @NotNull Map<String,ResolvableType> dataNameTypeMap)
-  {
-    var nameQualifiers = new ArrayList<NameWithQualifier>();
-
-    dataNameTypeMap.forEach((name, type) -> {
-      var q = qualifyParameterType(parameterType, type);
-      if (q != null)
-      {
-        var nwq = new NameWithQualifier(name, q);
-        if (!nameQualifiers.contains(nwq))
-          nameQualifiers.add(nwq);
-      }
-    });
-
-    NameWithQualifier nameWithQualifier = null;
-
-    if (!nameQualifiers.isEmpty())
-    {
-      nameWithQualifier = nameQualifiers.get(0);
-      if (nameQualifiers.size() > 1)
-      {
-        nameQualifiers.sort(null);
-
-        var nwq2 = nameQualifiers.get(1);
-
-        if (nameWithQualifier.qualifier == nwq2.qualifier && !nameWithQualifier.name.equals(nwq2.name))
-        {
-          throw new StageRunnerConfigurationException("Ambiguous type for parameter " + parameter +
-              "; please specify @Data annotation");
-        }
-      }
-    }
-
-    return nameWithQualifier;
-  }
-
-
-  @Contract(pure = true)
-  private TypeQualifier qualifyParameterType(@NotNull TypeDescriptor parameterType,
-                                             @NotNull ResolvableType dataType)
-  {
-    var parameterResolvableType = parameterType.getResolvableType();
-
-    if (parameterResolvableType.getType().equals(dataType.getType()))
-      return TypeQualifier.IDENTICAL;
-
-    if (parameterResolvableType.getRawClass() == Object.class)
-      return TypeQualifier.ANYTHING;
-
-    if (parameterResolvableType.isAssignableFrom(dataType))
-      return TypeQualifier.ASSIGNABLE;
-
-    if (conversionService.canConvert(new TypeDescriptor(dataType, null, null), parameterType))
-      return TypeQualifier.CONVERTABLE;
-
-    return null;
-  }
-
-
-  @Contract(pure = true)
-  private @NotNull TypeQualifier qualifyParameterTypeOrFail(@NotNull TypeDescriptor parameterType,
-                                                            @NotNull ResolvableType dataType)
-  {
-    var qualifier = qualifyParameterType(parameterType, dataType);
-    if (qualifier == null)
-      throw new IllegalStateException("Unsupported parameter type: " + parameterType);
-
-    return qualifier;
-  }
-
-
-
-
-  private static class NameWithQualifierAndType extends NameWithQualifier
-  {
-    final @NotNull TypeDescriptor type;
-
-
-    private NameWithQualifierAndType(@NotNull NameWithQualifier nameWithQualifier, @NotNull TypeDescriptor type)
-    {
-      super(nameWithQualifier.name, nameWithQualifier.qualifier);
-
-      this.type = type;
-    }
-
-
-    @Contract(pure = true)
-    public boolean isConvertableQualifier() {
-      return qualifier == TypeQualifier.CONVERTABLE;
-    }
-
-
-    @Override
-    public boolean equals(Object o)
-    {
-      if (this == o)
-        return true;
-      if (!(o instanceof NameWithQualifierAndType))
-        return false;
-
-      var that = (NameWithQualifierAndType)o;
-
-      return
-          qualifier == that.qualifier &&
-          name.equals(that.name) &&
-          type.getResolvableType().equals(that.type.getResolvableType());
-    }
-
-
-    @Override
-    public int hashCode() {
-      return super.hashCode() * 31 + type.hashCode();
-    }
-
-
-    @Override
-    public String toString() {
-      return "NameWithQualifierAndType(name=" + name + ",qualifier=" + qualifier + ",type=" + type + ')';
-    }
-  }
-
-
-
-
-  private static class NameWithQualifier implements Comparable<NameWithQualifier>
-  {
-    final @NotNull String name;
-    final @NotNull TypeQualifier qualifier;
-
-
-    private NameWithQualifier(@NotNull String name, @NotNull TypeQualifier qualifier)
-    {
-      this.name = name;
-      this.qualifier = qualifier;
-    }
-
-
-    @Override
-    public int compareTo(@NotNull NameWithQualifier o)
-    {
-      int cmp = qualifier.compareTo(o.qualifier);
-      return cmp == 0 ? name.compareTo(o.name) : cmp;
-    }
-
-
-    @Override
-    public boolean equals(Object o)
-    {
-      if (this == o)
-        return true;
-      if (!(o instanceof NameWithQualifier))
-        return false;
-
-      var that = (NameWithQualifier)o;
-
-      return qualifier == that.qualifier && name.equals(that.name);
-    }
-
-
-    @Override
-    public int hashCode() {
-      return name.hashCode() * 31 + qualifier.hashCode();
-    }
-
-
-    @Override
-    public String toString() {
-      return "NameWithQualifier(name=" + name + ",qualifier=" + qualifier + ')';
-    }
-  }
-
-
-
-
   public enum TypeQualifier
   {
     IDENTICAL,
@@ -436,12 +252,15 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
   {
     private final @NotNull MethodDescription method;
     private final @NotNull NameWithQualifierAndType[] parameters;
+    private final Class<?>[] dataKeyTypes;
 
 
-    private CacheKey(@NotNull MethodDescription method, @NotNull NameWithQualifierAndType[] parameters)
+    private CacheKey(@NotNull MethodDescription method, @NotNull NameWithQualifierAndType[] parameters,
+                     Class<?>[] dataKeyTypes)
     {
       this.method = method;
       this.parameters = parameters;
+      this.dataKeyTypes = dataKeyTypes;
     }
 
 
@@ -454,13 +273,16 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
 
       var that = (CacheKey)o;
 
-      return method.equals(that.method) && Arrays.equals(parameters, that.parameters);
+      return
+          method.equals(that.method) &&
+          Arrays.equals(parameters, that.parameters) &&
+          Arrays.equals(dataKeyTypes, that.dataKeyTypes);
     }
 
 
     @Override
     public int hashCode() {
-      return method.hashCode() * 31 + Arrays.hashCode(parameters);
+      return (method.hashCode() * 31 + Arrays.hashCode(parameters)) * 31 + Arrays.hashCode(dataKeyTypes);
     }
   }
 
@@ -470,10 +292,18 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
   public static abstract class AbstractStageFunction<S extends Enum<S>> implements StageFunction<S>
   {
     protected final Object bean;
+    protected final DataKey<?>[] dataKeys;
 
 
     protected AbstractStageFunction(Object bean) {
+      this(bean, null);
+    }
+
+
+    protected AbstractStageFunction(Object bean, DataKey<?>[] dataKeys)
+    {
       this.bean = bean;
+      this.dataKeys = dataKeys;
     }
 
 
@@ -496,10 +326,17 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
 
 
     protected AbstractStageFunctionWithConversion(Object bean,
+                                                  @NotNull ConversionService conversionService,
+                                                  @NotNull TypeDescriptor[] targetTypes) {
+      this(bean, null, conversionService, targetTypes);
+    }
+
+
+    protected AbstractStageFunctionWithConversion(Object bean, DataKey<?>[] dataKeys,
                                                   @NotNull ConversionService conversionService,
                                                   @NotNull TypeDescriptor[] targetTypes)
     {
-      super(bean);
+      super(bean, dataKeys);
 
       this.conversionService = conversionService;
       this.targetTypes = targetTypes;
@@ -523,12 +360,29 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
             .filter(named("bean"))
             .getOnly());
 
+    private static final FieldAccess.Defined FIELD_ACCESS_DATA_KEYS = FieldAccess
+        .forField(typeDescription(AbstractStageFunction.class)
+            .getDeclaredFields()
+            .filter(named("dataKeys"))
+            .getOnly());
+
     private static final MethodDescription METHOD_CONTEXT_GET_DATA =
         typeDescription(StageContext.class)
             .getDeclaredMethods()
-            .filter(named("getData"))
+            .filter(named("getData").and(takesArguments(String.class)))
+            .getOnly();
+
+    private static final MethodDescription METHOD_CONTEXT_GET_DATA_BY_KEY =
+        typeDescription(StageContext.class)
+            .getDeclaredMethods()
+            .filter(named("getData").and(takesArguments(DataKey.class)))
             .getOnly();
 
+    private static final Map<Class<?>,MethodDescription> METHOD_CONTEXT_GET_PRIMITIVE_DATA = Map.of(
+        int.class, contextMethod("getIntData"),
+        long.class, contextMethod("getLongData"),
+        double.class, contextMethod("getDoubleData"));
+
     private static final MethodDescription METHOD_STAGE_FUNCTION_CONVERT =
         typeDescription(AbstractStageFunctionWithConversion.class)
             .getDeclaredMethods()
@@ -552,12 +406,15 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
 
     private final MethodDescription method;
     private final NameWithQualifier[] parameters;
+    private final Class<?>[] dataKeyTypes;
 
 
-    private ProcessMethodImplementation(@NotNull MethodDescription method, @NotNull NameWithQualifier[] parameters)
+    private ProcessMethodImplementation(@NotNull MethodDescription method, @NotNull NameWithQualifier[] parameters,
+                                        Class<?>[] dataKeyTypes)
     {
       this.method = method;
       this.parameters = parameters;
+      this.dataKeyTypes = dataKeyTypes;
     }
 
 
@@ -581,22 +438,21 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
 
         if ("$context".equals(dataName))
           stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
+        else if (isPrimitiveLane(p, methodParameters.get(p).getType()))
+        {
+          // context.get<Type>Data(this.dataKeys[p])
+          stackManipulations.addAll(loadDataKey(p));
+          stackManipulations.add(MethodInvocation.invoke(METHOD_CONTEXT_GET_PRIMITIVE_DATA.get(dataKeyTypes[p])));
+        }
         else
         {
           if (parameter.qualifier != TypeQualifier.CONVERTABLE)
-          {
-            // context.getData(dataName)
-            stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
-            stackManipulations.add(new TextConstant(dataName));
-            stackManipulations.add(MethodInvocation.invoke(METHOD_CONTEXT_GET_DATA));
-          }
+            stackManipulations.addAll(getData(p, dataName));
           else
           {
-            // this.convert(context.getData(dataName), p)
+            // this.convert(<data>, p)
             stackManipulations.add(MethodVariableAccess.loadThis());
-            stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
-            stackManipulations.add(new TextConstant(dataName));
-            stackManipulations.add(MethodInvocation.invoke(METHOD_CONTEXT_GET_DATA));
+            stackManipulations.addAll(getData(p, dataName));
             stackManipulations.add(IntegerConstant.forValue(p));
             stackManipulations.add(MethodInvocation.invoke(METHOD_STAGE_FUNCTION_CONVERT));
           }
@@ -613,6 +469,69 @@ public final class StageFunctionBuilderImpl extends AbstractBuilder implements S
     }
 
 
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> getData(int p, @NotNull String dataName)
+    {
+      var stackManipulations = new ArrayList<StackManipulation>();
+
+      if (dataKeyTypes != null)
+      {
+        // context.getData(this.dataKeys[p])
+        stackManipulations.addAll(loadDataKey(p));
+        stackManipulations.add(MethodInvocation.invoke(METHOD_CONTEXT_GET_DATA_BY_KEY));
+      }
+      else
+      {
+        // context.getData(dataName)
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
+        stackManipulations.add(new TextConstant(dataName));
+        stackManipulations.add(MethodInvocation.invoke(METHOD_CONTEXT_GET_DATA));
+      }
+
+      return stackManipulations;
+    }
+
+
+    @Contract(pure = true)
+    private static @NotNull MethodDescription contextMethod(@NotNull String name)
+    {
+      return typeDescription(StageContext.class)
+          .getDeclaredMethods()
+          .filter(named(name))
+          .getOnly();
+    }
+
+
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> loadDataKey(int p)
+    {
+      return List.of(
+          // context, this.dataKeys[p] -> stack
+          MethodVariableAccess.REFERENCE.loadFrom(1),
+          MethodVariableAccess.loadThis(),
+          FIELD_ACCESS_DATA_KEYS.read(),
+          IntegerConstant.forValue(p),
+          ArrayAccess.REFERENCE.load());
+    }
+
+
+    /**
+     * Tells whether the primitive method parameter {@code p} can be read from the primitive lane of its data key,
+     * in which case the data is neither boxed nor cast.
+     */
+    @Contract(pure = true)
+    private boolean isPrimitiveLane(int p, @NotNull TypeDescription.Generic methodParameterType)
+    {
+      if (dataKeyTypes == null || parameters[p].qualifier == TypeQualifier.CONVERTABLE)
+        return false;
+
+      var dataKeyType = dataKeyTypes[p];
+
+      return METHOD_CONTEXT_GET_PRIMITIVE_DATA.containsKey(dataKeyType) &&
+          methodParameterType.asErasure().represents(dataKeyType);
+    }
+
+
     @Contract(pure = true)
     private @NotNull List<StackManipulation> castToParameterType(@NotNull TypeDescription.Generic methodParameterType,
                                                                  @NotNull String dataName)
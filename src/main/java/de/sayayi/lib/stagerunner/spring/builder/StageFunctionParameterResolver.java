@@ -0,0 +1,345 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.DataKey;
+import de.sayayi.lib.stagerunner.DataLayout;
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import de.sayayi.lib.stagerunner.spring.StageFunctionAnnotation;
+import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import de.sayayi.lib.stagerunner.spring.builder.StageFunctionBuilderImpl.TypeQualifier;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.springframework.core.ResolvableType.forClassWithGenerics;
+import static org.springframework.core.annotation.AnnotatedElementUtils.findMergedAnnotation;
+import static org.springframework.util.StringUtils.hasLength;
+
+
+/**
+ * Resolves the data name and type qualifier for each parameter of a stage function method. The resolver does not
+ * depend on a particular stage function builder implementation.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class StageFunctionParameterResolver
+{
+  private final ConversionService conversionService;
+
+
+  StageFunctionParameterResolver(@NotNull ConversionService conversionService) {
+    this.conversionService = conversionService;
+  }
+
+
+  /**
+   * Resolve the parameters of the given stage function method. A parameter accepting the stage context is
+   * resolved to data name {@code $context}.
+   *
+   * @param stageFunctionAnnotation  stage function annotation, not {@code null}
+   * @param dataNameTypeMap          data name to type map, not {@code null}
+   * @param stageFunction            stage function method, not {@code null}
+   *
+   * @return  resolved parameters, indexed by parameter position, never {@code null}
+   *
+   * @throws StageRunnerConfigurationException  if a parameter could not be resolved
+   */
+  @Contract(pure = true)
+  @NotNull NameWithQualifierAndType[] resolve(@NotNull StageFunctionAnnotation stageFunctionAnnotation,
+                                              @NotNull Map<String,ResolvableType> dataNameTypeMap,
+                                              @NotNull Method stageFunction)
+  {
+    var methodParameters = stageFunction.getParameters();
+    var parameters = new NameWithQualifierAndType[methodParameters.length];
+    var stageContextType = forClassWithGenerics(
+        StageContext.class, stageFunctionAnnotation.getStageType());
+
+    for(int p = 0; p < methodParameters.length; p++)
+    {
+      var parameterType = new TypeDescriptor(new MethodParameter(stageFunction, p));
+
+      parameters[p] = new NameWithQualifierAndType(
+          parameterType.getResolvableType().isAssignableFrom(stageContextType)
+              ? new NameWithQualifier("$context", TypeQualifier.ASSIGNABLE)
+              : findNameWithQualifier(methodParameters[p], parameterType, dataNameTypeMap),
+          parameterType);
+    }
+
+    return parameters;
+  }
+
+
+  /**
+   * Returns the data keys for the data parameters, indexed by parameter position. If {@code dataLayout} does not
+   * provide a slot for each data parameter, the generated stage function must look up its data by name.
+   *
+   * @return  data keys array or {@code null} if data must be looked up by name
+   */
+  @Contract(pure = true)
+  static DataKey<?>[] createDataKeys(@NotNull DataLayout dataLayout, @NotNull NameWithQualifierAndType[] parameters)
+  {
+    var dataKeys = new DataKey<?>[parameters.length];
+
+    for(int p = 0; p < parameters.length; p++)
+    {
+      var dataName = parameters[p].name;
+
+      if (!"$context".equals(dataName))
+      {
+        var key = dataLayout.findKey(dataName);
+        if (key == null)
+          return null;
+
+        dataKeys[p] = key;
+      }
+    }
+
+    return dataKeys;
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull NameWithQualifier findNameWithQualifier(@NotNull Parameter parameter,
+                                                           @NotNull TypeDescriptor parameterType,
+                                                           @NotNull Map<String,ResolvableType> dataNameTypeMap)
+  {
+    var nameWithQualifier =
+        findNameWithQualifierByParameterName(parameter, parameterType, dataNameTypeMap);
+
+    if (nameWithQualifier == null &&
+        (nameWithQualifier = findNameWithQualifierByParameterType(parameter, parameterType, dataNameTypeMap)) == null)
+    {
+      throw new StageRunnerConfigurationException("Unknown data type for parameter " + parameter +
+          "; please specify @Data annotation and/or extend the conversion service");
+    }
+
+    return nameWithQualifier;
+  }
+
+
+  @Contract(pure = true)
+  private NameWithQualifier findNameWithQualifierByParameterName(@NotNull Parameter parameter,
+                                                                 @NotNull TypeDescriptor parameterType,
+                                                                 @NotNull Map<String,ResolvableType> dataNameTypeMap)
+  {
+    ResolvableType dataType;
+
+    var dataAnnotation = findMergedAnnotation(parameter, Data.class);
+    if (dataAnnotation != null)
+    {
+      var dataName = dataAnnotation.name();
+      if (!hasLength(dataName))
+        throw new StageRunnerConfigurationException("@Data name must not be empty for parameter " + parameter);
+
+      if ((dataType = dataNameTypeMap.get(dataName)) != null)
+        return new NameWithQualifier(dataName, qualifyParameterTypeOrFail(parameterType, dataType));
+
+      throw new StageRunnerConfigurationException("Unknown @Data name '" + dataName + "' for parameter " + parameter);
+    }
+
+    var parameterName = parameter.getName();
+    if (hasLength(parameterName) && (dataType = dataNameTypeMap.get(parameterName)) != null)
+      return new NameWithQualifier(parameterName, qualifyParameterTypeOrFail(parameterType, dataType));
+
+    return null;
+  }
+
+
+  @Contract(pure = true)
+  private NameWithQualifier findNameWithQualifierByParameterType(@NotNull Parameter parameter,
+                                                                 @NotNull TypeDescriptor parameterType,
+                                                                 @NotNull Map<String,ResolvableType> dataNameTypeMap)
+  {
+    var nameQualifiers = new ArrayList<NameWithQualifier>();
+
+    dataNameTypeMap.forEach((name, type) -> {
+      var q = qualifyParameterType(parameterType, type);
+      if (q != null)
+      {
+        var nwq = new NameWithQualifier(name, q);
+        if (!nameQualifiers.contains(nwq))
+          nameQualifiers.add(nwq);
+      }
+    });
+
+    NameWithQualifier nameWithQualifier = null;
+
+    if (!nameQualifiers.isEmpty())
+    {
+      nameWithQualifier = nameQualifiers.get(0);
+      if (nameQualifiers.size() > 1)
+      {
+        nameQualifiers.sort(null);
+
+        var nwq2 = nameQualifiers.get(1);
+
+        if (nameWithQualifier.qualifier == nwq2.qualifier && !nameWithQualifier.name.equals(nwq2.name))
+        {
+          throw new StageRunnerConfigurationException("Ambiguous type for parameter " + parameter +
+              "; please specify @Data annotation");
+        }
+      }
+    }
+
+    return nameWithQualifier;
+  }
+
+
+  @Contract(pure = true)
+  private TypeQualifier qualifyParameterType(@NotNull TypeDescriptor parameterType,
+                                             @NotNull ResolvableType dataType)
+  {
+    var parameterResolvableType = parameterType.getResolvableType();
+
+    if (parameterResolvableType.getType().equals(dataType.getType()))
+      return TypeQualifier.IDENTICAL;
+
+    if (parameterResolvableType.getRawClass() == Object.class)
+      return TypeQualifier.ANYTHING;
+
+    if (parameterResolvableType.isAssignableFrom(dataType))
+      return TypeQualifier.ASSIGNABLE;
+
+    if (conversionService.canConvert(new TypeDescriptor(dataType, null, null), parameterType))
+      return TypeQualifier.CONVERTABLE;
+
+    return null;
+  }
+
+
+  @Contract(pure = true)
+  private @NotNull TypeQualifier qualifyParameterTypeOrFail(@NotNull TypeDescriptor parameterType,
+                                                            @NotNull ResolvableType dataType)
+  {
+    var qualifier = qualifyParameterType(parameterType, dataType);
+    if (qualifier == null)
+      throw new IllegalStateException("Unsupported parameter type: " + parameterType);
+
+    return qualifier;
+  }
+
+
+
+
+  static class NameWithQualifierAndType extends NameWithQualifier
+  {
+    final @NotNull TypeDescriptor type;
+
+
+    NameWithQualifierAndType(@NotNull NameWithQualifier nameWithQualifier, @NotNull TypeDescriptor type)
+    {
+      super(nameWithQualifier.name, nameWithQualifier.qualifier);
+
+      this.type = type;
+    }
+
+
+    @Contract(pure = true)
+    public boolean isConvertableQualifier() {
+      return qualifier == TypeQualifier.CONVERTABLE;
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+        return true;
+      if (!(o instanceof NameWithQualifierAndType))
+        return false;
+
+      var that = (NameWithQualifierAndType)o;
+
+      return
+          qualifier == that.qualifier &&
+          name.equals(that.name) &&
+          type.getResolvableType().equals(that.type.getResolvableType());
+    }
+
+
+    @Override
+    public int hashCode() {
+      return super.hashCode() * 31 + type.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+      return "NameWithQualifierAndType(name=" + name + ",qualifier=" + qualifier + ",type=" + type + ')';
+    }
+  }
+
+
+
+
+  static class NameWithQualifier implements Comparable<NameWithQualifier>
+  {
+    final @NotNull String name;
+    final @NotNull TypeQualifier qualifier;
+
+
+    NameWithQualifier(@NotNull String name, @NotNull TypeQualifier qualifier)
+    {
+      this.name = name;
+      this.qualifier = qualifier;
+    }
+
+
+    @Override
+    public int compareTo(@NotNull NameWithQualifier o)
+    {
+      int cmp = qualifier.compareTo(o.qualifier);
+      return cmp == 0 ? name.compareTo(o.name) : cmp;
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+        return true;
+      if (!(o instanceof NameWithQualifier))
+        return false;
+
+      var that = (NameWithQualifier)o;
+
+      return qualifier == that.qualifier && name.equals(that.name);
+    }
+
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() * 31 + qualifier.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+      return "NameWithQualifier(name=" + name + ",qualifier=" + qualifier + ')';
+    }
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.exception.StageRunnerConfigurationException;
+import de.sayayi.lib.stagerunner.spi.CompiledStagePlan;
+import de.sayayi.lib.stagerunner.spi.StagePlanCompiler;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.field.FieldDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.MethodDescription.SignatureToken;
+import net.bytebuddy.description.modifier.TypeManifestation;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.implementation.FixedValue;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.assign.TypeCasting;
+import net.bytebuddy.implementation.bytecode.collection.ArrayAccess;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+import net.bytebuddy.implementation.bytecode.constant.NullConstant;
+import net.bytebuddy.implementation.bytecode.member.FieldAccess;
+import net.bytebuddy.implementation.bytecode.member.MethodInvocation;
+import net.bytebuddy.implementation.bytecode.member.MethodReturn;
+import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.bytebuddy.description.method.MethodDescription.CONSTRUCTOR_INTERNAL_NAME;
+import static net.bytebuddy.description.modifier.FieldManifestation.FINAL;
+import static net.bytebuddy.description.modifier.Visibility.PRIVATE;
+import static net.bytebuddy.description.modifier.Visibility.PUBLIC;
+import static net.bytebuddy.dynamic.loading.ClassLoadingStrategy.Default.INJECTION;
+import static net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy.Default.NO_CONSTRUCTORS;
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isToString;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+
+
+/**
+ * Stage plan compiler generating a {@link CompiledStagePlan} class for each execution plan.
+ * <p>
+ * The generated class keeps each stage function in a final field and invokes it at its own call site. If the
+ * class of a stage function is accessible from the generated class, the field is declared with the class of the
+ * stage function, so the stage function is invoked without interface dispatch. Stage transitions are resolved at
+ * compile time, as the first stage function of each stage is known.
+ * <p>
+ * Plans with more than {@value #MAX_COMPILED_FUNCTIONS} stage functions are compiled partially; the remaining
+ * stage functions are executed by the interpreter of the stage runner.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+public final class StagePlanCompilerImpl extends AbstractBuilder implements StagePlanCompiler
+{
+  /** Maximum number of stage functions compiled into a single method, keeping it well below 64k of bytecode. */
+  static final int MAX_COMPILED_FUNCTIONS = 1024;
+
+  private static final String FUNCTION_FIELD_PREFIX = "function";
+
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public @NotNull <S extends Enum<S>> CompiledStagePlan<S> compile(@NotNull List<S> stages,
+                                                                   @NotNull List<StageFunction<S>> functions)
+  {
+    final var stageType = stages.get(0).getDeclaringClass();
+    final int size = Math.min(functions.size(), MAX_COMPILED_FUNCTIONS);
+    final var fieldTypes = new Class<?>[size];
+    final var stageStarts = new boolean[size];
+    final var classLoader = stageType.getClassLoader();
+
+    for(int n = 0; n < size; n++)
+    {
+      final var functionType = functions.get(n).getClass();
+
+      fieldTypes[n] = isAccessible(functionType, classLoader) ? functionType : StageFunction.class;
+      stageStarts[n] = n == 0 || stages.get(n) != stages.get(n - 1);
+    }
+
+    var className = CompiledStagePlan.class.getName() +
+        '$' + stageType.getSimpleName() +
+        '$' + randomString.nextString();
+
+    try {
+      //noinspection resource
+      return (CompiledStagePlan<S>)buildCompiledStagePlanClass(stageType, className, fieldTypes, stageStarts)
+          .make()
+          .load(classLoader, INJECTION)
+          .getLoaded()
+          .getDeclaredConstructor(StageFunction[].class)
+          .newInstance((Object)functions.subList(0, size).toArray(StageFunction[]::new));
+    } catch(Exception ex) {
+      throw new StageRunnerConfigurationException("failed to compile execution plan for stage " + stageType, ex);
+    }
+  }
+
+
+  @Contract(pure = true)
+  private static @NotNull DynamicType.Builder<?> buildCompiledStagePlanClass(
+      @NotNull Class<?> stageType, @NotNull String className, @NotNull Class<?>[] fieldTypes,
+      @NotNull boolean[] stageStarts)
+  {
+    DynamicType.Builder<?> builder = new ByteBuddy()
+        .subclass(parameterizedType(CompiledStagePlan.class, stageType), NO_CONSTRUCTORS)
+        .name(className)
+        .modifiers(PUBLIC, TypeManifestation.FINAL)
+        // the try/catch blocks of the run method require stack map frames
+        .visit(new AsmVisitorWrapper.ForDeclaredMethods().writerFlags(ClassWriter.COMPUTE_FRAMES));
+
+    for(int n = 0; n < fieldTypes.length; n++)
+      builder = builder.defineField(FUNCTION_FIELD_PREFIX + n, fieldTypes[n], PRIVATE, FINAL);
+
+    return builder
+        .defineConstructor(PUBLIC)
+            .withParameters(StageFunction[].class)
+            .intercept(new ConstructorImplementation(fieldTypes))
+        .method(named("run").and(isAbstract()))
+            .intercept(new RunMethodImplementation(fieldTypes, stageStarts))
+        .method(isToString())
+            .intercept(FixedValue.value("Compiled execution plan with " + fieldTypes.length +
+                " stage functions for stage " + stageType.getName()));
+  }
+
+
+  /**
+   * Tells whether {@code type} can be referenced by a class injected into {@code classLoader}.
+   */
+  @Contract(pure = true)
+  private static boolean isAccessible(@NotNull Class<?> type, ClassLoader classLoader)
+  {
+    if (type.isSynthetic() || !type.getModule().isExported(type.getPackageName()))
+      return false;
+
+    for(var t = type; t != null; t = t.getDeclaringClass())
+      if (!Modifier.isPublic(t.getModifiers()))
+        return false;
+
+    try {
+      return Class.forName(type.getName(), false, classLoader) == type;
+    } catch(ClassNotFoundException | LinkageError ex) {
+      return false;
+    }
+  }
+
+
+  @Contract(pure = true)
+  private static @NotNull FieldDescription functionField(@NotNull Implementation.Target target, int n)
+  {
+    return target
+        .getInstrumentedType()
+        .getDeclaredFields()
+        .filter(named(FUNCTION_FIELD_PREFIX + n))
+        .getOnly();
+  }
+
+
+
+
+  private static final class ConstructorImplementation extends AbstractImplementation
+  {
+    private final Class<?>[] fieldTypes;
+
+
+    private ConstructorImplementation(@NotNull Class<?>[] fieldTypes) {
+      this.fieldTypes = fieldTypes;
+    }
+
+
+    @Override
+    public @NotNull ByteCodeAppender appender(@NotNull Target target)
+    {
+      var stackManipulations = new ArrayList<StackManipulation>();
+
+      // super.<init>();
+      stackManipulations.add(MethodVariableAccess.loadThis());
+      stackManipulations.add(
+          target.invokeSuper(new SignatureToken(CONSTRUCTOR_INTERNAL_NAME, typeDescription(void.class))));
+
+      for(int n = 0; n < fieldTypes.length; n++)
+      {
+        // this.function<n> = (<type>)functions(param 1)[n]
+        stackManipulations.add(MethodVariableAccess.loadThis());
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
+        stackManipulations.add(IntegerConstant.forValue(n));
+        stackManipulations.add(ArrayAccess.REFERENCE.load());
+        stackManipulations.add(TypeCasting.to(typeDescription(fieldTypes[n])));
+        stackManipulations.add(FieldAccess.forField(functionField(target, n)).write());
+      }
+
+      // return
+      stackManipulations.add(MethodReturn.VOID);
+
+      return new ByteCodeAppender.Simple(stackManipulations);
+    }
+  }
+
+
+
+
+  private static final class RunMethodImplementation extends AbstractImplementation
+  {
+    private static final MethodDescription METHOD_PLAN_ENTER =
+        typeDescription(CompiledStagePlan.class)
+            .getDeclaredMethods()
+            .filter(named("enter"))
+            .getOnly();
+
+    private static final MethodDescription METHOD_PLAN_COMPLETE =
+        typeDescription(CompiledStagePlan.class)
+            .getDeclaredMethods()
+            .filter(named("complete"))
+            .getOnly();
+
+    private static final MethodDescription METHOD_FUNCTION_PROCESS =
+        typeDescription(StageFunction.class)
+            .getDeclaredMethods()
+            .filter(named("process"))
+            .getOnly();
+
+    /** Local variable holding the exception thrown by the current stage function. */
+    private static final int EXCEPTION_VARIABLE = 3;
+
+    private final Class<?>[] fieldTypes;
+    private final boolean[] stageStarts;
+
+
+    private RunMethodImplementation(@NotNull Class<?>[] fieldTypes, @NotNull boolean[] stageStarts)
+    {
+      this.fieldTypes = fieldTypes;
+      this.stageStarts = stageStarts;
+    }
+
+
+    @Override
+    public @NotNull ByteCodeAppender appender(@NotNull Target target)
+    {
+      final var returnLabel = new Label();
+      final var stackManipulations = new ArrayList<StackManipulation>();
+
+      for(int n = 0; n < fieldTypes.length; n++)
+      {
+        // if (!enter(context, callback, n, stageStart)) return;
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(2));
+        stackManipulations.add(IntegerConstant.forValue(n));
+        stackManipulations.add(IntegerConstant.forValue(stageStarts[n]));
+        stackManipulations.add(MethodInvocation.invoke(METHOD_PLAN_ENTER));
+        stackManipulations.add(new JumpIfFalse(returnLabel));
+
+        // exception = null;
+        stackManipulations.add(NullConstant.INSTANCE);
+        stackManipulations.add(MethodVariableAccess.REFERENCE.storeAt(EXCEPTION_VARIABLE));
+
+        // try { this.function<n>.process(context); } catch(Throwable ex) { exception = ex; }
+        stackManipulations.add(new TryCatchThrowable(
+            MethodVariableAccess.loadThis(),
+            FieldAccess.forField(functionField(target, n)).read(),
+            MethodVariableAccess.REFERENCE.loadFrom(1),
+            MethodInvocation.invoke(METHOD_FUNCTION_PROCESS).virtual(typeDescription(fieldTypes[n]))));
+
+        // complete(context, callback, exception);
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(1));
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(2));
+        stackManipulations.add(MethodVariableAccess.REFERENCE.loadFrom(EXCEPTION_VARIABLE));
+        stackManipulations.add(MethodInvocation.invoke(METHOD_PLAN_COMPLETE));
+      }
+
+      // return
+      stackManipulations.add(new VisitLabel(returnLabel));
+      stackManipulations.add(MethodReturn.VOID);
+
+      final var code = new StackManipulation.Compound(stackManipulations);
+
+      return (methodVisitor, context, instrumentedMethod) -> new ByteCodeAppender.Size(
+          code.apply(methodVisitor, context).getMaximalSize(), instrumentedMethod.getStackSize() + 1);
+    }
+  }
+
+
+
+
+  private static final class JumpIfFalse extends StackManipulation.AbstractBase
+  {
+    private final Label label;
+
+
+    private JumpIfFalse(@NotNull Label label) {
+      this.label = label;
+    }
+
+
+    @Override
+    public @NotNull Size apply(@NotNull MethodVisitor methodVisitor, @NotNull Implementation.Context context)
+    {
+      methodVisitor.visitJumpInsn(Opcodes.IFEQ, label);
+      return new Size(-1, 0);
+    }
+  }
+
+
+
+
+  private static final class VisitLabel extends StackManipulation.AbstractBase
+  {
+    private final Label label;
+
+
+    private VisitLabel(@NotNull Label label) {
+      this.label = label;
+    }
+
+
+    @Override
+    public @NotNull Size apply(@NotNull MethodVisitor methodVisitor, @NotNull Implementation.Context context)
+    {
+      methodVisitor.visitLabel(label);
+      return Size.ZERO;
+    }
+  }
+
+
+
+
+  /**
+   * Executes the given stack manipulation, which must leave the operand stack unchanged, in a try block. A
+   * {@link Throwable} thrown by the try block is stored in the exception variable.
+   */
+  private static final class TryCatchThrowable extends StackManipulation.AbstractBase
+  {
+    private final StackManipulation tryBlock;
+
+
+    private TryCatchThrowable(@NotNull StackManipulation... tryBlock) {
+      this.tryBlock = new StackManipulation.Compound(tryBlock);
+    }
+
+
+    @Override
+    public @NotNull Size apply(@NotNull MethodVisitor methodVisitor, @NotNull Implementation.Context context)
+    {
+      final var tryStart = new Label();
+      final var tryEnd = new Label();
+      final var handler = new Label();
+      final var next = new Label();
+
+      methodVisitor.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/Throwable");
+      methodVisitor.visitLabel(tryStart);
+
+      final var size = tryBlock.apply(methodVisitor, context);
+
+      methodVisitor.visitLabel(tryEnd);
+      methodVisitor.visitJumpInsn(Opcodes.GOTO, next);
+      methodVisitor.visitLabel(handler);
+      methodVisitor.visitVarInsn(Opcodes.ASTORE, RunMethodImplementation.EXCEPTION_VARIABLE);
+      methodVisitor.visitLabel(next);
+
+      return new Size(0, Math.max(size.getMaximalSize(), 1));
+    }
+  }
+}
@@ -15,6 +15,8 @@
  */
 package de.sayayi.lib.stagerunner.spring.builder;
 
+import de.sayayi.lib.stagerunner.DataLayout;
+import de.sayayi.lib.stagerunner.StageData;
 import de.sayayi.lib.stagerunner.StageRunner;
 import de.sayayi.lib.stagerunner.StageRunnerCallback;
 import de.sayayi.lib.stagerunner.StageRunnerFactory;
@@ -31,6 +33,11 @@ import net.bytebuddy.implementation.FixedValue;
 import net.bytebuddy.implementation.bytecode.*;
 import net.bytebuddy.implementation.bytecode.assign.Assigner;
 import net.bytebuddy.implementation.bytecode.assign.primitive.PrimitiveBoxingDelegate;
+import net.bytebuddy.implementation.bytecode.collection.ArrayFactory;
+import net.bytebuddy.implementation.bytecode.constant.DoubleConstant;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+import net.bytebuddy.implementation.bytecode.constant.LongConstant;
+import net.bytebuddy.implementation.bytecode.constant.NullConstant;
 import net.bytebuddy.implementation.bytecode.constant.TextConstant;
 import net.bytebuddy.implementation.bytecode.member.FieldAccess;
 import net.bytebuddy.implementation.bytecode.member.MethodInvocation;
@@ -38,6 +45,7 @@ import net.bytebuddy.implementation.bytecode.member.MethodReturn;
 import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Method;
 import java.util.*;
@@ -59,6 +67,10 @@ import static net.bytebuddy.matcher.ElementMatchers.*;
 public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implements StageRunnerProxyBuilder
 {
   private static final String FACTORY_FIELD_NAME = "factory";
+  private static final String LAYOUT_FIELD_NAME = "layout";
+
+  /** Maximum number of entries supported by the {@code Map.of(...)} overloads. */
+  private static final int MAP_OF_MAX_ENTRIES = 10;
 
   private final boolean copyInterfaceMethodAnnotations;
 
@@ -73,6 +85,37 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
                                                       @NotNull Class<R> stageRunnerInterfaceType,
                                                       @NotNull Method stageRunnerInterfaceMethod,
                                                       @NotNull String[] dataNames,
+                                                      @NotNull StageRunnerFactory<S> stageRunnerFactory) {
+    return buildProxy(stageType, stageRunnerInterfaceType, stageRunnerInterfaceMethod, null, dataNames,
+        stageRunnerFactory);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The generated proxy method stores the parameter values in an object array, in slot order, and runs the stage
+   * runner with {@link StageData}. Stage functions accessing the data using the data keys of {@code dataLayout}
+   * therefore don't need to look up the data by name.
+   */
+  @Override
+  public @NotNull <R,S extends Enum<S>> R createProxy(@NotNull Class<S> stageType,
+                                                      @NotNull Class<R> stageRunnerInterfaceType,
+                                                      @NotNull Method stageRunnerInterfaceMethod,
+                                                      @NotNull DataLayout dataLayout,
+                                                      @NotNull String[] dataNames,
+                                                      @NotNull StageRunnerFactory<S> stageRunnerFactory) {
+    return buildProxy(stageType, stageRunnerInterfaceType, stageRunnerInterfaceMethod, dataLayout, dataNames,
+        stageRunnerFactory);
+  }
+
+
+  @Contract(pure = true)
+  private <R,S extends Enum<S>> @NotNull R buildProxy(@NotNull Class<S> stageType,
+                                                      @NotNull Class<R> stageRunnerInterfaceType,
+                                                      @NotNull Method stageRunnerInterfaceMethod,
+                                                      @Nullable DataLayout dataLayout,
+                                                      @NotNull String[] dataNames,
                                                       @NotNull StageRunnerFactory<S> stageRunnerFactory)
   {
     var stageRunnerFactoryType = parameterizedType(StageRunnerFactory.class, stageType);
@@ -88,11 +131,12 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
           .implement(parameterizedType(FactoryAccessor.class, stageType))
           .name(proxyClassName)
           .defineField(FACTORY_FIELD_NAME, stageRunnerFactoryType, PRIVATE, FINAL)
+          .defineField(LAYOUT_FIELD_NAME, DataLayout.class, PRIVATE, FINAL)
           .defineConstructor(PUBLIC)
-              .withParameters(stageRunnerFactoryType)
+              .withParameters(stageRunnerFactoryType, typeDescription(DataLayout.class))
               .intercept(new ProxyConstructorImplementation())
           .define(stageRunnerInterfaceMethod)
-              .intercept(new ProxyMethodImplementation(method, dataNames))
+              .intercept(new ProxyMethodImplementation(method, dataLayout, dataNames))
               .annotateMethod(copyInterfaceMethodAnnotations ? method.getDeclaredAnnotations() : List.of())
           .method(named("getStageRunnerFactory"))
               .intercept(FieldAccessor.ofField(FACTORY_FIELD_NAME))
@@ -101,8 +145,8 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
           .make()
           .load(stageRunnerInterfaceType.getClassLoader(), INJECTION)
           .getLoaded()
-          .getDeclaredConstructor(StageRunnerFactory.class)
-          .newInstance(stageRunnerFactory);
+          .getDeclaredConstructor(StageRunnerFactory.class, DataLayout.class)
+          .newInstance(stageRunnerFactory, dataLayout);
     } catch(Exception ex) {
       throw new StageRunnerConfigurationException("failed to create proxy for stage runner interface " +
           stageRunnerInterfaceType, ex);
@@ -131,6 +175,16 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
                   .filter(named(FACTORY_FIELD_NAME))
                   .getOnly())
               .write(),
+          // this.layout = layout(param 2)
+          MethodVariableAccess.loadThis(),
+          MethodVariableAccess.REFERENCE.loadFrom(2),
+          FieldAccess
+              .forField(target
+                  .getInstrumentedType()
+                  .getDeclaredFields()
+                  .filter(named(LAYOUT_FIELD_NAME))
+                  .getOnly())
+              .write(),
           // return
           MethodReturn.VOID);
     }
@@ -141,13 +195,23 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
 
   private static final class ProxyMethodImplementation extends AbstractImplementation
   {
+    /** Component types of the stage data lanes, in {@code StageData} constructor parameter order. */
+    private static final Class<?>[] LANE_TYPES = { Object.class, int.class, long.class, double.class };
+
+    private static final StackManipulation[] LANE_DEFAULTS = {
+        NullConstant.INSTANCE, IntegerConstant.ZERO, LongConstant.ZERO, DoubleConstant.ZERO
+    };
+
     private final MethodDescription method;
+    private final DataLayout dataLayout;
     private final String[] dataNames;
 
 
-    private ProxyMethodImplementation(@NotNull MethodDescription method, @NotNull String[] dataNames)
+    private ProxyMethodImplementation(@NotNull MethodDescription method, DataLayout dataLayout,
+                                      @NotNull String[] dataNames)
     {
       this.method = method;
+      this.dataLayout = dataLayout;
       this.dataNames = dataNames;
     }
 
@@ -172,10 +236,15 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
               .filter(named("createRunner"))
               .getOnly()));
 
-      // param1 = data map
-      stackManipulations.addAll(Stream.of(dataNames).anyMatch(Objects::nonNull)
-          ? buildMapWithDataNames()
-          : buildMapNoDataNames());
+      // param1 = stage data or data map
+      if (dataLayout != null)
+        stackManipulations.addAll(buildStageData(target));
+      else
+      {
+        stackManipulations.addAll(Stream.of(dataNames).anyMatch(Objects::nonNull)
+            ? buildMapWithDataNames()
+            : buildMapNoDataNames());
+      }
 
       // param2 = callback (optional)
       var stageRunnerCallbackParameter = findCallbackParameter();
@@ -185,7 +254,9 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
       stackManipulations.add(MethodInvocation.invoke(
           typeDescription(StageRunner.class)
               .getDeclaredMethods()
-              .filter(named("run").and(takesArguments(stageRunnerCallbackParameter != null ? 2 : 1)))
+              .filter(named("run")
+                  .and(takesArguments(stageRunnerCallbackParameter != null ? 2 : 1))
+                  .and(takesArgument(0, dataLayout != null ? StageData.class : Map.class)))
               .getOnly()));
 
       if (method.getReturnType().represents(void.class))
@@ -200,8 +271,147 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
     }
 
 
+    /**
+     * Build {@code new StageData(this.layout, new Object[] { ... }, new int[] { ... }, new long[] { ... },
+     * new double[] { ... })} with each data parameter stored at the slot assigned to its data name. Parameters of
+     * type {@code int}, {@code long} and {@code double} are stored in their primitive lane without being boxed.
+     */
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> buildStageData(@NotNull Target target)
+    {
+      var stackManipulations = new ArrayList<StackManipulation>();
+      var stageDataType = typeDescription(StageData.class);
+      var laneValues = new StackManipulation[LANE_TYPES.length][];
+
+      for(int lane = 0; lane < LANE_TYPES.length; lane++)
+      {
+        laneValues[lane] = new StackManipulation[countLaneSlots(lane)];
+        Arrays.fill(laneValues[lane], LANE_DEFAULTS[lane]);
+      }
+
+      for(var parameter: method.getParameters())
+      {
+        var dataName = dataNames[parameter.getIndex()];
+        if (dataName != null)
+        {
+          var key = dataLayout.findKey(dataName);
+          if (key == null)
+            throw new StageRunnerConfigurationException("data name '" + dataName + "' missing in " + dataLayout);
+
+          var lane = laneOf(key.getType());
+          if (lane == 0)
+          {
+            laneValues[0][key.getSlot()] =
+                new StackManipulation.Compound(loadParameterAsObject(parameter));
+          }
+          else if (parameter.getType().asErasure().represents(LANE_TYPES[lane]))
+            laneValues[lane][key.getSlot()] = MethodVariableAccess.load(parameter);
+          else
+          {
+            throw new StageRunnerConfigurationException("parameter " + parameter + " does not match type " +
+                key.getType().getName() + " of data '" + dataName + "'");
+          }
+        }
+      }
+
+      // new StageData(this.layout, new Object[] { ... }, ...) -> stack
+      stackManipulations.add(TypeCreation.of(stageDataType));
+      stackManipulations.add(Duplication.SINGLE);
+      stackManipulations.add(MethodVariableAccess.loadThis());
+      stackManipulations.add(FieldAccess
+          .forField(target
+              .getInstrumentedType()
+              .getDeclaredFields()
+              .filter(named(LAYOUT_FIELD_NAME))
+              .getOnly())
+          .read());
+
+      for(int lane = 0; lane < LANE_TYPES.length; lane++)
+      {
+        // empty primitive lanes are passed as null, StageData substitutes a shared empty array
+        stackManipulations.add(lane > 0 && laneValues[lane].length == 0
+            ? NullConstant.INSTANCE
+            : ArrayFactory
+                .forType(TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(LANE_TYPES[lane]))
+                .withValues(List.of(laneValues[lane])));
+      }
+
+      stackManipulations.add(MethodInvocation.invoke(stageDataType
+          .getDeclaredMethods()
+          .filter(isConstructor().and(takesArguments(
+              DataLayout.class, Object[].class, int[].class, long[].class, double[].class)))
+          .getOnly()));
+
+      return stackManipulations;
+    }
+
+
+    @Contract(pure = true)
+    private int countLaneSlots(int lane)
+    {
+      int slots = 0;
+
+      for(var key: dataLayout.getKeys())
+        if (laneOf(key.getType()) == lane)
+          slots++;
+
+      return slots;
+    }
+
+
+    @Contract(pure = true)
+    private static int laneOf(@NotNull Class<?> type)
+    {
+      for(int lane = 1; lane < LANE_TYPES.length; lane++)
+        if (LANE_TYPES[lane] == type)
+          return lane;
+
+      return 0;
+    }
+
+
     @Contract(pure = true)
     private @NotNull List<StackManipulation> buildMapWithDataNames()
+    {
+      var dataParameters = new ArrayList<ParameterDescription>();
+
+      for(var parameter: method.getParameters())
+        if (dataNames[parameter.getIndex()] != null)
+          dataParameters.add(parameter);
+
+      return dataParameters.size() <= MAP_OF_MAX_ENTRIES
+          ? buildMapOfWithDataNames(dataParameters)
+          : buildHashMapWithDataNames(dataParameters);
+    }
+
+
+    /**
+     * Build the data map using {@code Map.of(k1, v1, ..., kn, vn)}, which allocates a single immutable map
+     * instance instead of a hash map and its immutable copy.
+     */
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> buildMapOfWithDataNames(@NotNull List<ParameterDescription> parameters)
+    {
+      var stackManipulations = new ArrayList<StackManipulation>();
+
+      for(var parameter: parameters)
+      {
+        stackManipulations.add(new TextConstant(dataNames[parameter.getIndex()]));
+        stackManipulations.addAll(loadParameterAsObject(parameter));
+      }
+
+      stackManipulations.add(MethodInvocation.invoke(
+          typeDescription(Map.class)
+              .getDeclaredMethods()
+              .filter(named("of").and(takesArguments(parameters.size() * 2)))
+              .getOnly()));
+
+      return stackManipulations;
+    }
+
+
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> buildHashMapWithDataNames(@NotNull List<ParameterDescription> parameters)
     {
       var stackManipulations = new ArrayList<StackManipulation>();
       var hashMapType = typeDescription(HashMap.class);
@@ -218,28 +428,15 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
           .getDeclaredMethods()
           .filter(named("put").and(takesArguments(2)))
           .getOnly();
-      String dataName;
 
-      for(var parameter: method.getParameters())
-        if ((dataName = dataNames[parameter.getIndex()]) != null)
-        {
-          stackManipulations.add(Duplication.SINGLE);
-          stackManipulations.add(new TextConstant(dataName));
-          stackManipulations.add(MethodVariableAccess.load(parameter));
-
-          var parameterType = parameter.getType().asErasure();
-          if (parameterType.isPrimitive())
-          {
-            stackManipulations.add(PrimitiveBoxingDelegate
-                .forPrimitive(parameterType)
-                .assignBoxedTo(
-                    TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(Object.class),
-                    Assigner.DEFAULT, Assigner.Typing.STATIC));
-          }
-
-          stackManipulations.add(MethodInvocation.invoke(mapPutMethod));
-          stackManipulations.add(Removal.SINGLE);
-        }
+      for(var parameter: parameters)
+      {
+        stackManipulations.add(Duplication.SINGLE);
+        stackManipulations.add(new TextConstant(dataNames[parameter.getIndex()]));
+        stackManipulations.addAll(loadParameterAsObject(parameter));
+        stackManipulations.add(MethodInvocation.invoke(mapPutMethod));
+        stackManipulations.add(Removal.SINGLE);
+      }
 
       stackManipulations.add(MethodInvocation.invoke(
           typeDescription(Map.class)
@@ -251,6 +448,27 @@ public final class StageRunnerProxyBuilderImpl extends AbstractBuilder implement
     }
 
 
+    @Contract(pure = true)
+    private @NotNull List<StackManipulation> loadParameterAsObject(@NotNull ParameterDescription parameter)
+    {
+      var stackManipulations = new ArrayList<StackManipulation>();
+
+      stackManipulations.add(MethodVariableAccess.load(parameter));
+
+      var parameterType = parameter.getType().asErasure();
+      if (parameterType.isPrimitive())
+      {
+        stackManipulations.add(PrimitiveBoxingDelegate
+            .forPrimitive(parameterType)
+            .assignBoxedTo(
+                TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(Object.class),
+                Assigner.DEFAULT, Assigner.Typing.STATIC));
+      }
+
+      return stackManipulations;
+    }
+
+
     @Contract(pure = true)
     private @NotNull List<StackManipulation> buildMapNoDataNames()
     {
@@ -23,6 +23,13 @@ module de.sayayi.lib.stagerunner {
   requires static spring.beans;
   requires static spring.jcl;
 
+  // optional requirement for Java Flight Recorder events
+  requires static jdk.jfr;
+
+  // optional requirement for stage function profiling
+  requires static java.management;
+  requires static jdk.management;
+
   // compile time requirement
   requires static org.jetbrains.annotations;
 
@@ -32,6 +39,7 @@ module de.sayayi.lib.stagerunner {
   exports de.sayayi.lib.stagerunner.spi;
   exports de.sayayi.lib.stagerunner.spring;
   exports de.sayayi.lib.stagerunner.spring.annotation;
+  exports de.sayayi.lib.stagerunner.spring.builder;
 
   // provide access to Spring
   opens de.sayayi.lib.stagerunner.spring to spring.core;
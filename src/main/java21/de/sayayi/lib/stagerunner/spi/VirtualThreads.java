@@ -0,0 +1,52 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spi;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Executor for {@link ExecutionMode#VIRTUAL_THREADS}.
+ * <p>
+ * This implementation is used on Java 21 and later and starts a new virtual thread for each task.
+ *
+ * @author Jeroen Gremmen
+ * @since 0.3.4
+ */
+final class VirtualThreads
+{
+  private static final ThreadFactory THREAD_FACTORY = Thread.ofVirtual().name("stage-runner-", 1).factory();
+  private static final Executor EXECUTOR = command -> THREAD_FACTORY.newThread(command).start();
+
+
+  private VirtualThreads() {
+  }
+
+
+  /**
+   * Returns the executor for running tasks on virtual threads.
+   *
+   * @return  executor, never {@code null}
+   */
+  @Contract(pure = true)
+  static @NotNull Executor executor() {
+    return EXECUTOR;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+/**
+ * Measures the number of bytes allocated by the current thread per run, using
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * <p>
+ * Each scenario is warmed up first, so the JIT compiler had the opportunity to eliminate allocations and pooled
+ * objects are available, before the allocations of a number of runs are measured.
+ *
+ * @author Jeroen Gremmen
+ */
+public final class AllocationBudget
+{
+  private static final int WARMUP_RUNS = 20_000;
+  private static final int MEASURED_RUNS = 1_000;
+
+
+  private AllocationBudget() {
+  }
+
+
+  /**
+   * Asserts that {@code run} allocates no more than {@code budget} bytes per invocation on average.
+   *
+   * @param budget  allocation budget in bytes per run
+   * @param run     scenario to measure, not {@code null}
+   */
+  public static void assertAllocatedBytesPerRun(long budget, @NotNull Runnable run)
+  {
+    final var threadMXBean = ManagementFactory.getThreadMXBean();
+
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean)threadMXBean).isThreadAllocatedMemorySupported(),
+        "thread allocation measurement not supported");
+
+    final var sunThreadMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+    sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    for(int n = 0; n < WARMUP_RUNS; n++)
+      run.run();
+
+    final long threadId = Thread.currentThread().getId();
+    final long allocatedBytes = sunThreadMXBean.getThreadAllocatedBytes(threadId);
+
+    for(int n = 0; n < MEASURED_RUNS; n++)
+      run.run();
+
+    final long bytesPerRun =
+        (sunThreadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / MEASURED_RUNS;
+
+    assertTrue(bytesPerRun <= budget,
+        () -> bytesPerRun + " bytes allocated per run exceed the budget of " + budget + " bytes");
+  }
+}
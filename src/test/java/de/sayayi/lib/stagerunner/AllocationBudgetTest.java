@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner;
+
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import lombok.val;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static de.sayayi.lib.stagerunner.AllocationBudget.assertAllocatedBytesPerRun;
+import static de.sayayi.lib.stagerunner.TestStage.*;
+
+
+/**
+ * Guards the number of bytes allocated per run against regressions.
+ *
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Allocation budget")
+class AllocationBudgetTest
+{
+  private static final Map<String,Object> DATA = Map.of("value", 42);
+
+
+  @Test
+  @DisplayName("Empty runner")
+  void emptyRunner()
+  {
+    assertAllocatedBytesPerRun(400, runner(createFactory(0, 0)));
+    assertAllocatedBytesPerRun(0, runner(createFactory(0, 4)));
+  }
+
+
+  @Test
+  @DisplayName("Static plan with 50 stage functions")
+  void staticPlan()
+  {
+    assertAllocatedBytesPerRun(400, runner(createFactory(50, 0)));
+    assertAllocatedBytesPerRun(0, runner(createFactory(50, 4)));
+  }
+
+
+  @Test
+  @DisplayName("Static plan with enabled named stage functions")
+  void enableNamedStageFunction()
+  {
+    assertAllocatedBytesPerRun(800, runner(enableNamedStageFunctions(createFactory(50, 0))));
+    assertAllocatedBytesPerRun(0, runner(enableNamedStageFunctions(createFactory(50, 4))));
+  }
+
+
+  @Test
+  @DisplayName("Enabled named stage functions with cached plan variants")
+  void enableNamedStageFunctionCached()
+  {
+    val factory = enableNamedStageFunctions(createFactory(50, 4));
+    factory.setPlanVariantCacheSize(4);
+
+    assertAllocatedBytesPerRun(0, runner(factory));
+  }
+
+
+  private static DefaultStageRunnerFactory<TestStage> createFactory(int functionCount, int poolSize)
+  {
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+    val stages = TestStage.values();
+
+    for(int n = 0; n < functionCount; n++)
+      factory.addStageFunction(stages[n % stages.length], n, ctx -> ctx.getData("value"));
+
+    factory.setStageContextPoolSize(poolSize);
+
+    return factory;
+  }
+
+
+  private static DefaultStageRunnerFactory<TestStage> enableNamedStageFunctions(
+      DefaultStageRunnerFactory<TestStage> factory)
+  {
+    factory.namedStageFunction("start", START, ctx -> {});
+    factory.namedStageFunction("cleanup", CLEANUP, ctx -> {});
+    factory.addStageFunction(INIT, ctx -> {
+      ctx.enableNamedStageFunction("start");
+      ctx.enableNamedStageFunction("cleanup");
+    });
+
+    return factory;
+  }
+
+
+  private static Runnable runner(DefaultStageRunnerFactory<TestStage> factory)
+  {
+    val runner = factory.createRunner();
+    return () -> runner.run(DATA);
+  }
+}
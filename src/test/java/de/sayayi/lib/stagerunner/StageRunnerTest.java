@@ -15,8 +15,13 @@
  */
 package de.sayayi.lib.stagerunner;
 
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
 import de.sayayi.lib.stagerunner.spi.AbstractStageRunner;
 import de.sayayi.lib.stagerunner.spi.AbstractStageRunnerFactory;
+import de.sayayi.lib.stagerunner.spi.CompiledStagePlan;
+import de.sayayi.lib.stagerunner.spi.StagePlanCompiler;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import lombok.SneakyThrows;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
@@ -24,12 +29,21 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
 
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 import static de.sayayi.lib.stagerunner.TestStage.*;
+import static de.sayayi.lib.stagerunner.spi.ExecutionMode.VIRTUAL_THREADS;
 import static java.util.Arrays.asList;
 import static java.util.Collections.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -71,6 +85,26 @@ class StageRunnerTest
   }
 
 
+  @Test
+  @DisplayName("Callback overriding some hooks only")
+  void partialCallbackHooks()
+  {
+    val factory = new MyStageRunnerFactory();
+    val log = new ArrayList<String>();
+
+    factory.addStageFunction(START, ctx -> log.add("fn"));
+    factory.addStageFunction(END, ctx -> log.add("fn"));
+
+    assertTrue(factory.createRunner().run(emptyMap(), new StageRunnerCallback<>() {
+      @Override
+      public void postStageCallback(@NotNull StageContext<TestStage> stageContext, @NotNull TestStage stage) {
+        log.add("<" + stage);
+      }
+    }));
+    assertEquals(asList("fn", "<START", "fn", "<END"), log);
+  }
+
+
   @Test
   @DisplayName("Current stage reported by stage context")
   void currentStage()
@@ -130,6 +164,36 @@ class StageRunnerTest
   }
 
 
+  @Test
+  @DisplayName("Skip remaining stage functions and jump to stage")
+  void skipAndJumpToStage()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executed = new ArrayList<String>();
+
+    factory.addStageFunction(INIT, ctx -> {
+      executed.add("init-1");
+      ctx.skipRemainingFunctionsOfStage();
+    });
+    factory.addStageFunction(INIT, ctx -> executed.add("init-2"));
+    factory.addStageFunction(START, ctx -> {
+      executed.add("start");
+      ctx.jumpToStage(END);
+      assertEquals(singleton(END), ctx.getRemainingStages());
+    });
+    factory.addStageFunction(PROCESS, ctx -> executed.add("process"));
+    factory.addStageFunction(END, ctx -> {
+      executed.add("end");
+      assertEquals(EnumSet.of(INIT, START), ctx.getProcessedStages());
+    });
+
+    assertTrue(factory
+        .createRunner()
+        .run(emptyMap()));
+    assertEquals(asList("init-1", "start", "end"), executed);
+  }
+
+
   @Test
   @DisplayName("Data reported by stage context")
   void data()
@@ -149,6 +213,25 @@ class StageRunnerTest
   }
 
 
+  @Test
+  @DisplayName("Stage functions executed by stage and order")
+  void stageFunctionOrder()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executed = new ArrayList<String>();
+
+    factory.addStageFunction(END, ctx -> executed.add("E"));
+    factory.addStageFunction(PROCESS, 2000, ctx -> executed.add("P2"));
+    factory.addStageFunction(PROCESS, 1000, ctx -> executed.add("P1a"));
+    factory.addStageFunction(INIT, ctx -> executed.add("I"));
+    factory.addStageFunction(PROCESS, 1000, ctx -> executed.add("P1b"));
+    factory.addStageFunction(PROCESS, 500, ctx -> executed.add("P0"));
+
+    assertTrue(factory.createRunner().run(emptyMap()));
+    assertEquals(asList("I", "P0", "P1a", "P1b", "P2", "E"), executed);
+  }
+
+
   @Test
   @DisplayName("Add stage function dynamically")
   void addFunctionDynamically()
@@ -168,6 +251,552 @@ class StageRunnerTest
   }
 
 
+  @Test
+  @DisplayName("Enable named stage functions by name, pattern and tag")
+  void enableNamedStageFunctions()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executed = new ArrayList<String>();
+
+    factory.namedStageFunction("audit.start", START, ctx -> executed.add("audit.start"));
+    factory.namedStageFunction("audit.end", END, ctx -> executed.add("audit.end"));
+    factory.namedStageFunction("calc.1", PROCESS, 2000, ctx -> executed.add("calc.1"));
+    factory.namedStageFunction("calc.2", PROCESS, ctx -> executed.add("calc.2"));
+    factory.namedStageFunction("calc.10", PROCESS, ctx -> executed.add("calc.10"));
+    factory.tagNamedStageFunctions("calc", "calc.1", "calc.2");
+
+    factory.addStageFunction(INIT, ctx -> {
+      assertEquals(new HashSet<>(asList("audit.start", "audit.end")), ctx.enableNamedStageFunctionsMatching("audit.*"));
+      assertEquals(singleton("calc.10"), ctx.enableNamedStageFunctionsMatching("calc.??"));
+      assertEquals(new HashSet<>(asList("calc.1", "calc.2")), ctx.enableTaggedStageFunctions("calc"));
+      assertFalse(ctx.enableNamedStageFunction("calc.1"));
+      assertEquals(emptySet(), ctx.enableTaggedStageFunctions("unknown"));
+    });
+
+    assertTrue(factory
+        .createRunner()
+        .run(emptyMap()));
+    assertEquals(asList("audit.start", "calc.10", "calc.2", "calc.1", "audit.end"), executed);
+  }
+
+
+  @Test
+  @DisplayName("Cached plan variants")
+  void cachedPlanVariants()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executed = new ArrayList<String>();
+
+    factory.setPlanVariantCacheSize(2);
+    factory.namedStageFunction("a", PROCESS, ctx -> executed.add("a"));
+    factory.namedStageFunction("b", PROCESS, ctx -> executed.add("b"));
+    factory.namedStageFunction("c", END, ctx -> executed.add("c"));
+    factory.addStageFunction(PROCESS, ctx -> executed.add("p"));
+    factory.addStageFunction(INIT, ctx -> {
+      ctx.enableNamedStageFunction("b");
+      ctx.enableNamedStageFunction("a");
+    });
+
+    for(int n = 0; n < 3; n++)
+      assertTrue(factory.createRunner().run(emptyMap()));
+
+    assertEquals(asList("p", "a", "b", "p", "a", "b", "p", "a", "b"), executed);
+    assertEquals(2, factory.getPlanVariantCacheMisses());
+    assertEquals(4, factory.getPlanVariantCacheHits());
+
+    factory.addStageFunction(START, ctx -> ctx.enableNamedStageFunction("c"));
+    executed.clear();
+
+    assertTrue(factory.createRunner().run(emptyMap()));
+    assertEquals(asList("p", "a", "b", "c"), executed);
+    assertEquals(3, factory.getPlanVariantCacheMisses());
+    assertEquals(0, factory.getPlanVariantCacheHits());
+  }
+
+
+  @Test
+  @DisplayName("Stage function and stage metrics")
+  void metrics()
+  {
+    val factory = new MyStageRunnerFactory();
+
+    factory.setMetricsEnabled(true);
+    factory.addStageFunction(START, "S", ctx -> {});
+    factory.addStageFunction(PROCESS, "P", ctx -> {
+      if (ctx.<Boolean>getData("fail"))
+        throw new IllegalStateException();
+    });
+    factory.namedStageFunction("abort", END, ctx -> ctx.abort());
+
+    val runner = factory.createRunner();
+
+    assertTrue(runner.run(singletonMap("fail", false)));
+    assertThrows(StageRunnerException.class, () -> runner.run(singletonMap("fail", true)));
+
+    factory.addStageFunction(INIT, ctx -> ctx.enableNamedStageFunction("abort"));
+    assertFalse(runner.run(singletonMap("fail", false)));
+
+    val metrics = factory.getMetrics();
+    val functions = metrics.getFunctions();
+
+    assertEquals(4, functions.size());
+    assertEquals(3, functions.get(0).getInvocations());
+    assertEquals(3, functions.get(1).getInvocations());
+    assertEquals(1, functions.get(1).getFailures());
+    assertEquals("abort", functions.get(2).getName());
+    assertEquals(1, functions.get(2).getAborts());
+    assertEquals(3, functions.get(0).getLatency().getCount());
+    assertEquals(3, metrics.getStages().get(START).getCount());
+    assertEquals(3, metrics.getStages().get(PROCESS).getCount());
+    assertEquals(0, metrics.getStages().get(END).getCount());
+  }
+
+
+  @Test
+  @DisplayName("Stage function CPU time and allocation profiling")
+  void profiling()
+  {
+    val factory = new MyStageRunnerFactory();
+    val allocations = new ArrayList<byte[]>();
+
+    factory.setProfilingEnabled(true);
+    factory.addStageFunction(PROCESS, "allocate", ctx -> {
+      for(int n = 0; n < 100; n++)
+        allocations.add(new byte[10_000]);
+    });
+    factory.addStageFunction(END, "noop", ctx -> {});
+
+    assertTrue(factory.createRunner().run(emptyMap()));
+
+    val functions = factory.getMetrics().getFunctions();
+
+    assertEquals(1, functions.get(0).getProfiledInvocations());
+    assertTrue(functions.get(0).getAllocatedBytes() >= 1_000_000);
+    assertTrue(functions.get(0).getCpuNanos() > 0);
+    assertTrue(functions.get(1).getAllocatedBytes() < 1_000_000);
+
+    factory.setProfilingEnabled(false);
+    assertEquals(-1, factory.getMetrics().getFunctions().get(0).getProfiledInvocations());
+    assertEquals(-1, factory.getMetrics().getFunctions().get(0).getCpuNanos());
+  }
+
+
+  @Test
+  @DisplayName("Flight recorder events")
+  @SneakyThrows
+  void flightRecorderEvents()
+  {
+    val factory = new MyStageRunnerFactory();
+
+    factory.addStageFunction(START, "S", ctx -> {});
+    factory.namedStageFunction("abort", END, ctx -> ctx.abort());
+    factory.addStageFunction(INIT, ctx -> ctx.enableNamedStageFunction("abort"));
+
+    val file = Files.createTempFile("stagerunner", ".jfr");
+
+    try(val recording = new Recording()) {
+      recording.enable("de.sayayi.stagerunner.Run");
+      recording.enable("de.sayayi.stagerunner.Stage");
+      recording.enable("de.sayayi.stagerunner.StageFunction");
+      recording.start();
+
+      assertFalse(factory.createRunner().run(emptyMap()));
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    val events = new ArrayList<String>();
+
+    for(val event: RecordingFile.readAllEvents(file))
+    {
+      val type = event.getEventType().getName();
+
+      if (type.endsWith(".Run"))
+        events.add("run:" + event.getString("outcome"));
+      else
+        events.add(event.getString("stage") + ':' + event.getString("outcome"));
+    }
+
+    Files.delete(file);
+    Collections.sort(events);
+
+    assertEquals(asList("END:ABORTED", "END:ABORTED", "INIT:PROCESSED", "INIT:PROCESSED", "START:PROCESSED",
+        "START:PROCESSED", "run:ABORTED"), events);
+  }
+
+
+  @Test
+  @DisplayName("Pooled stage context")
+  void pooledStageContext()
+  {
+    val factory = new MyStageRunnerFactory();
+    factory.setStageContextPoolSize(2);
+
+    factory.addStageFunction(START, "S", ctx -> {
+      if (ctx.<Boolean>getData("dynamic"))
+        ctx.addStageFunction(PROCESS, "P", c -> {});
+    });
+    factory.addStageFunction(END, "E", ctx -> {});
+
+    for(val dynamic: asList(true, false, true))
+    {
+      val runner = factory.createRunner();
+
+      assertTrue(runner.run(singletonMap("dynamic", dynamic)));
+      assertEquals(dynamic
+          ? asList(">START", ">fn(S)", "<fn", "<START", ">PROCESS", ">fn(P)", "<fn", "<PROCESS", ">END", ">fn(E)", "<fn", "<END")
+          : asList(">START", ">fn(S)", "<fn", "<START", ">END", ">fn(E)", "<fn", "<END"),
+          runner.log);
+    }
+  }
+
+
+  @Test
+  @DisplayName("Parallel stage functions")
+  void parallelStageFunctions()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executor = Executors.newFixedThreadPool(4);
+    val latch = new CountDownLatch(4);
+
+    factory.setExecutor(executor);
+
+    for(int n = 0; n < 4; n++)
+    {
+      factory.addStageFunction(PROCESS, (ParallelStageFunction<TestStage>)ctx -> {
+        // all 4 functions must run concurrently in order to pass the latch
+        latch.countDown();
+        awaitLatch(latch);
+      });
+    }
+    factory.addStageFunction(END, "E", ctx -> {});
+
+    try {
+      val runner = factory.createRunner();
+
+      assertTrue(runner.run(emptyMap()));
+      assertEquals(
+          asList(">PROCESS", ">fn", ">fn", ">fn", ">fn", "<fn", "<fn", "<fn", "<fn", "<PROCESS", ">END", ">fn(E)", "<fn", "<END"),
+          runner.log);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+
+  @Test
+  @DisplayName("Dependent stage functions")
+  void dependentStageFunctions()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executor = Executors.newFixedThreadPool(4);
+    val latch = new CountDownLatch(2);
+    val order = synchronizedList(new ArrayList<String>());
+
+    factory.setExecutor(executor);
+
+    factory.addStageFunction(START, ctx -> {
+      // START and END functions must run concurrently in order to pass the latch
+      latch.countDown();
+      awaitLatch(latch);
+      order.add("start");
+    });
+    factory.addStageFunction(PROCESS, DependentStageFunction.of(singleton("data"), emptySet(), ctx -> {
+      assertEquals(PROCESS, ctx.getCurrentStage());
+      order.add("process");
+    }));
+    factory.addStageFunction(END, DependentStageFunction.of(emptySet(), singleton("data"), ctx -> {
+      assertEquals(END, ctx.getCurrentStage());
+      latch.countDown();
+      awaitLatch(latch);
+      order.add("end");
+    }));
+    factory.addStageFunction(CLEANUP, ctx -> order.add("cleanup"));
+
+    try {
+      assertTrue(factory.createRunner().run(emptyMap()));
+      assertEquals("cleanup", order.get(3));
+      assertTrue(order.indexOf("process") > order.indexOf("end"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+
+  @Test
+  @DisplayName("Named dependent stage functions")
+  void namedDependentStageFunctions()
+  {
+    val factory = new MyStageRunnerFactory();
+
+    factory.addStageFunction(START, "S", ctx -> {
+      if (ctx.getData("enable") != null)
+        ctx.enableNamedStageFunction("dependent");
+    });
+    factory.addStageFunction(PROCESS, "P", ctx -> {});
+    factory.namedStageFunction("dependent", END, 1000, "D",
+        DependentStageFunction.of(emptySet(), emptySet(), ctx -> assertEquals(END, ctx.getCurrentStage())));
+
+    // not enabled: regular execution in stage order
+    val runner = factory.createRunner();
+
+    assertTrue(runner.run(emptyMap()));
+    assertEquals(asList(">START", ">fn(S)", "<fn", "<START", ">PROCESS", ">fn(P)", "<fn", "<PROCESS"), runner.log);
+
+    // enabled: remaining stage functions are scheduled by dependencies
+    val scheduledRunner = factory.createRunner();
+
+    assertTrue(scheduledRunner.run(singletonMap("enable", true)));
+    assertEquals(asList(">START", ">fn(S)", "<fn", "<START"), scheduledRunner.log.subList(0, 4));
+    assertTrue(scheduledRunner.log.contains(">fn(D)"));
+    assertTrue(scheduledRunner.log.contains(">fn(P)"));
+    assertEquals(12, scheduledRunner.log.size());
+  }
+
+
+  @Test
+  @DisplayName("Asynchronous stage functions")
+  void asyncStageFunctions()
+  {
+    val factory = new MyStageRunnerFactory();
+    val future = new CompletableFuture<Void>();
+
+    factory.addStageFunction(START, "S", ctx -> {});
+    factory.addStageFunction(PROCESS, "P", (AsyncStageFunction<TestStage>)ctx -> future);
+    factory.addStageFunction(END, "E", ctx -> {});
+
+    val runner = factory.createRunner();
+    val result = runner.runAsync(emptyMap());
+
+    assertFalse(result.isDone());
+    assertEquals(asList(">START", ">fn(S)", "<fn", "<START", ">PROCESS", ">fn(P)"), runner.log);
+
+    future.complete(null);
+
+    assertTrue(result.join());
+    assertEquals(
+        asList(">START", ">fn(S)", "<fn", "<START", ">PROCESS", ">fn(P)", "<fn", "<PROCESS", ">END", ">fn(E)", "<fn", "<END"),
+        runner.log);
+  }
+
+
+  @Test
+  @DisplayName("Virtual thread execution mode")
+  void virtualThreadExecutionMode()
+  {
+    val factory = new MyStageRunnerFactory();
+    val caller = Thread.currentThread();
+
+    factory.setExecutionMode(VIRTUAL_THREADS);
+    factory.addStageFunction(PROCESS, "P", ctx -> assertNotSame(caller, Thread.currentThread()));
+
+    val runner = factory.createRunner();
+
+    assertTrue(runner.runAsync(emptyMap()).join());
+    assertEquals(asList(">PROCESS", ">fn(P)", "<fn", "<PROCESS"), runner.log);
+  }
+
+
+  @Test
+  @DisplayName("Batch run")
+  void batchRun()
+  {
+    val factory = new MyStageRunnerFactory();
+    val order = new ArrayList<String>();
+
+    factory.addStageFunction(START, ctx -> {
+      val item = ctx.<String>getData("item");
+
+      order.add("S" + item);
+
+      if ("B".equals(item))
+        ctx.abort();
+      else if ("C".equals(item))
+        throw new IllegalStateException();
+    });
+    factory.addStageFunction(END, ctx -> order.add("E" + ctx.getData("item")));
+
+    val results = factory.createRunner().runBatch(asList(
+        singletonMap("item", "A"), singletonMap("item", "B"),
+        singletonMap("item", "C"), singletonMap("item", "D")));
+
+    assertEquals(asList("SA", "SB", "SC", "SD", "EA", "ED"), order);
+    assertTrue(results.get(0).join());
+    assertFalse(results.get(1).join());
+    assertTrue(results.get(2).isCompletedExceptionally());
+    assertTrue(results.get(3).join());
+  }
+
+
+  @Test
+  @SneakyThrows
+  @DisplayName("Streaming stage runner")
+  void streamingStageRunner()
+  {
+    val factory = new MyStageRunnerFactory();
+    val processed = synchronizedList(new ArrayList<Integer>());
+    val results = new ArrayList<CompletableFuture<Boolean>>();
+
+    factory.addStageFunction(START, ctx -> {
+      if (ctx.<Integer>getData("item") == 3)
+        ctx.abort();
+    });
+    factory.addStageFunction(END, ctx -> processed.add(ctx.getData("item")));
+
+    try(val runner = factory.createStreamingRunner(2, 2, true)) {
+      for(int n = 0; n < 10; n++)
+        results.add(runner.submit(singletonMap("item", n)));
+    }
+
+    assertEquals(9, processed.size());
+
+    for(int n = 0; n < 10; n++)
+      assertEquals(n != 3, results.get(n).join());
+  }
+
+
+  @Test
+  @SneakyThrows
+  @DisplayName("Streaming stage runner with executor")
+  void streamingStageRunnerWithExecutor()
+  {
+    val factory = new MyStageRunnerFactory();
+    val executor = Executors.newFixedThreadPool(TestStage.values().length, runnable -> new Thread(runnable, "io"));
+    val threads = synchronizedSet(new HashSet<String>());
+
+    factory.addStageFunction(START, ctx -> threads.add(Thread.currentThread().getName()));
+    factory.addStageFunction(END, ctx -> threads.add(Thread.currentThread().getName()));
+
+    try(val runner = factory.createStreamingRunner(2, 1, false, new StageRunnerCallback<TestStage>() {}, executor)) {
+      for(int n = 0; n < 5; n++)
+        assertTrue(runner.submit(singletonMap("item", n)).get(5, SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(singleton("io"), threads);
+  }
+
+
+  @Test
+  @DisplayName("Slot based stage data")
+  void slotBasedStageData()
+  {
+    val factory = new MyStageRunnerFactory();
+    val layout = DataLayout.of("A", "B");
+    final DataKey<Integer> keyA = layout.key("A");
+    final DataKey<Boolean> keyB = layout.key("B");
+    final DataKey<Integer> otherKeyA = DataLayout.of("X", "A").key("A");
+
+    factory.addStageFunction(START, ctx -> {
+      assertEquals(456, ctx.getData(keyA));
+      assertEquals(456, ctx.getData(otherKeyA));
+      assertEquals(456, ctx.<Integer>getData("A"));
+    });
+    factory.addStageFunction(END, ctx -> assertEquals(Boolean.FALSE, ctx.getData(keyB)));
+
+    assertTrue(factory
+        .createRunner()
+        .run(new StageData(layout).set(keyA, 456).set(keyB, false)));
+    assertTrue(factory
+        .createRunner()
+        .run(Map.of("A", 456, "B", false)));
+  }
+
+
+  @Test
+  @DisplayName("Primitive stage data lanes")
+  void primitiveStageDataLanes()
+  {
+    val factory = new MyStageRunnerFactory();
+    val layout = DataLayout.of(new String[] { "id", "count", "name" },
+        new Class<?>[] { long.class, int.class, String.class });
+    final DataKey<Long> id = layout.key("id");
+    final DataKey<Integer> count = layout.key("count");
+
+    factory.addStageFunction(START, ctx -> {
+      assertEquals(42L, ctx.getLongData(id));
+      assertEquals(3, ctx.getIntData(count));
+      assertEquals(42L, ctx.<Long>getData("id"));
+      assertEquals("x", ctx.getData("name"));
+    });
+
+    assertTrue(factory
+        .createRunner()
+        .run(new StageData(layout).setLong(id, 42).setInt(count, 3).set(layout.key("name"), "x")));
+    assertTrue(factory
+        .createRunner()
+        .run(Map.of("id", 42L, "count", 3, "name", "x")));
+  }
+
+
+  @SneakyThrows
+  private static void awaitLatch(@NotNull CountDownLatch latch) {
+    assertTrue(latch.await(5, SECONDS));
+  }
+
+
+  @Test
+  @DisplayName("Compiled execution plan")
+  void compiledPlan()
+  {
+    val compiled = new ArrayList<Integer>();
+    val compiler = new StagePlanCompiler() {
+      @Override
+      public @NotNull <S extends Enum<S>> CompiledStagePlan<S> compile(@NotNull List<S> stages,
+                                                                       @NotNull List<StageFunction<S>> functions) {
+        return new LoopCompiledStagePlan<>(stages, functions, compiled);
+      }
+    };
+    val factory = new MyStageRunnerFactory();
+
+    factory.setStagePlanCompiler(compiler);
+    factory.addStageFunction(PROCESS, ctx -> {});
+    factory.addStageFunction(START, ctx -> {});
+    factory.addStageFunction(END, ctx -> {});
+    factory.addStageFunction(PROCESS, ctx -> {});
+
+    val runner = factory.createRunner();
+
+    assertTrue(runner.run(emptyMap()));
+    assertEquals(
+        asList(">START", ">fn", "<fn", "<START", ">PROCESS", ">fn", "<fn", ">fn", "<fn", "<PROCESS", ">END", ">fn", "<fn", "<END"),
+        runner.log);
+    assertEquals(asList(0, 1, 2, 3), compiled);
+
+    // the interpreter continues the run after a stage function has been added dynamically
+    factory.addStageFunction(INIT, "I", ctx -> ctx.addStageFunction(CLEANUP, "C", c -> {}));
+    runner.log.clear();
+    compiled.clear();
+
+    assertTrue(runner.run(emptyMap()));
+    assertEquals(
+        asList(">INIT", ">fn(I)", "<fn", "<INIT", ">START", ">fn", "<fn", "<START", ">PROCESS", ">fn", "<fn", ">fn", "<fn", "<PROCESS", ">CLEANUP", ">fn(C)", "<fn", "<CLEANUP", ">END", ">fn", "<fn", "<END"),
+        runner.log);
+    assertEquals(List.of(0), compiled);
+
+    val failingFactory = new MyStageRunnerFactory();
+
+    failingFactory.setStagePlanCompiler(compiler);
+    failingFactory.addStageFunction(START, ctx -> { throw new IllegalStateException(); });
+    failingFactory.addStageFunction(PROCESS, StageContext::abort);
+    failingFactory.addStageFunction(END, ctx -> {});
+    compiled.clear();
+
+    assertThrows(StageRunnerException.class, () -> failingFactory.createRunner().run(emptyMap()));
+    assertEquals(List.of(0), compiled);
+
+    compiled.clear();
+
+    assertFalse(failingFactory.createRunner().run(emptyMap(), new StageRunnerCallback<>() {
+      @Override
+      public void stageExceptionHandler(@NotNull StageContext<TestStage> stageContext, @NotNull Throwable exception) {
+      }
+    }));
+    assertEquals(asList(0, 1), compiled);
+  }
+
 
 
   private static class MyStageRunnerFactory extends AbstractStageRunnerFactory<TestStage>
@@ -204,6 +833,18 @@ class StageRunnerTest
     }
 
 
+    @Override
+    public boolean run(@NotNull StageData data) {
+      return super.run(data, this);
+    }
+
+
+    @Override
+    public @NotNull CompletableFuture<Boolean> runAsync(@NotNull Map<String, Object> data) {
+      return super.runAsync(data, this);
+    }
+
+
     @Override
     public void preStageCallback(@NotNull StageContext<TestStage> stageContext) {
       log.add(">" + stageContext.getCurrentStage());
@@ -237,4 +878,49 @@ class StageRunnerTest
       StageRunnerCallback.super.stageExceptionHandler(stageContext, exception);
     }
   }
+
+
+
+
+
+  /**
+   * Compiled plan executing the stage functions in a loop, as generated code would execute them in sequence.
+   */
+  private static final class LoopCompiledStagePlan<S extends Enum<S>> extends CompiledStagePlan<S>
+  {
+    private final List<S> stages;
+    private final List<StageFunction<S>> functions;
+    private final List<Integer> compiled;
+
+
+    private LoopCompiledStagePlan(@NotNull List<S> stages, @NotNull List<StageFunction<S>> functions,
+                                  @NotNull List<Integer> compiled)
+    {
+      this.stages = stages;
+      this.functions = functions;
+      this.compiled = compiled;
+    }
+
+
+    @Override
+    protected void run(@NotNull StageContext<S> context, @NotNull StageRunnerCallback<S> callback)
+    {
+      for(int n = 0; n < functions.size(); n++)
+      {
+        if (!enter(context, callback, n, n == 0 || stages.get(n) != stages.get(n - 1)))
+          return;
+
+        Throwable exception = null;
+        compiled.add(n);
+
+        try {
+          functions.get(n).process(context);
+        } catch(Throwable ex) {
+          exception = ex;
+        }
+
+        complete(context, callback, exception);
+      }
+    }
+  }
 }
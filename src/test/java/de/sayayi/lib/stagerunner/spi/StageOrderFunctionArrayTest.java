@@ -15,13 +15,14 @@
  */
 package de.sayayi.lib.stagerunner.spi;
 
+import de.sayayi.lib.stagerunner.StageContext;
 import de.sayayi.lib.stagerunner.TestStage;
 import lombok.val;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import static de.sayayi.lib.stagerunner.TestStage.*;
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 
 /**
@@ -30,11 +31,14 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 @DisplayName("Stage order function array")
 class StageOrderFunctionArrayTest
 {
+  private static final int STAGE_COUNT = TestStage.values().length;
+
+
   @Test
   @DisplayName("Sort by stage type")
   void sortByStageType()
   {
-    val array = new StageOrderFunctionArray<>(new StageOrderFunctionArray<TestStage>());
+    val array = new StageOrderFunctionArray<>(new StageOrderFunctionArray<TestStage>(STAGE_COUNT));
 
     assertEquals(0, array.add(new StageOrderFunction<>(START, ctx -> {})));
     assertEquals(1, array.add(new StageOrderFunction<>(CLEANUP, ctx -> {})));
@@ -48,7 +52,7 @@ class StageOrderFunctionArrayTest
   @DisplayName("Sort by default order")
   void sortByDefaultOrder()
   {
-    val array = new StageOrderFunctionArray<TestStage>();
+    val array = new StageOrderFunctionArray<TestStage>(STAGE_COUNT);
 
     // prepare
     assertEquals(0, array.add(new StageOrderFunction<>(START, ctx -> {})));
@@ -68,7 +72,7 @@ class StageOrderFunctionArrayTest
   @DisplayName("Sort by order")
   void sortByOrder()
   {
-    val array = new StageOrderFunctionArray<TestStage>();
+    val array = new StageOrderFunctionArray<TestStage>(STAGE_COUNT);
 
     // prepare
     assertEquals(0, array.add(new StageOrderFunction<>(PROCESS, null, 100, ctx -> {})));
@@ -80,4 +84,54 @@ class StageOrderFunctionArrayTest
     assertEquals(4, array.add(new StageOrderFunction<>(PROCESS, null, 100, ctx -> {})));
     assertEquals(5, array.add(new StageOrderFunction<>(PROCESS, null, 200, ctx -> {})));
   }
+
+
+  @Test
+  @DisplayName("Copy on write for shared plan")
+  void copyOnWrite()
+  {
+    val segments = new StageFunctionSegments<TestStage>(STAGE_COUNT);
+
+    // prepare
+    segments.add(new StageOrderFunction<>(START, ctx -> {}));
+    segments.add(new StageOrderFunction<>(CLEANUP, ctx -> {}));
+
+    val plan = new StageFunctionPlan<>(segments, STAGE_COUNT, 0);
+    val planFunctions = plan.functions.clone();
+    val runArray = new StageOrderFunctionArray<>(plan);
+
+    assertSame(plan.functions, runArray.functions);
+
+    // modify run array
+    assertEquals(1, runArray.add(new StageOrderFunction<>(PROCESS, ctx -> {})));
+
+    assertNotSame(plan.functions, runArray.functions);
+    assertEquals(3, runArray.size);
+    assertEquals(2, plan.size);
+    assertArrayEquals(planFunctions, plan.functions);
+  }
+
+
+  @Test
+  @DisplayName("Packed function state moves on insert")
+  void packedStateOnInsert()
+  {
+    val array = new StageOrderFunctionArray<TestStage>(STAGE_COUNT);
+
+    for(int n = 0; n < 40; n++)
+      array.add(new StageOrderFunction<>(PROCESS, null, n * 10, ctx -> {}));
+
+    array.setState(0, StageOrderFunctionArray.STATE_PROCESSED);
+    array.setState(31, StageOrderFunctionArray.STATE_FAILED);
+    array.setState(32, StageOrderFunctionArray.STATE_EXECUTING);
+
+    // insert before index 31
+    assertEquals(31, array.add(new StageOrderFunction<>(PROCESS, null, 305, ctx -> {})));
+
+    assertEquals(StageContext.FunctionState.PROCESSED, array.getFunctionState(0));
+    assertEquals(StageContext.FunctionState.WAITING, array.getFunctionState(31));
+    assertEquals(StageContext.FunctionState.FAILED, array.getFunctionState(32));
+    assertEquals(StageContext.FunctionState.EXECUTING, array.getFunctionState(33));
+    assertEquals(StageContext.FunctionState.WAITING, array.getFunctionState(40));
+  }
 }
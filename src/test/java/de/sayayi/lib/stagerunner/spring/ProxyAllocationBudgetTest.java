@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring;
+
+import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.math.BigDecimal;
+
+import static de.sayayi.lib.stagerunner.AllocationBudget.assertAllocatedBytesPerRun;
+import static de.sayayi.lib.stagerunner.TestStage.*;
+
+
+/**
+ * Guards the number of bytes allocated per invocation of a generated stage runner proxy, including the generated
+ * stage function adapters, against regressions. Stage contexts are pooled, so the budgets cover the proxy and
+ * adapter bytecode and, for converted parameters, the conversion service.
+ *
+ * @author Jeroen Gremmen
+ */
+@DisplayName("Proxy allocation budget")
+@SpringJUnitConfig(ProxyAllocationBudgetTest.BudgetConfiguration.class)
+class ProxyAllocationBudgetTest
+{
+  @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+  @Autowired DirectRunner directRunner;
+
+  @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+  @Autowired ConversionRunner conversionRunner;
+
+
+  @Test
+  @DisplayName("Generated adapters without conversion")
+  void withoutConversion()
+  {
+    // stage data (32 bytes), reference lane (24 bytes) and int lane (24 bytes)
+    assertAllocatedBytesPerRun(96, () -> directRunner.run("task", 42));
+  }
+
+
+  @Test
+  @DisplayName("Generated adapters with conversion")
+  void withConversion()
+  {
+    // stage data (56 bytes) and 3 string to number conversions (472 bytes)
+    assertAllocatedBytesPerRun(640, () -> conversionRunner.run("42"));
+  }
+
+
+
+
+  public interface DirectRunner {
+    boolean run(@Data("task") String task, @Data("count") int count);
+  }
+
+
+  public interface ConversionRunner {
+    boolean run(@Data("number") String number);
+  }
+
+
+
+
+  @Configuration(proxyBeanMethods = false)
+  @Import({ DirectBean.class, ConversionBean.class })
+  static class BudgetConfiguration
+  {
+    @Bean
+    StageRunnerFactoryProcessor<DirectRunner> directProcessor() {
+      return createProcessor(DirectRunner.class, DirectBean.class);
+    }
+
+
+    @Bean
+    StageRunnerFactoryProcessor<ConversionRunner> conversionProcessor() {
+      return createProcessor(ConversionRunner.class, ConversionBean.class);
+    }
+
+
+    private static <R> StageRunnerFactoryProcessor<R> createProcessor(@NotNull Class<R> stageRunnerInterfaceType,
+                                                                      @NotNull Class<?> beanType)
+    {
+      var processor = new StageRunnerFactoryProcessor<>(stageRunnerInterfaceType, StageDef.class);
+
+      processor.stageRunnerFactory.setStageContextPoolSize(4);
+      processor.setStageFunctionFilter(new StageFunctionFilter() {
+        @Override
+        public <B,S extends Enum<S>> boolean filter(@NotNull B bean, @NotNull S stage, int order, String name) {
+          return beanType.isInstance(bean);
+        }
+      });
+
+      return processor;
+    }
+  }
+
+
+
+
+  @Component
+  @SuppressWarnings("unused")
+  public static class DirectBean
+  {
+    @StageDef(stage = INIT, comment = "task")
+    public void init(@Data("task") String task) {
+    }
+
+
+    @StageDef(stage = PROCESS, comment = "count")
+    public void process(@Data("count") int count) {
+    }
+
+
+    @StageDef(stage = END, comment = "task and count")
+    public void end(@Data("task") String task, @Data("count") int count) {
+    }
+  }
+
+
+
+
+  @Component
+  @SuppressWarnings("unused")
+  public static class ConversionBean
+  {
+    @StageDef(stage = INIT, comment = "int")
+    public void toInt(@Data("number") int number) {
+    }
+
+
+    @StageDef(stage = PROCESS, comment = "Long")
+    public void toLong(@Data("number") Long number) {
+    }
+
+
+    @StageDef(stage = END, comment = "BigDecimal")
+    public void toBigDecimal(@Data("number") BigDecimal number) {
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.DataLayout;
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.TestStage;
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import de.sayayi.lib.stagerunner.spring.FactoryAccessor;
+import de.sayayi.lib.stagerunner.spring.StageDef;
+import de.sayayi.lib.stagerunner.spring.StageRunnerFactoryProcessor;
+import de.sayayi.lib.stagerunner.spring.annotation.Data;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringJUnitConfig(MethodHandleStageFunctionBuilderTest.StageConfiguration.class)
+@DisplayName("Method handle stage function builder")
+class MethodHandleStageFunctionBuilderTest
+{
+  @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+  @Autowired MethodHandleRunner runner;
+
+  @Autowired MethodHandleBean bean;
+
+
+  @Test
+  @DisplayName("Run stage functions through method handle adapters")
+  void run()
+  {
+    bean.log.clear();
+
+    assertTrue(runner.run("task", 42, "17"));
+    assertEquals(List.of("init(INIT)", "process(task,42)", "convert(17)"), bean.log);
+  }
+
+
+  @Test
+  @DisplayName("Proxy implementation")
+  void proxy()
+  {
+    assertTrue(Proxy.isProxyClass(runner.getClass()));
+    assertTrue(runner instanceof FactoryAccessor);
+    assertNotNull(((FactoryAccessor<?>)runner).getStageRunnerFactory());
+    assertEquals("Proxy implementation for interface " + MethodHandleRunner.class.getName(), runner.toString());
+    assertEquals(runner, runner);
+  }
+
+
+  @Test
+  @SneakyThrows
+  @DisplayName("Proxy for a stage runner method without parameters")
+  void proxyWithoutParameters()
+  {
+    val log = new ArrayList<String>();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+    val builder = new ReflectiveStageRunnerProxyBuilder();
+    val method = NoDataRunner.class.getMethod("run");
+
+    factory.addStageFunction(TestStage.PROCESS, ctx -> log.add("process"));
+
+    assertTrue(builder.createProxy(TestStage.class, NoDataRunner.class, method, DataLayout.of(), new String[0],
+        factory).run());
+    assertTrue(builder.createProxy(TestStage.class, NoDataRunner.class, method, new String[0], factory).run());
+    assertEquals(List.of("process", "process"), log);
+  }
+
+
+  @Test
+  @SneakyThrows
+  @DisplayName("Proxy passing a null argument")
+  void proxyWithNullArgument()
+  {
+    val log = new ArrayList<String>();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+    val builder = new ReflectiveStageRunnerProxyBuilder();
+    val method = MethodHandleRunner.class.getMethod("run", String.class, int.class, String.class);
+    val dataNames = new String[] { "task", "count", "number" };
+
+    factory.addStageFunction(TestStage.PROCESS,
+        ctx -> log.add(ctx.getData("task") + "," + ctx.getData("count") + "," + ctx.getData("number")));
+
+    assertTrue(builder.createProxy(TestStage.class, MethodHandleRunner.class, method, dataNames, factory)
+        .run(null, 3, "4"));
+    assertTrue(builder.createProxy(TestStage.class, MethodHandleRunner.class, method,
+        DataLayout.of(dataNames, new Class<?>[] { String.class, int.class, String.class }), dataNames, factory)
+        .run(null, 3, "4"));
+    assertEquals(List.of("null,3,4", "null,3,4"), log);
+  }
+
+
+
+
+  @Configuration(proxyBeanMethods = false)
+  @Import(MethodHandleBean.class)
+  static class StageConfiguration
+  {
+    @Bean
+    StageRunnerFactoryProcessor<MethodHandleRunner> processor()
+    {
+      val processor = new StageRunnerFactoryProcessor<>(MethodHandleRunner.class, StageDef.class);
+
+      processor.setStageRunnerProxyBuilder(new ReflectiveStageRunnerProxyBuilder());
+      processor.setStageFunctionBuilder(
+          new MethodHandleStageFunctionBuilder(DefaultConversionService.getSharedInstance()));
+
+      return processor;
+    }
+  }
+
+
+
+
+  public interface MethodHandleRunner {
+    boolean run(@Data("task") String task, @Data("count") int count, @Data("number") String number);
+  }
+
+
+
+
+  public interface NoDataRunner {
+    boolean run();
+  }
+
+
+
+
+  @Component
+  public static class MethodHandleBean
+  {
+    final List<String> log = new ArrayList<>();
+
+
+    @StageDef(stage = TestStage.INIT, comment = "Initialize")
+    public void init(StageContext<TestStage> context) {
+      log.add("init(" + context.getCurrentStage() + ")");
+    }
+
+
+    @StageDef(stage = TestStage.PROCESS, comment = "Process task")
+    public void process(@Data("task") String task, @Data("count") int count) {
+      log.add("process(" + task + ',' + count + ')');
+    }
+
+
+    @StageDef(stage = TestStage.CLEANUP, comment = "Convert number")
+    public void convert(@Data("number") long number) {
+      log.add("convert(" + number + ')');
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 Jeroen Gremmen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.sayayi.lib.stagerunner.spring.builder;
+
+import de.sayayi.lib.stagerunner.StageContext;
+import de.sayayi.lib.stagerunner.StageFunction;
+import de.sayayi.lib.stagerunner.StageRunnerCallback;
+import de.sayayi.lib.stagerunner.TestStage;
+import de.sayayi.lib.stagerunner.exception.StageRunnerException;
+import de.sayayi.lib.stagerunner.spi.CompiledStagePlan;
+import de.sayayi.lib.stagerunner.spi.DefaultStageRunnerFactory;
+import de.sayayi.lib.stagerunner.spi.StagePlanCompiler;
+import de.sayayi.lib.stagerunner.spring.MyRunnerInterface;
+import de.sayayi.lib.stagerunner.spring.StageDef;
+import de.sayayi.lib.stagerunner.spring.StageRunnerFactoryProcessor;
+import lombok.SneakyThrows;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.sayayi.lib.stagerunner.TestStage.*;
+import static de.sayayi.lib.stagerunner.spring.builder.StagePlanCompilerImpl.MAX_COMPILED_FUNCTIONS;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringJUnitConfig(StagePlanCompilerImplTest.StageConfiguration.class)
+@DisplayName("Stage plan compiler")
+class StagePlanCompilerImplTest
+{
+  private static final RecordingStagePlanCompiler SPRING_COMPILER = new RecordingStagePlanCompiler();
+
+  @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+  @Autowired MyRunnerInterface runner;
+
+  @Autowired CompiledBean bean;
+
+
+  @Test
+  @DisplayName("Run annotated stage functions through a compiled plan")
+  void annotatedFunctions()
+  {
+    bean.log.clear();
+
+    assertTrue(runner.run("task", List.of(1, 2), 42));
+    assertEquals(List.of("init(INIT)", "process(task,42)"), bean.log);
+
+    val plan = SPRING_COMPILER.plan;
+
+    assertNotNull(plan);
+    assertEquals("Compiled execution plan with 2 stage functions for stage " + TestStage.class.getName(),
+        plan.toString());
+
+    // generated stage function classes are public, so the plan invokes them without interface dispatch
+    assertNotEquals(StageFunction.class, functionFieldType(plan, 0));
+    assertNotEquals(StageFunction.class, functionFieldType(plan, 1));
+  }
+
+
+  @Test
+  @DisplayName("Inaccessible stage function classes")
+  void inaccessibleFunctions()
+  {
+    val log = new ArrayList<String>();
+    val compiler = new RecordingStagePlanCompiler();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+
+    factory.setStagePlanCompiler(compiler);
+    factory.addStageFunction(START, new PrivateFunction(log));
+    factory.addStageFunction(PROCESS, ctx -> log.add("lambda"));
+
+    assertTrue(factory.createRunner().run(emptyMap()));
+    assertEquals(List.of("private", "lambda"), log);
+
+    assertEquals(StageFunction.class, functionFieldType(compiler.plan, 0));
+    assertEquals(StageFunction.class, functionFieldType(compiler.plan, 1));
+  }
+
+
+  @Test
+  @DisplayName("Exception thrown by a compiled stage function")
+  void throwingFunction()
+  {
+    val log = new ArrayList<String>();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+
+    factory.setStagePlanCompiler(new StagePlanCompilerImpl());
+    factory.addStageFunction(START, ctx -> log.add("start"));
+    factory.addStageFunction(PROCESS, ctx -> { throw new IllegalStateException("failed"); });
+    factory.addStageFunction(END, ctx -> log.add("end"));
+
+    val runner = factory.createRunner();
+    val exception = assertThrows(StageRunnerException.class, () -> runner.run(emptyMap()));
+
+    assertInstanceOf(IllegalStateException.class, exception.getCause());
+    assertEquals(List.of("start"), log);
+
+    val exceptions = new ArrayList<Throwable>();
+    log.clear();
+
+    assertTrue(runner.run(emptyMap(), new StageRunnerCallback<>() {
+      @Override
+      public void stageExceptionHandler(@NotNull StageContext<TestStage> stageContext, @NotNull Throwable ex) {
+        exceptions.add(ex);
+      }
+    }));
+    assertEquals(List.of("start", "end"), log);
+    assertEquals(1, exceptions.size());
+    assertInstanceOf(IllegalStateException.class, exceptions.get(0));
+  }
+
+
+  @Test
+  @DisplayName("Abort in a compiled stage function")
+  void abortingFunction()
+  {
+    val log = new ArrayList<String>();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+
+    factory.setStagePlanCompiler(new StagePlanCompilerImpl());
+    factory.addStageFunction(START, ctx -> log.add("start"));
+    factory.addStageFunction(PROCESS, ctx -> {
+      log.add("abort");
+      ctx.abort();
+    });
+    factory.addStageFunction(PROCESS, ctx -> log.add("process"));
+    factory.addStageFunction(END, ctx -> log.add("end"));
+
+    assertFalse(factory.createRunner().run(emptyMap()));
+    assertEquals(List.of("start", "abort"), log);
+  }
+
+
+  @Test
+  @DisplayName("Partially compiled execution plan")
+  void partiallyCompiledPlan()
+  {
+    val count = MAX_COMPILED_FUNCTIONS + 100;
+    val indexes = new ArrayList<Integer>();
+    val compiler = new RecordingStagePlanCompiler();
+    val factory = new DefaultStageRunnerFactory<>(TestStage.class);
+
+    factory.setStagePlanCompiler(compiler);
+
+    // the stage changes after the last compiled stage function, so the interpreter must complete stage PROCESS
+    for(int n = 0; n < count; n++)
+    {
+      final int index = n;
+      factory.addStageFunction(n < MAX_COMPILED_FUNCTIONS ? PROCESS : END, n, ctx -> indexes.add(index));
+    }
+
+    val stages = new ArrayList<TestStage>();
+
+    assertTrue(factory.createRunner().run(emptyMap(), new StageRunnerCallback<>() {
+      @Override
+      public void postStageCallback(@NotNull StageContext<TestStage> stageContext, @NotNull TestStage stage) {
+        stages.add(stage);
+      }
+    }));
+    assertEquals(range(0, count).boxed().collect(toList()), indexes);
+    assertEquals(List.of(PROCESS, END), stages);
+    assertEquals("Compiled execution plan with " + MAX_COMPILED_FUNCTIONS + " stage functions for stage " +
+        TestStage.class.getName(), compiler.plan.toString());
+  }
+
+
+  @SneakyThrows
+  private static Class<?> functionFieldType(@NotNull CompiledStagePlan<?> plan, int n) {
+    return plan.getClass().getDeclaredField("function" + n).getType();
+  }
+
+
+
+
+  @Configuration(proxyBeanMethods = false)
+  @Import(CompiledBean.class)
+  static class StageConfiguration
+  {
+    @Bean
+    StageRunnerFactoryProcessor<MyRunnerInterface> processor()
+    {
+      val processor = new StageRunnerFactoryProcessor<>(MyRunnerInterface.class, StageDef.class);
+      processor.setStagePlanCompiler(SPRING_COMPILER);
+
+      return processor;
+    }
+  }
+
+
+
+
+  @Component
+  public static class CompiledBean
+  {
+    final List<String> log = new ArrayList<>();
+
+
+    @StageDef(stage = TestStage.INIT, comment = "Initialize")
+    public void init(StageContext<TestStage> context) {
+      log.add("init(" + context.getCurrentStage() + ")");
+    }
+
+
+    @StageDef(stage = TestStage.PROCESS, comment = "Process task")
+    public void process(String task, int count) {
+      log.add("process(" + task + ',' + count + ')');
+    }
+  }
+
+
+
+
+  /**
+   * Stage function class, which cannot be referenced by the compiled plan.
+   */
+  private static final class PrivateFunction implements StageFunction<TestStage>
+  {
+    private final List<String> log;
+
+
+    private PrivateFunction(@NotNull List<String> log) {
+      this.log = log;
+    }
+
+
+    @Override
+    public void process(@NotNull StageContext<TestStage> stageContext) {
+      log.add("private");
+    }
+  }
+
+
+
+
+  /**
+   * Stage plan compiler delegating to {@link StagePlanCompilerImpl}, keeping the last compiled plan.
+   */
+  private static final class RecordingStagePlanCompiler implements StagePlanCompiler
+  {
+    private final StagePlanCompiler compiler = new StagePlanCompilerImpl();
+
+    private volatile CompiledStagePlan<?> plan;
+
+
+    @Override
+    public @NotNull <S extends Enum<S>> CompiledStagePlan<S> compile(@NotNull List<S> stages,
+                                                                     @NotNull List<StageFunction<S>> functions)
+    {
+      val compiledPlan = compiler.compile(stages, functions);
+      plan = compiledPlan;
+
+      return compiledPlan;
+    }
+  }
+}